@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AbstractCache#saveAllToDisk()} and {@link AbstractCache#loadAllFromDisk(DatabaseConnection)}
+ * of synthetic tables in a temp folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class CacheDiskBenchmark {
+
+    @Param({"5"})
+    int tables;
+
+    @Param({"10000", "200000"})
+    int rowsPerTable;
+
+    File folder;
+    SyntheticCache cache;
+    StandInDatabaseConnection connection;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        folder = Files.createTempDirectory("cache-benchmark").toFile();
+        connection = new StandInDatabaseConnection();
+        cache = new SyntheticCache(folder.getPath(), tables, rowsPerTable);
+        cache.loadAllFromDB(connection);
+        cache.saveAllToDisk();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        AbstractCache.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public void saveAllToDisk() throws Exception {
+        cache.saveAllToDisk();
+    }
+
+    @Benchmark
+    public boolean loadAllFromDisk() throws Exception {
+        return cache.loadAllFromDisk(connection);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow and return of {@link ConnectionPool} under contention, the stand-in connections
+ * cost nothing, so the numbers are the pool overhead alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class ConnectionPoolBenchmark {
+
+    @Param({"4", "16"})
+    int maxTotal;
+
+    ConnectionPool pool;
+
+    @Setup
+    public void setup() throws SQLException {
+        ConnectionPoolConfig config = new ConnectionPoolConfig(maxTotal, maxTotal, 30_000);
+        config.housekeepingIntervalMillis = 0;
+        Holder holder = new Holder();
+        pool = new ConnectionPool(holder, config, "benchmark");
+        holder.pool = pool;
+        pool.ensureMinIdle();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public PooledConnection borrowReturn() throws SQLException {
+        PooledConnection connection = pool.getConnection();
+        connection.close();
+        return connection;
+    }
+
+    @Benchmark
+    public boolean borrowPrepareReturn() throws SQLException {
+        try (PooledConnection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT * FROM Synthetic0 WHERE id = ?")) {
+            statement.setInt(1, 1);
+            return statement.isClosed();
+        }
+    }
+
+    static class Holder implements PoolConnectionCreater {
+        ConnectionPool pool;
+
+        @Override
+        public PooledConnection createNewPooledConnection() {
+            String url = StandInDriver.URL_PREFIX + "pool";
+            return new PooledConnection(url, StandInDriver.connect(url), pool);
+        }
+    }
+}
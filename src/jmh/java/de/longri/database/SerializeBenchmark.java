@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.serializable.BitStore;
+import de.longri.serializable.NotImplementedException;
+import de.longri.serializable.StoreBase;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AbstractTableDataEntry#serialize(StoreBase)} and the matching create(StoreBase) of a
+ * table, one operation handles all rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializeBenchmark {
+
+    @Param({"10000"})
+    int rows;
+
+    SyntheticCache.SyntheticTable table;
+    byte[] serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticCache cache = new SyntheticCache(new File(System.getProperty("java.io.tmpdir"), "serialize-benchmark").getPath(), 1, rows);
+        cache.loadAllFromDB(new StandInDatabaseConnection());
+        table = cache.getSyntheticTable(0);
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws NotImplementedException {
+        StoreBase store = new BitStore();
+        store.write(table.size());
+        for (AbstractTableDataEntry entry : table) {
+            entry.serialize(store);
+        }
+        return store.getArray();
+    }
+
+    @Benchmark
+    public void deserialize(Blackhole blackhole) throws NotImplementedException, SQLException {
+        StoreBase store = new BitStore(serialized);
+        int count = store.readInt();
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(table.create(store));
+        }
+    }
+}
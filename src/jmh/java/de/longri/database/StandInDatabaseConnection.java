@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.sql.Connection;
+
+/**
+ * {@link DatabaseConnection} on a {@link StandInDriver} connection.
+ */
+public class StandInDatabaseConnection extends DatabaseConnection {
+
+    @Override
+    public String getDatabaseName() {
+        return "standin";
+    }
+
+    @Override
+    public SQL_TYPE getType() {
+        return SQL_TYPE.none;
+    }
+
+    @Override
+    public String getAutoIncrementString() {
+        return "";
+    }
+
+    @Override
+    public void importDumbString(String dump) {
+    }
+
+    @Override
+    public DatabaseUser getDatabaseUser() {
+        return null;
+    }
+
+    @Override
+    public void setDatabaseUser(DatabaseUser user) {
+    }
+
+    @Override
+    public boolean databaseExist() {
+        return true;
+    }
+
+    @Override
+    public void createDatabase() {
+    }
+
+    @Override
+    protected Connection getConnection() {
+        return StandInDriver.connect(StandInDriver.URL_PREFIX + getDatabaseName());
+    }
+
+    @Override
+    public boolean tableExist(String uniqueID, String tblName) {
+        return true;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * In memory JDBC driver for the benchmarks, URLs start with {@value #URL_PREFIX}.
+ * <p>
+ * Connections answer {@code SELECT ... FROM <table>} with the rows registered by
+ * {@link #register(String, String[], Object[][])}, every other statement does nothing.
+ * There is no network and no parsing cost, so the numbers show the overhead of this library.
+ */
+public class StandInDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:standin:";
+
+    private static final ConcurrentHashMap<String, Table> TABLES = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StandInDriver());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    record Table(String[] columns, Object[][] rows) {
+    }
+
+    public static void register(String tableName, String[] columns, Object[][] rows) {
+        TABLES.put(tableName.toLowerCase(Locale.ROOT), new Table(columns, rows));
+    }
+
+    public static Connection connect(String url) {
+        return proxy(Connection.class, new ConnectionHandler(url));
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        return acceptsURL(url) ? connect(url) : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StandInDriver.class.getClassLoader(), new Class[]{type}, handler));
+    }
+
+    // default answer for everything a stand-in does not implement
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0d;
+        return null;
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        final String url;
+        boolean closed;
+
+        ConnectionHandler(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Connection) proxy, null));
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler((Connection) proxy, (String) args[0]));
+                case "getMetaData":
+                    return proxy(DatabaseMetaData.class, (p, m, a) -> m.getName().equals("getURL") ? url : defaultValue(m.getReturnType()));
+                case "getAutoCommit":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInConnection{" + url + '}';
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        final Connection connection;
+        final String sql;
+        boolean closed;
+
+        StatementHandler(Connection connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+            switch (method.getName()) {
+                case "executeQuery":
+                    return resultSet((Statement) proxy, args == null ? sql : (String) args[0]);
+                case "getConnection":
+                    return connection;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInStatement{" + sql + '}';
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static ResultSet resultSet(Statement statement, String sql) {
+        String lower = sql.toLowerCase(Locale.ROOT);
+        int from = lower.indexOf(" from ");
+        Table table = null;
+        if (from >= 0) {
+            String rest = lower.substring(from + 6).trim();
+            int end = 0;
+            while (end < rest.length() && (Character.isLetterOrDigit(rest.charAt(end)) || rest.charAt(end) == '_')) end++;
+            table = TABLES.get(rest.substring(0, end));
+        }
+        Table rows = table != null ? table : new Table(new String[0], new Object[0][]);
+        return proxy(ResultSet.class, new ResultSetHandler(statement, rows));
+    }
+
+    private static class ResultSetHandler implements InvocationHandler {
+        final Statement statement;
+        final Table table;
+        final HashMap<String, Integer> columnIndex = new HashMap<>();
+        int row = -1;
+        boolean wasNull;
+        boolean closed;
+
+        ResultSetHandler(Statement statement, Table table) {
+            this.statement = statement;
+            this.table = table;
+            for (int i = 0; i < table.columns().length; i++) {
+                columnIndex.put(table.columns()[i].toLowerCase(Locale.ROOT), i);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            switch (name) {
+                case "next":
+                    return ++row < table.rows().length;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "wasNull":
+                    return wasNull;
+                case "getStatement":
+                    return statement;
+                case "getMetaData":
+                    return proxy(ResultSetMetaData.class, (p, m, a) -> switch (m.getName()) {
+                        case "getColumnCount" -> table.columns().length;
+                        case "getColumnLabel", "getColumnName" -> table.columns()[(Integer) a[0] - 1];
+                        default -> defaultValue(m.getReturnType());
+                    });
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInResultSet";
+            }
+            if (name.equals("getObject") && args != null && args.length == 2) {
+                Object value = value(args[0]);
+                wasNull = value == null;
+                if (args[1] == LocalDateTime.class && value instanceof String dateTime) return Abstract_Database.getDateTime(dateTime);
+                return value;
+            }
+            if (name.startsWith("get") && args != null && args.length == 1) {
+                Object value = value(args[0]);
+                wasNull = value == null;
+                return convert(value, method.getReturnType());
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private Object value(Object column) throws SQLException {
+            int index;
+            if (column instanceof Integer i) {
+                index = i - 1;
+            } else {
+                Integer found = columnIndex.get(((String) column).toLowerCase(Locale.ROOT));
+                if (found == null) throw new SQLException("Unknown column " + column);
+                index = found;
+            }
+            return table.rows()[row][index];
+        }
+
+        private static Object convert(Object value, Class<?> type) {
+            if (value == null) return defaultValue(type);
+            if (type == String.class) return value.toString();
+            if (type == int.class) return ((Number) value).intValue();
+            if (type == long.class) return ((Number) value).longValue();
+            if (type == double.class) return ((Number) value).doubleValue();
+            if (type == boolean.class) return value instanceof Boolean b ? b : ((Number) value).intValue() != 0;
+            return value;
+        }
+    }
+}
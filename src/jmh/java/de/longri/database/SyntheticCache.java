@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.serializable.NotImplementedException;
+import de.longri.serializable.StoreBase;
+import de.longri.utils.NamedObjectProperty;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/**
+ * Cache of generated tables with an int, string, double, datetime and bool column. The rows
+ * are registered at the {@link StandInDriver}, so the tables can be loaded like real ones.
+ */
+public class SyntheticCache extends AbstractCache {
+
+    static final String[] COLUMNS = {"id", "name", "value", "created", "active"};
+    static final LocalDateTime LAST_MODIFIED = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private final AbstractTable<AbstractTableDataEntry>[] tables;
+
+    @SuppressWarnings("unchecked")
+    public SyntheticCache(String cacheFolder, int tableCount, int rowsPerTable) {
+        super(cacheFolder);
+        tables = new AbstractTable[tableCount];
+        for (int t = 0; t < tableCount; t++) {
+            String tableName = "Synthetic" + t;
+            StandInDriver.register(tableName, COLUMNS, rows(rowsPerTable));
+            tables[t] = (AbstractTable) SyntheticTable.create(tableName);
+        }
+    }
+
+    // rows with a few distinct names, like lookup columns of real tables
+    static Object[][] rows(int count) {
+        Object[][] rows = new Object[count][];
+        LocalDateTime created = LAST_MODIFIED.minusDays(365);
+        for (int i = 0; i < count; i++) {
+            rows[i] = new Object[]{i, "name-" + (i % 64), i * 0.25d,
+                    Abstract_Database.getDateString(created.plusMinutes(i)), i % 3 == 0};
+        }
+        return rows;
+    }
+
+    @Override
+    protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+        return tables;
+    }
+
+    SyntheticTable getSyntheticTable(int index) {
+        return (SyntheticTable) (AbstractTable) tables[index];
+    }
+
+    // the disk cache is never older than the stand-in database
+    @Override
+    protected LocalDateTime getLastModifiedOnDb(String tableName) {
+        return LAST_MODIFIED;
+    }
+
+    abstract static class SyntheticTable extends AbstractTable<SyntheticEntry> {
+
+        SyntheticTable() {
+            setDbLastModify(LAST_MODIFIED);
+        }
+
+        // AbstractTable asks for the name in its constructor, a captured variable is already set at that time
+        static SyntheticTable create(String name) {
+            return new SyntheticTable() {
+                @Override
+                public String getTableName() {
+                    return name;
+                }
+            };
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return COLUMNS;
+        }
+
+        @Override
+        protected SyntheticEntry create(ResultSet rs) throws SQLException {
+            return new SyntheticEntry(rs, this);
+        }
+
+        @Override
+        protected SyntheticEntry create(StoreBase storeBase) throws SQLException, NotImplementedException {
+            return new SyntheticEntry(storeBase, this);
+        }
+
+        @Override
+        protected SyntheticEntry createRow() {
+            return new SyntheticEntry(this);
+        }
+    }
+
+    static class SyntheticEntry extends AbstractTableDataEntry {
+
+        SyntheticEntry(ArrayList<NamedObjectProperty> properties, SyntheticTable table) {
+            super(properties, table);
+        }
+
+        SyntheticEntry(ResultSet resultSet, SyntheticTable table) throws SQLException {
+            super(resultSet, table);
+        }
+
+        SyntheticEntry(StoreBase storeBase, SyntheticTable table) throws SQLException, NotImplementedException {
+            super(storeBase, table);
+        }
+
+        SyntheticEntry(SyntheticTable table) {
+            super(table);
+        }
+
+        @Override
+        protected NamedObjectProperty createProperty(String name) {
+            switch (name) {
+                case "id":
+                    return new NamedObjectProperty.NamedIntegerProperty(name);
+                case "name":
+                    return new NamedObjectProperty.NamedStringProperty(name);
+                case "value":
+                    return new NamedObjectProperty.NamedDoubleProperty(name);
+                case "created":
+                    return new NamedObjectProperty.NamedLocalDateTimeProperty(name);
+                case "active":
+                    return new NamedObjectProperty.NamedBoolProperty(name);
+            }
+            throw new RuntimeException("Property with name " + name + " not found");
+        }
+    }
+}
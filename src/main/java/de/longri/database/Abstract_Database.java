@@ -76,6 +76,10 @@ public abstract class Abstract_Database implements Database {
 
     @Override
     public int executeUpdate(String uniqueID, String sql) throws SQLException {
+        if (connection instanceof MariaDB_Cluster_Connection clusterConnection) {
+            // the cluster has no connect/disconnect, every update uses its own pooled connection
+            return clusterConnection.executeUpdate(sql);
+        }
         try {
             this.connect(uniqueID);
         } catch (ClassNotFoundException e) {
@@ -119,26 +123,31 @@ public abstract class Abstract_Database implements Database {
     private final String UNIQUE_ID_SET_VERSION = "Abstract_Database.setVersion()";
 
     protected void setVersion(int version) throws SQLException {
+        if (connection instanceof MariaDB_Cluster_Connection clusterConnection) {
+            clusterConnection.setVersion(version);
+            return;
+        }
         try {
             connect(UNIQUE_ID_SET_VERSION);
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
             return;
         }
-        Statement stmt = connection.createStatement();
-
-        //first get the exist id
+        //first get the exist id, a pooled statement is closed once its result is read to the end
         String sql = "SELECT id FROM SCHEME";
-        ResultSet rs = stmt.executeQuery(sql);
         int id = 0;
-        while (rs.next()) {
-            id = rs.getInt(1);
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery(sql);
+            while (rs.next()) {
+                id = rs.getInt(1);
+            }
         }
 
         sql = "REPLACE INTO SCHEME (id, version) VALUES('" + id + "', " + Integer.toString(version) + ");";
 
-        stmt.executeUpdate(sql);
-        stmt.close();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
         disconnect(UNIQUE_ID_SET_VERSION);
     }
 
@@ -195,9 +204,11 @@ public abstract class Abstract_Database implements Database {
     public String getString(String uniqueID, String sql) {
         try {
             connection.connect(uniqueID);
-            ResultSet rst = createStatement().executeQuery(sql);
-            rst.next();
-            return rst.getString(1);
+            try (Statement statement = createStatement()) {
+                ResultSet rst = statement.executeQuery(sql);
+                rst.next();
+                return rst.getString(1);
+            }
         } catch (SQLException | ClassNotFoundException e) {
             return null;
         } finally {
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Prepared statement handed out by {@link PooledConnection}. Closing it returns the
+ * driver statement to the {@link StatementCache} of the connection instead of closing it.
+ */
+class CachedPreparedStatement extends DelegatingPreparedStatement {
+
+    private final StatementCache cache;
+    private final StatementCache.Key key;
+    private boolean closed = false;
+
+    CachedPreparedStatement(PreparedStatement delegate, Connection connection, StatementCache cache, StatementCache.Key key) {
+        super(delegate, connection);
+        this.cache = cache;
+        this.key = key;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) return;
+        closed = true;
+        cache.release(key, delegate);
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed || delegate.isClosed();
+    }
+}
@@ -18,54 +18,589 @@
  */
 package de.longri.database;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Stack;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-// Connection pool class
+/**
+ * Bounded connection pool.
+ * <p>
+ * Idle connections are held in a lock-free deque, the number of borrowed connections
+ * is limited by a semaphore with {@link ConnectionPoolConfig#maxTotal} permits. A borrower
+ * first takes a permit (waiting at most {@link ConnectionPoolConfig#acquireTimeoutMillis}),
+ * then takes the most recently used idle connection or opens a new one if the pool is
+ * still below its limit. If a permit holder finds the pool full, it waits for a returned or
+ * closed connection until the same acquire deadline.
+ * <p>
+ * Idle connections are validated with {@link java.sql.Connection#isValid(int)} before they are
+ * handed out, if they were not used for {@link ConnectionPoolConfig#validationIntervalMillis}.
+ * A background housekeeper closes connections that are idle for too long or older than
+ * {@link ConnectionPoolConfig#maxLifetimeMillis} and refills the pool up to minIdle.
+ * <p>
+ * {@link #getMetrics()} returns counters and latency histograms of borrows, connects and
+ * validations, registered {@link MetricsExporter}s receive them on every housekeeper run.
+ */
 public class ConnectionPool {
-    private Stack<PooledConnection> connectionPool;
+
+    private final static Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
     private final PoolConnectionCreater CREATER;
+    private final String NAME;
+    private final int MIN_IDLE;
+    private final int MAX_TOTAL;
+    private final long ACQUIRE_TIMEOUT;
+    private final long VALIDATION_INTERVAL;
+    private final int VALIDATION_TIMEOUT;
+    private final long IDLE_TIMEOUT;
+    private final long MAX_LIFETIME;
+    private final int STATEMENT_CACHE_SIZE;
+    private final int WARM_UP_SIZE;
+    private final long LEAK_DETECTION_THRESHOLD;
+    private final boolean RETURN_ON_STATEMENT_CLOSE;
+
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final Semaphore permits;
+    // borrowers with a permit wait here while the pool is full
+    private final Object slotMonitor = new Object();
+    private final AtomicInteger slotWaiters = new AtomicInteger();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder creates = new LongAdder();
+    private final LongAdder createFailures = new LongAdder();
+    private final LongAdder destroys = new LongAdder();
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final LatencyHistogram createTime = new LatencyHistogram();
+    private final LatencyHistogram validationTime = new LatencyHistogram();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService housekeeper;
+    private volatile HealthCheck healthCheck;
+    private volatile boolean closed = false;
 
     public ConnectionPool(PoolConnectionCreater creater) throws SQLException {
+        this(creater, new ConnectionPoolConfig());
+    }
+
+    public ConnectionPool(PoolConnectionCreater creater, ConnectionPoolConfig config) throws SQLException {
+        this(creater, config, "ConnectionPool");
+    }
+
+    /**
+     * @param name shown in the metrics and the log
+     */
+    public ConnectionPool(PoolConnectionCreater creater, ConnectionPoolConfig config, String name) throws SQLException {
+        if (config.maxTotal < 1) throw new IllegalArgumentException("maxTotal must be greater than 0");
         CREATER = creater;
-        this.connectionPool = new Stack<>();
+        NAME = name;
+        MAX_TOTAL = config.maxTotal;
+        MIN_IDLE = Math.max(0, Math.min(config.minIdle, config.maxTotal));
+        ACQUIRE_TIMEOUT = config.acquireTimeoutMillis;
+        VALIDATION_INTERVAL = config.validationIntervalMillis;
+        VALIDATION_TIMEOUT = config.validationTimeoutSeconds;
+        IDLE_TIMEOUT = config.idleTimeoutMillis;
+        MAX_LIFETIME = config.maxLifetimeMillis;
+        STATEMENT_CACHE_SIZE = Math.max(0, config.statementCacheSize);
+        WARM_UP_SIZE = Math.min(MAX_TOTAL, Math.max(MIN_IDLE, config.warmUpSize));
+        LEAK_DETECTION_THRESHOLD = Math.max(0, config.leakDetectionThresholdMillis);
+        RETURN_ON_STATEMENT_CLOSE = config.returnConnectionOnStatementClose;
+        permits = new Semaphore(MAX_TOTAL, config.fair);
 
+        if (config.housekeepingIntervalMillis > 0) {
+            housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ConnectionPool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            housekeeper.scheduleWithFixedDelay(this::housekeeping, config.housekeepingIntervalMillis,
+                    config.housekeepingIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            housekeeper = null;
+        }
     }
 
 
-    // Get a connection from the pool
-    public synchronized PooledConnection getConnection() {
-        if (connectionPool.isEmpty()) {
-            try {
-                connectionPool.push(CREATER.createNewPooledConnection());
-            } catch (SQLException e) {
-                e.printStackTrace();
-                return null;
-            } catch (GeneralSecurityException | IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Thrown by {@link #getConnection()} if no connection became free within the acquire timeout.
+     * The pool is exhausted, the database itself may be fine.
+     */
+    public static class AcquireTimeoutException extends SQLTransientConnectionException {
+        AcquireTimeoutException(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * Checks the state of the database behind the pool, see {@link #setHealthCheck(HealthCheck)}.
+     */
+    public interface HealthCheck {
+        void check(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs the check on every housekeeper run with a connection of the pool. The run is skipped
+     * while the pool is exhausted. Null for no check.
+     */
+    public void setHealthCheck(HealthCheck healthCheck) {
+        this.healthCheck = healthCheck;
+    }
+
+    // Get a connection from the pool, waits for a free one if the pool is exhausted
+    public PooledConnection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is shut down");
+        long start = System.nanoTime();
+        acquirePermit();
+        return borrow(start);
+    }
+
+    // Get a connection only if the pool is not exhausted, null instead of waiting
+    public PooledConnection tryGetConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is shut down");
+        long start = System.nanoTime();
+        if (!permits.tryAcquire()) return null;
+        return borrow(start);
+    }
+
+    // hands out a connection for a taken permit, the permit is released if that fails
+    private PooledConnection borrow(long start) throws SQLException {
+        try {
+            PooledConnection connection = takeIdleOrCreate(start + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_TIMEOUT));
+            borrowWait.record(System.nanoTime() - start);
+            borrows.increment();
+            // borrowers are only tracked with leak detection, the stack capture is too expensive otherwise
+            boolean trace = LEAK_DETECTION_THRESHOLD > 0;
+            connection.markBorrowed(trace);
+            if (trace) borrowedConnections.add(connection);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        try {
+            if (ACQUIRE_TIMEOUT <= 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new AcquireTimeoutException("No connection available after " + ACQUIRE_TIMEOUT + "ms: " + this);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    // deadline in System.nanoTime(), only used with an acquire timeout
+    private PooledConnection takeIdleOrCreate(long deadline) throws SQLException {
+        while (true) {
+            PooledConnection connection = pollIdle();
+            if (connection != null) {
+                if (isUsable(connection, System.currentTimeMillis())) return connection;
+                destroy(connection);
+                continue;
+            }
+
+            if (closed) throw new SQLException("Connection pool is shut down");
+
+            int total = totalCount.get();
+            if (total < MAX_TOTAL) {
+                if (totalCount.compareAndSet(total, total + 1)) return createConnection();
+            } else {
+                awaitSlot(deadline);
+            }
+        }
+    }
+
+    /**
+     * Waits until a connection is returned or closed. The pool is full, but holding a permit
+     * guarantees that a connection is on its way back into the idle deque, e.g. from a borrower
+     * that validates an idle connection which turns out to be broken.
+     */
+    private void awaitSlot(long deadline) throws SQLException {
+        slotWaiters.incrementAndGet();
+        try {
+            synchronized (slotMonitor) {
+                // checked under the monitor, signalSlot() can't notify in between
+                if (closed || idleCount.get() > 0 || totalCount.get() < MAX_TOTAL) return;
+                if (ACQUIRE_TIMEOUT <= 0) {
+                    slotMonitor.wait();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    throw new AcquireTimeoutException("No connection available after " + ACQUIRE_TIMEOUT + "ms: " + this);
+                }
+                TimeUnit.NANOSECONDS.timedWait(slotMonitor, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            slotWaiters.decrementAndGet();
+        }
+    }
+
+    // wakes up borrowers in awaitSlot(), called after a connection went idle or was closed
+    private void signalSlot() {
+        if (slotWaiters.get() == 0) return;
+        synchronized (slotMonitor) {
+            slotMonitor.notifyAll();
+        }
+    }
+
+    private PooledConnection pollIdle() {
+        PooledConnection connection = idleConnections.pollFirst();
+        if (connection != null) idleCount.decrementAndGet();
+        return connection;
+    }
+
+    // checks lifetime and, if the connection was idle long enough, the socket
+    private boolean isUsable(PooledConnection connection, long now) {
+        if (isExpired(connection, now)) return false;
+        if (now - connection.getLastUsed() < VALIDATION_INTERVAL) return true;
+        validations.increment();
+        long start = System.nanoTime();
+        try {
+            if (connection.getActualConnection().isValid(VALIDATION_TIMEOUT)) {
+                long nanos = System.nanoTime() - start;
+                validationTime.record(nanos);
+                connection.validated(nanos);
+                return true;
+            }
+        } catch (SQLException e) {
+            log.debug("Validation of {} failed", connection, e);
+        }
+        validationTime.record(System.nanoTime() - start);
+        validationFailures.increment();
+        log.debug("Discard invalid connection {}", connection);
+        connection.validationFailed();
+        return false;
+    }
+
+    private boolean isExpired(PooledConnection connection, long now) {
+        return MAX_LIFETIME > 0 && now - connection.getCreatedAt() >= MAX_LIFETIME;
+    }
+
+    // opens a new connection, the caller must have reserved a slot in totalCount
+    private PooledConnection createConnection() throws SQLException {
+        boolean created = false;
+        long start = System.nanoTime();
+        try {
+            PooledConnection connection = CREATER.createNewPooledConnection();
+            created = true;
+            createTime.record(System.nanoTime() - start);
+            creates.increment();
+            return connection;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!created) {
+                totalCount.decrementAndGet();
+                signalSlot();
+                createFailures.increment();
             }
         }
-        return connectionPool.pop();
     }
 
     // Return a connection back to the pool
-    public synchronized void returnConnection(PooledConnection connection) {
-        if (connection != null) {
-            connectionPool.push(connection);
+    public void returnConnection(PooledConnection connection) {
+        if (connection == null || !connection.markReturned()) return;
+        if (LEAK_DETECTION_THRESHOLD > 0) {
+            borrowedConnections.remove(connection);
+            if (connection.isLeakReported()) {
+                log.info("Connection {} reported as possible leak was returned after {}ms", connection,
+                        connection.getLastUsed() - connection.getBorrowedAt());
+            }
+        }
+
+        if (closed || isExpired(connection, System.currentTimeMillis()) || isBroken(connection)) {
+            destroy(connection);
+        } else {
+            idleConnections.offerFirst(connection);
+            idleCount.incrementAndGet();
+            signalSlot();
+        }
+        permits.release();
+    }
+
+    // Adds a new opened connection to the idle connections, closes it if the pool is already full
+    public void push(PooledConnection newPooledConnection) {
+        if (newPooledConnection == null) return;
+        if (closed || totalCount.incrementAndGet() > MAX_TOTAL) {
+            destroy(newPooledConnection);
+            return;
+        }
+        idleConnections.offerLast(newPooledConnection);
+        idleCount.incrementAndGet();
+        signalSlot();
+    }
+
+    // Opens connections until minIdle connections are idle or the pool is full
+    public void ensureMinIdle() throws SQLException {
+        while (!closed && idleCount.get() < MIN_IDLE) {
+            int total = totalCount.get();
+            if (total >= MAX_TOTAL) return;
+            if (!totalCount.compareAndSet(total, total + 1)) continue;
+            idleConnections.offerLast(createConnection());
+            idleCount.incrementAndGet();
+            signalSlot();
+        }
+    }
+
+    private boolean isBroken(PooledConnection connection) {
+        try {
+            return connection.getActualConnection().isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    // evicts expired and long idle connections, then refills up to minIdle
+    void housekeeping() {
+        if (closed) return;
+        detectLeaks();
+        long now = System.currentTimeMillis();
+        for (PooledConnection connection : idleConnections) {
+            boolean expired = isExpired(connection, now);
+            boolean idleTooLong = IDLE_TIMEOUT > 0 && idleCount.get() > MIN_IDLE && now - connection.getLastUsed() >= IDLE_TIMEOUT;
+            if (!expired && !idleTooLong) continue;
+
+            // a borrower may have taken it in the meantime, only the winner of remove() closes it
+            if (idleConnections.remove(connection)) {
+                idleCount.decrementAndGet();
+                log.debug("Evict {} expired: {} idle: {}", connection, expired, idleTooLong);
+                destroy(connection);
+            }
+        }
+        try {
+            ensureMinIdle();
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Can't refill connection pool", e);
+        }
+        checkHealth();
+        exportMetrics();
+    }
+
+    // with a connection that is free right now, a failed connect is recorded by the creater
+    void checkHealth() {
+        HealthCheck check = healthCheck;
+        if (check == null || closed) return;
+        try (PooledConnection connection = tryGetConnection()) {
+            if (connection != null) check.check(connection);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Health check of {} failed", NAME, e);
+        }
+    }
+
+    public ConnectionPoolMetrics getMetrics() {
+        return new ConnectionPoolMetrics(NAME, System.currentTimeMillis(),
+                getTotalCount(), getIdleCount(), getActiveCount(), getWaitingCount(),
+                borrows.sum(), timeouts.sum(), creates.sum(), createFailures.sum(), destroys.sum(),
+                validations.sum(), validationFailures.sum(), leaks.sum(),
+                statementCacheHits.sum(), statementCacheMisses.sum(),
+                borrowWait.snapshot(), createTime.snapshot(), validationTime.snapshot());
+    }
+
+    public void addMetricsExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public void removeMetricsExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    // hands the current metrics to all exporters, a failing exporter does not stop the others
+    void exportMetrics() {
+        if (exporters.isEmpty()) return;
+        ConnectionPoolMetrics metrics = getMetrics();
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(metrics);
+            } catch (RuntimeException e) {
+                log.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    // logs every connection borrowed longer than the leak detection threshold once
+    void detectLeaks() {
+        if (LEAK_DETECTION_THRESHOLD <= 0) return;
+        long now = System.currentTimeMillis();
+        for (PooledConnection connection : borrowedConnections) {
+            long held = now - connection.getBorrowedAt();
+            if (held < LEAK_DETECTION_THRESHOLD || !connection.markLeakReported()) continue;
+            leaks.increment();
+            log.warn("Connection {} is borrowed since {}ms, possible leak", connection, held, connection.getBorrowTrace());
+        }
+    }
+
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    public long getLeakDetectionThreshold() {
+        return LEAK_DETECTION_THRESHOLD;
+    }
+
+    public boolean isReturnConnectionOnStatementClose() {
+        return RETURN_ON_STATEMENT_CLOSE;
+    }
+
+    /**
+     * Opens connections up to the warm up size in parallel.
+     *
+     * @param executor runs the connect calls, one task per connection
+     * @return completes with the number of opened connections, failed connects are logged and not counted
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Integer> warmUp(Executor executor) {
+        int missing = WARM_UP_SIZE - totalCount.get();
+        if (missing <= 0 || closed) return CompletableFuture.completedFuture(0);
+
+        CompletableFuture<Boolean>[] tasks = new CompletableFuture[missing];
+        for (int i = 0; i < missing; i++) {
+            tasks[i] = CompletableFuture.supplyAsync(this::openIdleConnection, executor);
+        }
+        return CompletableFuture.allOf(tasks).thenApply(v -> {
+            int opened = 0;
+            for (CompletableFuture<Boolean> task : tasks) {
+                if (task.join()) opened++;
+            }
+            return opened;
+        });
+    }
+
+    // opens one idle connection if the pool is not full, borrowers may have filled it in the meantime
+    private boolean openIdleConnection() {
+        while (true) {
+            if (closed) return false;
+            int total = totalCount.get();
+            if (total >= MAX_TOTAL) return false;
+            if (totalCount.compareAndSet(total, total + 1)) break;
+        }
+        try {
+            PooledConnection connection = createConnection();
+            idleConnections.offerLast(connection);
+            idleCount.incrementAndGet();
+            signalSlot();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Can't open connection on warm up", e);
+            return false;
+        }
+    }
+
+    public int getWarmUpSize() {
+        return WARM_UP_SIZE;
+    }
+
+    private void destroy(PooledConnection connection) {
+        totalCount.decrementAndGet();
+        signalSlot();
+        destroys.increment();
+        try {
+            connection.getActualConnection().close();
+        } catch (SQLException e) {
+            log.warn("Can't close connection {}", connection, e);
         }
     }
 
     // Shutdown the pool and close all connections
-    public synchronized void shutdown() throws SQLException {
-        while (!connectionPool.isEmpty()) {
-            PooledConnection pooledConnection = connectionPool.pop();
-            pooledConnection.getActualConnection().close();
+    public void shutdown() throws SQLException {
+        closed = true;
+        signalSlot();
+        if (housekeeper != null) housekeeper.shutdownNow();
+        PooledConnection pooledConnection;
+        while ((pooledConnection = pollIdle()) != null) {
+            destroy(pooledConnection);
         }
     }
 
-    public void push(PooledConnection newPooledConnection) {
-        connectionPool.push(newPooledConnection);
+    public boolean isShutdown() {
+        return closed;
+    }
+
+    public int getMinIdle() {
+        return MIN_IDLE;
+    }
+
+    public int getMaxTotal() {
+        return MAX_TOTAL;
+    }
+
+    // number of open connections, idle and borrowed
+    public int getTotalCount() {
+        return totalCount.get();
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public int getActiveCount() {
+        return Math.max(0, totalCount.get() - idleCount.get());
+    }
+
+    public int getStatementCacheSize() {
+        return STATEMENT_CACHE_SIZE;
+    }
+
+    void statementCacheHit() {
+        statementCacheHits.increment();
+    }
+
+    void statementCacheMiss() {
+        statementCacheMisses.increment();
+    }
+
+    // prepared statements served from the statement caches of all connections
+    public long getStatementCacheHitCount() {
+        return statementCacheHits.sum();
+    }
+
+    // prepared statements that had to be prepared by the driver
+    public long getStatementCacheMissCount() {
+        return statementCacheMisses.sum();
+    }
+
+    // number of threads waiting for a connection
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "{total=" + getTotalCount() + ", idle=" + getIdleCount() + ", active=" + getActiveCount() + ", waiting=" + getWaitingCount() + ", max=" + MAX_TOTAL + '}';
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+/**
+ * Sizing and timeout settings of a {@link ConnectionPool}.
+ * <p>
+ * The values are copied by the pool on construction, changing them afterwards
+ * has no effect on an existing pool.
+ */
+public class ConnectionPoolConfig {
+
+    // number of idle connections the pool tries to keep open
+    public int minIdle = 0;
+
+    // hard limit of open connections (idle + borrowed)
+    public int maxTotal = 20;
+
+    // max time a borrower waits for a free connection, 0 waits forever
+    public long acquireTimeoutMillis = 30_000;
+
+    // serve waiting borrowers in arrival order
+    public boolean fair = true;
+
+    // a connection idle for longer than this is checked with isValid() before it is handed out, 0 validates every borrow
+    public long validationIntervalMillis = 5_000;
+
+    // timeout of the isValid() check in seconds
+    public int validationTimeoutSeconds = 2;
+
+    // idle connections above minIdle are closed after this time, 0 keeps them forever
+    public long idleTimeoutMillis = 600_000;
+
+    // connections are closed and replaced after this age, 0 disables recycling
+    public long maxLifetimeMillis = 1_800_000;
+
+    // period of the background housekeeper that evicts idle/expired connections, 0 disables it
+    public long housekeepingIntervalMillis = 30_000;
+
+    // number of prepared statements cached per connection, 0 disables the cache
+    public int statementCacheSize = 250;
+
+    // connections opened in parallel by ConnectionPool.warmUp(), a value below minIdle uses minIdle
+    public int warmUpSize = 0;
+
+    // a connection borrowed for longer is logged as possible leak together with the stack of the borrower, 0 disables it
+    public long leakDetectionThresholdMillis = 0;
+
+    // statements of MariaDB_Cluster_Connection.createStatement() return their connection to the pool on close
+    // or when their result set is read to the end, if false the caller has to close stmt.getConnection().
+    // A statement whose result set was read to the end is closed and can't run another query, create a
+    // new statement per query or set this to false to reuse statements
+    public boolean returnConnectionOnStatementClose = true;
+
+    public ConnectionPoolConfig() {
+    }
+
+    public ConnectionPoolConfig(int minIdle, int maxTotal, long acquireTimeoutMillis) {
+        this.minIdle = minIdle;
+        this.maxTotal = maxTotal;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolConfig{minIdle=" + minIdle + ", maxTotal=" + maxTotal + ", acquireTimeoutMillis=" + acquireTimeoutMillis + ", fair=" + fair
+                + ", validationIntervalMillis=" + validationIntervalMillis + ", idleTimeoutMillis=" + idleTimeoutMillis
+                + ", maxLifetimeMillis=" + maxLifetimeMillis + ", housekeepingIntervalMillis=" + housekeepingIntervalMillis
+                + ", statementCacheSize=" + statementCacheSize + ", warmUpSize=" + warmUpSize
+                + ", leakDetectionThresholdMillis=" + leakDetectionThresholdMillis + ", returnConnectionOnStatementClose=" + returnConnectionOnStatementClose + '}';
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+/**
+ * Point in time view of the counters, gauges and latency histograms of a {@link ConnectionPool}.
+ *
+ * @param poolName          name of the pool, the host for pools of a {@link MariaDB_Cluster_Connection}
+ * @param timestamp         time of the snapshot in ms
+ * @param total             open connections, idle and borrowed
+ * @param idle              idle connections
+ * @param active            borrowed connections
+ * @param waiting           threads waiting for a connection
+ * @param borrowCount       successful borrows
+ * @param timeoutCount      borrows that timed out
+ * @param createCount       opened connections
+ * @param createFailedCount failed connects
+ * @param destroyCount      closed connections
+ * @param validationCount   isValid() checks
+ * @param validationFailedCount failed isValid() checks
+ * @param leakCount         connections reported as possible leak
+ * @param statementCacheHitCount  prepared statements served from the statement caches
+ * @param statementCacheMissCount prepared statements prepared by the driver
+ * @param borrowWait        time from calling getConnection() until a connection is handed out
+ * @param createTime        time to open a new connection
+ * @param validationTime    time of the isValid() checks
+ */
+public record ConnectionPoolMetrics(String poolName, long timestamp,
+                                    int total, int idle, int active, int waiting,
+                                    long borrowCount, long timeoutCount,
+                                    long createCount, long createFailedCount, long destroyCount,
+                                    long validationCount, long validationFailedCount, long leakCount,
+                                    long statementCacheHitCount, long statementCacheMissCount,
+                                    LatencyHistogram.Snapshot borrowWait,
+                                    LatencyHistogram.Snapshot createTime,
+                                    LatencyHistogram.Snapshot validationTime) {
+}
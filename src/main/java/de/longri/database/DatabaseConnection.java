@@ -23,9 +23,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.List;
 
 public abstract class DatabaseConnection {
 
@@ -154,6 +156,43 @@ public abstract class DatabaseConnection {
         }
     }
 
+    // statement for queries only, connections that split reads and writes may use another node
+    public Statement createReadOnlyStatement() throws SQLException {
+        return createStatement();
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        synchronized (OPEN_CONNECTION_IDs) {
+            if (connection == null) throw new RuntimeException("no connection to Database");
+            return connection.prepareStatement(sql);
+        }
+    }
+
+    // prepared statement for queries only, see createReadOnlyStatement()
+    public PreparedStatement prepareReadOnlyStatement(String sql) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    /**
+     * Number of statements that can run at the same time without waiting for a connection. A single
+     * connection shares one JDBC connection between all statements, so it has one.
+     */
+    public int getAvailableConnectionCount() {
+        return 1;
+    }
+
+    // metrics of the connection pools behind this connection, empty for a single connection
+    public List<ConnectionPoolMetrics> getPoolMetrics() {
+        return List.of();
+    }
+
+    // registers the exporter at every pool behind this connection, a single connection has nothing to export
+    public void addMetricsExporter(MetricsExporter exporter) {
+    }
+
+    public void removeMetricsExporter(MetricsExporter exporter) {
+    }
+
     public abstract boolean tableExist(String uniqueID, String tblName) throws SQLException;
 
     public static String getCaller() {
@@ -18,16 +18,115 @@
  */
 package de.longri.database;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A database node of a cluster.
+ * <p>
+ * Besides the address a host holds the health information used by the {@link HostSelector}s:
+ * the number of borrowed connections, an exponentially weighted moving average of the
+ * connect/validation latency and a circuit breaker. After {@link #getFailureThreshold()}
+ * consecutive connection failures the host is skipped for {@link #getCoolDownMillis()}, the
+ * first failure after the cool-down opens the breaker again. A host that is reachable but not
+ * synced with the cluster, e.g. a Galera donor, is skipped until it is synced again.
+ */
 public class Host {
 
+    // weight of a new latency sample
+    private static final double EWMA_ALPHA = 0.2;
+
     final String host;
     final String port;
 
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntil = 0;
+    private volatile boolean tripped = false;
+    private volatile double latencyEwmaNanos = 0;
+    private volatile boolean synced = true;
+
+    private int failureThreshold = 3;
+    private long coolDownMillis = 30_000;
+
     public Host(String host, String port) {
         this.host = host;
         this.port = port;
     }
 
+    public void setCircuitBreaker(int failureThreshold, long coolDownMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDownMillis = coolDownMillis;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getCoolDownMillis() {
+        return coolDownMillis;
+    }
+
+    // false while the circuit breaker is open or the node is not synced
+    public boolean isAvailable() {
+        return synced && System.currentTimeMillis() >= openUntil;
+    }
+
+    // false while the node doesn't serve consistent reads, set by the health check of its pool
+    public boolean isSynced() {
+        return synced;
+    }
+
+    void setSynced(boolean synced) {
+        this.synced = synced;
+    }
+
+    public long getOpenUntil() {
+        return openUntil;
+    }
+
+    void recordSuccess(long latencyNanos) {
+        consecutiveFailures.set(0);
+        tripped = false;
+        openUntil = 0;
+        synchronized (this) {
+            latencyEwmaNanos = latencyEwmaNanos == 0 ? latencyNanos : EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * latencyEwmaNanos;
+        }
+    }
+
+    void recordFailure() {
+        // a failure after the cool-down (half open) opens the breaker again immediately
+        if (tripped || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            tripped = true;
+            consecutiveFailures.set(0);
+            openUntil = System.currentTimeMillis() + coolDownMillis;
+        }
+    }
+
+    // moving average of connect and validation round trips, 0 if not yet measured
+    public double getLatencyEwmaMillis() {
+        return latencyEwmaNanos / 1_000_000.0;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    void connectionBorrowed() {
+        activeConnections.incrementAndGet();
+    }
+
+    void connectionReturned() {
+        activeConnections.decrementAndGet();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
     @Override
     public String toString() {
         return host + ":" + port;
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strategy that chooses the cluster node for the next connection.
+ */
+public interface HostSelector {
+
+    /**
+     * Selects one of the given hosts.
+     *
+     * @param hosts candidates, never empty
+     * @return the selected host
+     */
+    Host select(List<Host> hosts);
+
+    /**
+     * Returns the hosts with a closed circuit breaker. If every host is in its cool-down,
+     * the host whose cool-down ends first is returned, so the cluster is never completely
+     * blocked by the breakers.
+     */
+    static List<Host> availableHosts(List<Host> hosts) {
+        ArrayList<Host> available = new ArrayList<>(hosts.size());
+        Host nextAvailable = null;
+        for (Host host : hosts) {
+            if (host.isAvailable()) {
+                available.add(host);
+            } else if (nextAvailable == null || host.getOpenUntil() < nextAvailable.getOpenUntil()) {
+                nextAvailable = host;
+            }
+        }
+        if (available.isEmpty() && nextAvailable != null) available.add(nextAvailable);
+        return available;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.util.List;
+
+/**
+ * Selects the available host with the lowest latency, weighted by its borrowed connections.
+ * <p>
+ * The score of a host is its latency moving average multiplied by (borrowed connections + 1),
+ * so a fast node gets more load but is not flooded. Hosts without a latency sample are
+ * preferred, so every node gets measured.
+ */
+public class LatencyHostSelector implements HostSelector {
+
+    @Override
+    public Host select(List<Host> hosts) {
+        Host selected = null;
+        double selectedScore = Double.MAX_VALUE;
+        for (Host host : HostSelector.availableHosts(hosts)) {
+            double latency = host.getLatencyEwmaMillis();
+            if (latency == 0) return host;
+            double score = latency * (host.getActiveConnections() + 1);
+            if (score < selectedScore) {
+                selected = host;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHostSelector";
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.util.List;
+
+/**
+ * Selects the available host with the fewest borrowed connections.
+ */
+public class LeastConnectionsHostSelector implements HostSelector {
+
+    @Override
+    public Host select(List<Host> hosts) {
+        Host selected = null;
+        for (Host host : HostSelector.availableHosts(hosts)) {
+            if (selected == null || host.getActiveConnections() < selected.getActiveConnections()) {
+                selected = host;
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return "LeastConnectionsHostSelector";
+    }
+}
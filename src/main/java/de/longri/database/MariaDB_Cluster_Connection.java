@@ -18,47 +18,132 @@
  */
 package de.longri.database;
 
-import de.longri.fx.utils.SleepCall;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Properties;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Connection to a MariaDB Galera cluster.
+ * <p>
+ * Every {@link Host} has its own {@link ConnectionPool}, the {@link HostSelector} chooses
+ * the node for each borrowed connection. A node that can't be reached is skipped by its
+ * circuit breaker and the next node is tried. The housekeeper of each pool checks the Galera
+ * state of its node, a node that is not synced, e.g. a donor or desynced node, is skipped as well
+ * until it is synced again.
+ * <p>
+ * With {@link #setReadWriteSplitting(boolean) read/write splitting} all writes
+ * ({@link #createStatement()}, {@link #executeUpdate(String)}, {@link #importDumbString(String)}
+ * and {@link #setVersion(int)}) go to one primary host, which avoids Galera certification
+ * conflicts between nodes. Statements from {@link #createReadOnlyStatement()} are spread over
+ * the other hosts. If the primary can't be reached, the next available host becomes primary.
+ */
 public class MariaDB_Cluster_Connection extends DatabaseConnection implements PoolConnectionCreater {
 
+    private final static Logger log = LoggerFactory.getLogger(MariaDB_Cluster_Connection.class);
 
     final String DATABASE_NAME;
     final DatabaseUser DATABASE_USER;
     final ArrayList<Host> HOST_LIST;
-    final ConnectionPool pool;
+    final LinkedHashMap<Host, ConnectionPool> POOLS = new LinkedHashMap<>();
+    private volatile HostSelector hostSelector = new RoundRobinHostSelector();
+    private volatile boolean readWriteSplitting = false;
+    private volatile Host primaryHost;
+    private final CompletableFuture<Void> warmUp;
 
 
     public MariaDB_Cluster_Connection(String databaseName, DatabaseUser user, ArrayList<Host> hostList) throws SQLException, GeneralSecurityException, IOException {
+        // keep three connections per host open, allow up to ten per host
+        this(databaseName, user, hostList, new ConnectionPoolConfig(3, 10, 30_000));
+    }
+
+    /**
+     * @param poolConfig configuration of the pool of each host
+     */
+    public MariaDB_Cluster_Connection(String databaseName, DatabaseUser user, ArrayList<Host> hostList, ConnectionPoolConfig poolConfig) throws SQLException, GeneralSecurityException, IOException {
+        if (hostList == null || hostList.isEmpty()) throw new IllegalArgumentException("host list cannot be null or empty");
         DATABASE_NAME = databaseName;
         DATABASE_USER = user;
         HOST_LIST = hostList;
-        pool = new ConnectionPool(this);
-        new SleepCall(200, () -> {
-            try {
-                fillPool();
-            } catch (SQLException | GeneralSecurityException | IOException e) {
-                e.printStackTrace();
-            }
+        primaryHost = HOST_LIST.get(0);
+        for (Host host : HOST_LIST) {
+            HostConnectionCreater creater = new HostConnectionCreater(host);
+            creater.pool = new ConnectionPool(creater, poolConfig, "ConnectionPool-" + host);
+            creater.pool.setHealthCheck(connection -> checkNodeState(host, connection));
+            POOLS.put(host, creater.pool);
+        }
+        warmUp = warmUpPools();
+    }
+
+    // opens the warm up connections of all hosts in parallel
+    private CompletableFuture<Void> warmUpPools() {
+        int connections = 0;
+        for (ConnectionPool pool : POOLS.values()) {
+            connections += pool.getWarmUpSize();
+        }
+        if (connections == 0) return CompletableFuture.completedFuture(null);
+        int warmUpConnections = connections;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, 16), r -> {
+            Thread thread = new Thread(r, "MariaDB_Cluster_Connection-warmUp");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<?>[] futures = new CompletableFuture[POOLS.size()];
+        int i = 0;
+        for (ConnectionPool pool : POOLS.values()) {
+            futures[i++] = pool.warmUp(executor);
+        }
+        return CompletableFuture.allOf(futures).whenComplete((v, e) -> {
+            executor.shutdown();
+            log.debug("Warm up of {} connections finished after {}ms", warmUpConnections, System.currentTimeMillis() - start);
         });
+    }
 
+    /**
+     * Completes when the initial connections of all host pools are opened. Borrowing a
+     * connection before does not wait for it, the pool opens a connection on demand.
+     */
+    public CompletableFuture<Void> getWarmUp() {
+        return warmUp;
+    }
 
+    public boolean isReadWriteSplitting() {
+        return readWriteSplitting;
     }
 
-    private void fillPool() throws SQLException, GeneralSecurityException, IOException {
-        // fill with three times host list
-        for (int i = 0; i < 3; i++) {
-            for (Host host : HOST_LIST) {
-                pool.push(createNewPooledConnection());
-            }
-        }
+    public void setReadWriteSplitting(boolean readWriteSplitting) {
+        this.readWriteSplitting = readWriteSplitting;
+    }
+
+    public Host getPrimaryHost() {
+        return primaryHost;
+    }
+
+    public void setPrimaryHost(Host host) {
+        if (!POOLS.containsKey(host)) throw new IllegalArgumentException("Host " + host + " is not part of this cluster");
+        this.primaryHost = host;
+    }
+
+    public HostSelector getHostSelector() {
+        return hostSelector;
+    }
+
+    public void setHostSelector(HostSelector hostSelector) {
+        if (hostSelector == null) throw new IllegalArgumentException("host selector cannot be null");
+        this.hostSelector = hostSelector;
     }
 
     @Override
@@ -80,10 +165,9 @@ public class MariaDB_Cluster_Connection extends DatabaseConnection implements Po
     public void importDumbString(String dump) throws SQLException, ClassNotFoundException {
         String[] commands = dump.split(";\n");
 
-        Connection connection = getConnection();
-
-        try {
-            Statement statement = createStatement();
+        // statement and transaction must use the same connection
+        try (Connection connection = getWriteConnection()) {
+            Statement statement = connection.createStatement();
 
             connection.setAutoCommit(false); // default true
             SQLException sqle = null;
@@ -159,65 +243,221 @@ public class MariaDB_Cluster_Connection extends DatabaseConnection implements Po
 
     @Override
     protected Connection getConnection() throws ClassNotFoundException, SQLException {
-        PooledConnection polledConnection = pool.getConnection();
+        return borrowConnection(HOST_LIST);
+    }
+
+    // connection for writes, the primary host if reads and writes are split
+    PooledConnection getWriteConnection() throws SQLException {
+        if (!readWriteSplitting) return borrowConnection(HOST_LIST);
 
-        if (polledConnection == null) {
-            //load pool
+        Host primary = primaryHost;
+        if (!primary.isAvailable()) primary = failover(primary);
+
+        SQLException lastException = null;
+        for (int i = 0; i < HOST_LIST.size(); i++) {
             try {
-                fillPool();
-            } catch (GeneralSecurityException | IOException e) {
-                throw new RuntimeException(e);
+                return POOLS.get(primary).getConnection();
+            } catch (ConnectionPool.AcquireTimeoutException e) {
+                // pool of the primary is exhausted, the host itself is fine
+                throw e;
+            } catch (SQLException e) {
+                if (lastException != null) e.addSuppressed(lastException);
+                lastException = e;
+                Host next = failover(primary);
+                if (next == primary) break;
+                primary = next;
             }
-            polledConnection = pool.getConnection();
         }
-        return polledConnection;
+        throw lastException != null ? lastException : new SQLException("No primary host available");
     }
 
-    private int rotationIndex = 1;
+    // connection for queries, spread over the non primary hosts if reads and writes are split
+    PooledConnection getReadConnection() throws SQLException {
+        if (!readWriteSplitting || HOST_LIST.size() < 2) return borrowConnection(HOST_LIST);
 
-    @Override
-    public PooledConnection createNewPooledConnection() throws SQLException, GeneralSecurityException, IOException {
+        Host primary = primaryHost;
+        ArrayList<Host> readHosts = new ArrayList<>(HOST_LIST);
+        readHosts.remove(primary);
+        try {
+            return borrowConnection(readHosts);
+        } catch (ConnectionPool.AcquireTimeoutException e) {
+            // the read pools are exhausted, the acquire timeout is over, the primary is used only if it has a free connection
+            PooledConnection connection = POOLS.get(primary).tryGetConnection();
+            if (connection == null) throw e;
+            return connection;
+        } catch (SQLException e) {
+            log.warn("No read host available, use primary {}", primary);
+            return borrowConnection(List.of(primary));
+        }
+    }
+
+    // makes the next available host the primary, returns the current primary if it was already changed
+    private synchronized Host failover(Host failed) {
+        if (primaryHost != failed) return primaryHost;
+        int index = HOST_LIST.indexOf(failed);
+        for (int i = 1; i < HOST_LIST.size(); i++) {
+            Host candidate = HOST_LIST.get((index + i) % HOST_LIST.size());
+            if (candidate.isAvailable()) {
+                log.warn("Primary host {} failed, switch primary to {}", failed, candidate);
+                primaryHost = candidate;
+                return candidate;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Borrows a connection from the pool of the selected host, tries the next host if the host
+     * can't be reached. If the pool of a host is exhausted until the acquire timeout, the other
+     * hosts are only asked for a connection that is free right now, so a borrow waits for one
+     * acquire timeout at most.
+     */
+    PooledConnection borrowConnection(List<Host> candidates) throws SQLException {
+        ArrayList<Host> remaining = new ArrayList<>(candidates);
+        SQLException lastException = null;
+        ConnectionPool.AcquireTimeoutException timeout = null;
+        while (!remaining.isEmpty()) {
+            Host host = hostSelector.select(remaining);
+            remaining.remove(host);
+            try {
+                if (timeout == null) return POOLS.get(host).getConnection();
+                PooledConnection connection = POOLS.get(host).tryGetConnection();
+                if (connection != null) return connection;
+            } catch (ConnectionPool.AcquireTimeoutException e) {
+                // the pool is exhausted, the host itself is fine
+                log.debug("No free connection to {}: {}", host, e.getMessage());
+                timeout = e;
+            } catch (SQLException e) {
+                log.warn("Can't get a connection to {}: {}", host, e.getMessage());
+                if (lastException != null) e.addSuppressed(lastException);
+                lastException = e;
+            }
+        }
+        if (timeout != null) {
+            if (lastException != null) timeout.addSuppressed(lastException);
+            throw timeout;
+        }
+        throw lastException != null ? lastException : new SQLException("No host available");
+    }
+
+    private void checkNodeState(Host host, Connection connection) throws SQLException {
+        boolean synced = isSynced(connection);
+        if (synced != host.isSynced()) {
+            if (synced) {
+                log.info("Host {} is synced again", host);
+            } else {
+                log.warn("Host {} is not synced with the cluster, skip it", host);
+            }
+        }
+        host.setSynced(synced);
+    }
+
+    /**
+     * A Galera node is synced if it is ready for queries and in the state Synced (4). A server
+     * without Galera status variables counts as synced.
+     */
+    static boolean isSynced(Connection connection) throws SQLException {
+        String ready = null;
+        String state = null;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SHOW GLOBAL STATUS WHERE Variable_name IN ('wsrep_ready', 'wsrep_local_state')")) {
+            while (rs.next()) {
+                if ("wsrep_ready".equalsIgnoreCase(rs.getString(1))) {
+                    ready = rs.getString(2);
+                } else {
+                    state = rs.getString(2);
+                }
+            }
+        }
+        if (ready == null && state == null) return true;
+        return "ON".equalsIgnoreCase(ready) && "4".equals(state);
+    }
 
-        int hostCount = HOST_LIST.size();
-        StringBuilder sb = new StringBuilder("jdbc:mysql://");
+    // creates the connections of the pool of one host
+    private class HostConnectionCreater implements PoolConnectionCreater {
+        final Host host;
+        ConnectionPool pool;
 
-        for (int i = 0; i < hostCount; i++) {
-            int index = (rotationIndex + i) % hostCount;
-            Host host = HOST_LIST.get(index);
-            sb.append(host.host.trim()).append(":").append(host.port.trim());
-            if (i < hostCount - 1) sb.append(",");
+        HostConnectionCreater(Host host) {
+            this.host = host;
         }
 
-        // Erhöhen Sie den rotationIndex für den nächsten Aufruf
-        rotationIndex = (rotationIndex + 1) % hostCount;
+        @Override
+        public PooledConnection createNewPooledConnection() throws SQLException, GeneralSecurityException, IOException {
+            return MariaDB_Cluster_Connection.this.createNewPooledConnection(host, pool);
+        }
+    }
 
-        sb.append("/").append(DATABASE_NAME);
+    public ConnectionPool getPool(Host host) {
+        return POOLS.get(host);
+    }
 
-        String path = sb.toString();
+    public Collection<ConnectionPool> getPools() {
+        return POOLS.values();
+    }
 
-        Connection conn = DriverManager.getConnection(path, getProperties());
+    // idle connections and the ones the pools can still open, minus the ones borrowers wait for
+    @Override
+    public int getAvailableConnectionCount() {
+        int available = 0;
+        for (ConnectionPool pool : POOLS.values()) {
+            if (pool.isShutdown()) continue;
+            available += Math.max(0, pool.getMaxTotal() - pool.getActiveCount() - pool.getWaitingCount());
+        }
+        return available;
+    }
 
-//        Connection conn = DriverManager.getConnection(path, DATABASE_USER.getUserName(), DATABASE_USER.getUserPasswordDecrypted());
-        return new PooledConnection(path, conn, pool);
+    @Override
+    public List<ConnectionPoolMetrics> getPoolMetrics() {
+        ArrayList<ConnectionPoolMetrics> metrics = new ArrayList<>();
+        for (ConnectionPool pool : POOLS.values()) {
+            metrics.add(pool.getMetrics());
+        }
+        return metrics;
     }
 
-    private int startIndex = 0;
+    @Override
+    public void addMetricsExporter(MetricsExporter exporter) {
+        for (ConnectionPool pool : POOLS.values()) {
+            pool.addMetricsExporter(exporter);
+        }
+    }
 
-    private List<Host> getNextHosts() {
-        List<Host> rotatedList = new ArrayList<>();
-        for (int i = 0; i < HOST_LIST.size(); i++) {
-            int index = (startIndex + i) % HOST_LIST.size();
-            rotatedList.add(HOST_LIST.get(index));
+    @Override
+    public void removeMetricsExporter(MetricsExporter exporter) {
+        for (ConnectionPool pool : POOLS.values()) {
+            pool.removeMetricsExporter(exporter);
         }
-        startIndex = (startIndex + 1) % HOST_LIST.size();
-        return rotatedList;
+    }
+
+    @Override
+    public PooledConnection createNewPooledConnection() throws SQLException, GeneralSecurityException, IOException {
+        Host host = hostSelector.select(HOST_LIST);
+        return createNewPooledConnection(host, POOLS.get(host));
+    }
+
+    // opens a physical connection to one node, the connect time feeds the host health
+    PooledConnection createNewPooledConnection(Host host, ConnectionPool pool) throws SQLException, GeneralSecurityException, IOException {
+        String path = "jdbc:mysql://" + host.host.trim() + ":" + host.port.trim() + "/" + DATABASE_NAME;
+
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = DriverManager.getConnection(path, getProperties());
+        } catch (SQLException e) {
+            host.recordFailure();
+            throw e;
+        }
+        host.recordSuccess(System.nanoTime() - start);
+        return new PooledConnection(path, conn, pool, host);
     }
 
     protected Properties getProperties() throws GeneralSecurityException, IOException {
         Properties properties = new Properties();
         properties.setProperty("user", DATABASE_USER.getUserName());
         properties.setProperty("password", DATABASE_USER.getUserPasswordDecrypted());
-        properties.setProperty("MaxPooledStatements", "250");
+        // prepared statements are cached by the pooled connections, let the server keep them parsed
+        properties.setProperty("useServerPrepStmts", "true");
         properties.put("useUnicode", "true");
         properties.put("characterEncoding", "utf-8");
         return properties;
@@ -227,13 +467,52 @@ public class MariaDB_Cluster_Connection extends DatabaseConnection implements Po
     @Override
     public Statement createStatement() throws SQLException {
         //get a new connection every time
-        try {
-            Connection connection = getConnection();
+        return createStatement(getWriteConnection());
+    }
+
+    @Override
+    public Statement createReadOnlyStatement() throws SQLException {
+        return createStatement(getReadConnection());
+    }
 
+    // the caller has to close stmt.getConnection(), unless the pool returns it on statement close.
+    // Then the statement is closed once a result set is read to the end and can't be reused
+    private Statement createStatement(PooledConnection connection) throws SQLException {
+        try {
             Statement statement = connection.createStatement();
+            if (connection.getPool().isReturnConnectionOnStatementClose()) return new PooledStatement(statement, connection);
             return statement;
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(getWriteConnection(), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareReadOnlyStatement(String sql) throws SQLException {
+        return prepareStatement(getReadConnection(), sql);
+    }
+
+    private PreparedStatement prepareStatement(PooledConnection connection, String sql) throws SQLException {
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            if (connection.getPool().isReturnConnectionOnStatementClose()) return new PooledPreparedStatement(statement, connection);
+            return statement;
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    public int executeUpdate(String sql) throws SQLException {
+        try (Connection connection = getWriteConnection();
+             Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
         }
     }
 
@@ -267,19 +546,20 @@ public class MariaDB_Cluster_Connection extends DatabaseConnection implements Po
 
 
     protected void setVersion(int version) throws SQLException {
-        Statement stmt = connection.createStatement();
-
-        //first get the exist id
-        String sql = "SELECT id FROM SCHEME";
-        ResultSet rs = stmt.executeQuery(sql);
-        int id = 0;
-        while (rs.next()) {
-            id = rs.getInt(1);
-        }
+        try (Connection connection = getWriteConnection();
+             Statement stmt = connection.createStatement()) {
+
+            //first get the exist id
+            String sql = "SELECT id FROM SCHEME";
+            ResultSet rs = stmt.executeQuery(sql);
+            int id = 0;
+            while (rs.next()) {
+                id = rs.getInt(1);
+            }
 
-        sql = "REPLACE INTO SCHEME (id, version) VALUES('" + id + "', " + Integer.toString(version) + ");";
+            sql = "REPLACE INTO SCHEME (id, version) VALUES('" + id + "', " + Integer.toString(version) + ");";
 
-        stmt.executeUpdate(sql);
-        stmt.close();
+            stmt.executeUpdate(sql);
+        }
     }
 }
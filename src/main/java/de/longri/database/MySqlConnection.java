@@ -80,7 +80,8 @@ public class MySqlConnection extends DatabaseConnection {
         Properties properties = new Properties();
         properties.setProperty("user", user.getUserName());
         properties.setProperty("password", user.getUserPasswordDecrypted());
-        properties.setProperty("MaxPooledStatements", "250");
+        properties.setProperty("cachePrepStmts", "true");
+        properties.setProperty("prepStmtCacheSize", "250");
         properties.put("useUnicode", "true");
         properties.put("characterEncoding", "utf-8");
         return properties;
@@ -198,7 +199,6 @@ public class MySqlConnection extends DatabaseConnection {
             Properties properties = new Properties();
             properties.setProperty("user", admin);
             properties.setProperty("password", adminPass);
-            properties.setProperty("MaxPooledStatements", "250");
 
             String connectionstring = "jdbc:mysql://" + address + ":" + port + "/?";
 
@@ -225,7 +225,6 @@ public class MySqlConnection extends DatabaseConnection {
                 Properties properties = new Properties();
                 properties.setProperty("user", admin);
                 properties.setProperty("password", adminPass);
-                properties.setProperty("MaxPooledStatements", "250");
 
                 String connectionstring = "jdbc:mysql://" + address + ":" + port + "/?";
 
@@ -22,17 +22,35 @@ import java.sql.*;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // Connection wrapper class
 class PooledConnection implements Connection {
     private final String url;
     private final Connection connection;
     private final ConnectionPool pool;
+    private final AtomicBoolean borrowed = new AtomicBoolean(false);
+    private final long createdAt;
+    private volatile long lastUsed;
+    private volatile long borrowedAt;
+    private volatile Throwable borrowTrace;
+    private final AtomicBoolean leakReported = new AtomicBoolean(false);
+    private final StatementCache statementCache;
+    private final Host host;
 
     public PooledConnection(String url, Connection connection, ConnectionPool pool) {
+        this(url, connection, pool, null);
+    }
+
+    public PooledConnection(String url, Connection connection, ConnectionPool pool, Host host) {
         this.url = url;
         this.connection = connection;
         this.pool = pool;
+        this.host = host;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsed = createdAt;
+        int statementCacheSize = pool == null ? 0 : pool.getStatementCacheSize();
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
     }
 
     @Override
@@ -40,6 +58,108 @@ class PooledConnection implements Connection {
         pool.returnConnection(this);
     }
 
+    // called by the pool when this connection is handed out, with trace the stack of the borrower is kept
+    void markBorrowed(boolean trace) {
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = trace ? new Throwable("Borrowed by thread " + Thread.currentThread().getName()) : null;
+        leakReported.set(false);
+        borrowed.set(true);
+        if (host != null) host.connectionBorrowed();
+    }
+
+    // called by the pool on return, false if this connection was already returned
+    boolean markReturned() {
+        if (!borrowed.compareAndSet(true, false)) return false;
+        lastUsed = System.currentTimeMillis();
+        if (host != null) host.connectionReturned();
+        return true;
+    }
+
+    ConnectionPool getPool() {
+        return pool;
+    }
+
+    // the cluster node of this connection, null if not known
+    Host getHost() {
+        return host;
+    }
+
+    // feeds validation round trips into the health of the host
+    void validated(long latencyNanos) {
+        touch();
+        if (host != null) host.recordSuccess(latencyNanos);
+    }
+
+    void validationFailed() {
+        if (host != null) host.recordFailure();
+    }
+
+    // set after a successful validation
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    // stack of the borrow call, null if leak detection is disabled
+    Throwable getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    // true for the first caller only, a leak is reported once per borrow
+    boolean markLeakReported() {
+        return leakReported.compareAndSet(false, true);
+    }
+
+    boolean isLeakReported() {
+        return leakReported.get();
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    // prepared statements are reused from the statement cache, closing them returns them to the cache
+    private PreparedStatement prepareCachedStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        StatementCache.Key key = new StatementCache.Key(sql, resultSetType, resultSetConcurrency);
+        PreparedStatement statement = statementCache.take(key);
+        if (statement == null) {
+            pool.statementCacheMiss();
+            statement = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            try {
+                statementCache.created(statement);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+        } else {
+            pool.statementCacheHit();
+        }
+        return new CachedPreparedStatement(statement, this, statementCache, key);
+    }
+
+    public long getStatementCacheHitCount() {
+        return statementCache == null ? 0 : statementCache.getHitCount();
+    }
+
+    public long getStatementCacheMissCount() {
+        return statementCache == null ? 0 : statementCache.getMissCount();
+    }
+
+    public int getStatementCacheSize() {
+        return statementCache == null ? 0 : statementCache.size();
+    }
+
+    boolean isBorrowed() {
+        return borrowed.get();
+    }
+
     // Delegate all other methods of Connection to the wrapped instance
     @Override
     public Statement createStatement() throws SQLException {
@@ -80,7 +200,8 @@ class PooledConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return connection.prepareStatement(sql);
+        if (statementCache == null) return connection.prepareStatement(sql);
+        return prepareCachedStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
     }
 
     /**
@@ -472,7 +593,8 @@ class PooledConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        if (statementCache == null) return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return prepareCachedStatement(sql, resultSetType, resultSetConcurrency);
     }
 
     /**
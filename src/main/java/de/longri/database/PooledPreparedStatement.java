@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Prepared statement handed out by {@link MariaDB_Cluster_Connection#prepareStatement(String)}.
+ * Like {@link PooledStatement}, closing it or reading a query result to the end gives the
+ * {@link PooledConnection} back to its pool. The wrapped statement may come from the
+ * statement cache of the connection, closing it puts it back there.
+ */
+class PooledPreparedStatement extends DelegatingPreparedStatement {
+
+    private boolean closed = false;
+    private Connection handle;
+
+    PooledPreparedStatement(PreparedStatement delegate, PooledConnection connection) {
+        super(delegate, connection);
+    }
+
+    // not the pooled connection itself, it may belong to another borrower once this statement is closed
+    @Override
+    public Connection getConnection() {
+        if (handle == null) handle = StatementConnection.create((PooledConnection) connection, this);
+        return handle;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        return new PooledResultSet(delegate.executeQuery(), this);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        return new PooledResultSet(delegate.executeQuery(sql), this);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        ResultSet resultSet = delegate.getResultSet();
+        return resultSet == null ? null : new PooledResultSet(resultSet, this);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) return;
+        closed = true;
+        try {
+            delegate.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed || delegate.isClosed();
+    }
+}
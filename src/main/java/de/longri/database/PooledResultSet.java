@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Result set of a {@link PooledStatement} or {@link PooledPreparedStatement}. When {@link #next()}
+ * reaches the end, the statement is closed and the pooled connection goes back to its pool,
+ * even if the caller never closes the statement.
+ */
+class PooledResultSet extends DelegatingResultSet {
+
+    PooledResultSet(ResultSet delegate, Statement statement) {
+        super(delegate, statement);
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (statement.isClosed()) return false;
+        boolean hasNext = delegate.next();
+        if (!hasNext) statement.close();
+        return hasNext;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rotates over the available hosts.
+ */
+public class RoundRobinHostSelector implements HostSelector {
+
+    private final AtomicInteger rotationIndex = new AtomicInteger();
+
+    @Override
+    public Host select(List<Host> hosts) {
+        List<Host> available = HostSelector.availableHosts(hosts);
+        int index = Math.floorMod(rotationIndex.getAndIncrement(), available.size());
+        return available.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return "RoundRobinHostSelector";
+    }
+}
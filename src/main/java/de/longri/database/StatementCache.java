@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements of one physical connection.
+ * <p>
+ * A cached statement is removed from the cache while it is in use, so two users of the same
+ * SQL on one connection never share a statement. On logical close it is reset and put back,
+ * the least recently used statement is closed if the cache is full. Settings a user changed,
+ * like the fetch size, are reset to the driver defaults the statement had when it was created.
+ */
+class StatementCache {
+
+    private final static Logger log = LoggerFactory.getLogger(StatementCache.class);
+
+    record Key(String sql, int resultSetType, int resultSetConcurrency) {
+    }
+
+    // settings of a new driver statement
+    record Defaults(int maxRows, int fetchSize, int queryTimeout, int maxFieldSize) {
+
+        static Defaults of(PreparedStatement statement) throws SQLException {
+            return new Defaults(statement.getMaxRows(), statement.getFetchSize(), statement.getQueryTimeout(), statement.getMaxFieldSize());
+        }
+
+        void restore(PreparedStatement statement) throws SQLException {
+            if (statement.getMaxRows() != maxRows) statement.setMaxRows(maxRows);
+            if (statement.getFetchSize() != fetchSize) statement.setFetchSize(fetchSize);
+            if (statement.getQueryTimeout() != queryTimeout) statement.setQueryTimeout(queryTimeout);
+            if (statement.getMaxFieldSize() != maxFieldSize) statement.setMaxFieldSize(maxFieldSize);
+        }
+    }
+
+    private final int MAX_SIZE;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    // defaults of all statements of this cache, cached or in use
+    private final IdentityHashMap<PreparedStatement, Defaults> defaults = new IdentityHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    StatementCache(int maxSize) {
+        MAX_SIZE = maxSize;
+        statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() <= MAX_SIZE) return false;
+                discard(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    // takes a cached statement out of the cache, null on a miss
+    synchronized PreparedStatement take(Key key) {
+        PreparedStatement statement = statements.remove(key);
+        if (statement == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return statement;
+    }
+
+    // remembers the settings of a statement the driver just created, release() restores them
+    synchronized void created(PreparedStatement statement) throws SQLException {
+        defaults.put(statement, Defaults.of(statement));
+    }
+
+    // resets a logically closed statement and puts it back, closes it if it can't be reused
+    synchronized void release(Key key, PreparedStatement statement) {
+        try {
+            Defaults statementDefaults = defaults.get(statement);
+            if (statement.isClosed() || statements.containsKey(key) || statementDefaults == null) {
+                discard(statement);
+                return;
+            }
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) resultSet.close();
+            statement.clearParameters();
+            statement.clearBatch();
+            statement.clearWarnings();
+            statementDefaults.restore(statement);
+            statements.put(key, statement);
+        } catch (SQLException e) {
+            log.debug("Can't reuse statement for {}", key.sql(), e);
+            discard(statement);
+        }
+    }
+
+    // closes all cached statements
+    synchronized void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            discard(statement);
+        }
+        statements.clear();
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    private void discard(PreparedStatement statement) {
+        defaults.remove(statement);
+        closeQuietly(statement);
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.debug("Can't close statement", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Connection returned by {@link PooledStatement#getConnection()} and
+ * {@link PooledPreparedStatement#getConnection()}. Calls go to the pooled connection while the
+ * statement holds it, closing the handle closes the statement and gives the connection back.
+ * Once the statement gave the connection back, another borrower may use it: {@link Connection#close()}
+ * does nothing then and every other call fails.
+ */
+final class StatementConnection implements InvocationHandler {
+
+    private final PooledConnection connection;
+    private final Statement statement;
+
+    private StatementConnection(PooledConnection connection, Statement statement) {
+        this.connection = connection;
+        this.statement = statement;
+    }
+
+    static Connection create(PooledConnection connection, Statement statement) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+                new StatementConnection(connection, statement));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                // closing a closed statement does nothing
+                statement.close();
+                return null;
+            case "isClosed":
+                return statement.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "StatementConnection[" + connection + "]";
+        }
+        if (statement.isClosed()) throw new SQLException("Connection was given back to the pool with its statement");
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
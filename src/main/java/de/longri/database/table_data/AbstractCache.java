@@ -24,25 +24,38 @@ import com.github.freva.asciitable.HorizontalAlign;
 import de.longri.database.Abstract_Database;
 import de.longri.database.DatabaseConnection;
 import de.longri.database.MariaDB_Cluster_Connection;
-import de.longri.serializable.BitStore;
 import de.longri.serializable.NotImplementedException;
-import de.longri.serializable.StoreBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,12 +65,57 @@ public abstract class AbstractCache {
     static final String UNIQUE_ID_THREAD_DATA_LOAD_ALL = "UNIQUE_ID_THREAD_DATA_LOAD_ALL";
     static final String UNIQUE_ID_SET_LAST_MODIFY_TABLE = "UNIQUE_ID_SET_LAST_MODIFY_TABLE";
     static final String UNIQUE_ID_LOAD_ALL_FROM_DISK = "UNIQUE_ID_LOAD_ALL_FROM_DISK";
-
-    HashMap<String, LocalDateTime> LAST_MODIFY_MAP = new HashMap<>();
+    static final String UNIQUE_ID_REFRESH = "UNIQUE_ID_REFRESH";
+    static final String UNIQUE_ID_POLL_LAST_MODIFY = "UNIQUE_ID_POLL_LAST_MODIFY";
+    static final String UNIQUE_ID_APPLY_CHANGES = "UNIQUE_ID_APPLY_CHANGES";
+    static final String UNIQUE_ID_LAZY_LOAD = "UNIQUE_ID_LAZY_LOAD";
+
+    // threads of the key ranges of parallel table loads, shared by all caches
+    private static final ExecutorService RANGE_LOADER = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "AbstractCache-range");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // number of keys per IN (...) query of an incremental refresh
+    static final int DELTA_KEY_CHUNK = 500;
+
+    // written by loads and refreshes of the cache and by lazy loads of single tables at the same time
+    final ConcurrentHashMap<String, LocalDateTime> LAST_MODIFY_MAP = new ConcurrentHashMap<>();
     ArrayList<AbstractTable<AbstractTableDataEntry>> TABLES;
 
     protected final String CACHE_FOLDER;
 
+    // manifest of the last load or save, null if there is none
+    private volatile CacheManifest manifest;
+
+    private final Object SAVE_LOCK = new Object();
+    private final Object EVICT_LOCK = new Object();
+
+    // tables of the last completed load or refresh
+    private final AtomicReference<CacheSnapshot> SNAPSHOT = new AtomicReference<>();
+
+    // lazy tables that are not loaded yet, see AbstractTable#isLazyLoad()
+    private final Set<String> COLD = ConcurrentHashMap.newKeySet();
+    // one lock per lazy table, concurrent first callers wait for the same load instead of the cache
+    private final ConcurrentHashMap<String, Object> LOAD_LOCKS = new ConcurrentHashMap<>();
+    // tables with changes merged in memory that are not written to their cache file yet
+    private final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+    // connection of the last load of the cache, cold tables are loaded with it
+    private volatile DatabaseConnection lazyConnection;
+
+    public enum EvictionPolicy {
+        // the table that was not accessed for the longest time is evicted first
+        LRU,
+        // the table with the fewest accesses is evicted first
+        LFU
+    }
+
+    // logical time and number of the getTable() calls of every table
+    private final AtomicLong ACCESS_CLOCK = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> LAST_ACCESS = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> ACCESS_COUNT = new ConcurrentHashMap<>();
+
     public AbstractCache(String cacheFolder) {
         CACHE_FOLDER = cacheFolder;
     }
@@ -92,7 +150,23 @@ public abstract class AbstractCache {
         }
     }
 
+    /**
+     * A cold table is loaded before it is returned, from disk if the cache file is up to date,
+     * otherwise from DB. Concurrent first callers wait for the same load.
+     */
     public AbstractTable<AbstractTableDataEntry> getTable(String tableName) {
+        AbstractTable<AbstractTableDataEntry> table = findTable(tableName);
+        recordAccess(tableName);
+        if (COLD.contains(tableName)) loadCold(table);
+        return table;
+    }
+
+    private void recordAccess(String tableName) {
+        LAST_ACCESS.put(tableName, ACCESS_CLOCK.incrementAndGet());
+        ACCESS_COUNT.computeIfAbsent(tableName, name -> new LongAdder()).increment();
+    }
+
+    private AbstractTable<AbstractTableDataEntry> findTable(String tableName) {
         if (tableName == null || tableName.isEmpty()) {
             throw new IllegalArgumentException("Table name cannot be null or empty");
         }
@@ -111,6 +185,180 @@ public abstract class AbstractCache {
 
     protected abstract AbstractTable<AbstractTableDataEntry>[] getTables();
 
+    // the table is lazy and not loaded yet
+    public boolean isCold(String tableName) {
+        chkTables();
+        return COLD.contains(tableName);
+    }
+
+    private Object getLoadLock(String tableName) {
+        return LOAD_LOCKS.computeIfAbsent(tableName, name -> new Object());
+    }
+
+    private void loadCold(AbstractTable<AbstractTableDataEntry> table) {
+        String tableName = table.getTableName();
+        Object lock = getLoadLock(tableName);
+        // the thread of the running load
+        if (Thread.holdsLock(lock)) return;
+        synchronized (lock) {
+            // the table may have been loaded while this caller waited
+            if (!COLD.contains(tableName)) return;
+            loadLazyTable(table);
+        }
+        // outside of the table lock, evict() takes the cache lock first
+        evict(tableName);
+    }
+
+    private void loadLazyTable(AbstractTable<AbstractTableDataEntry> table) {
+        String tableName = table.getTableName();
+        DatabaseConnection connection = lazyConnection;
+        if (connection == null) throw new IllegalStateException("Cache is not loaded, can't load cold table " + tableName);
+        // cold tables are loaded at the same time, each with its own connection id
+        String uniqueID = UNIQUE_ID_LAZY_LOAD + "_" + tableName;
+        try {
+            // the last modification may be older than the cache
+            LocalDateTime lastModified = readLastModifiedFromDB(connection, uniqueID).get(tableName);
+            if (lastModified == null) {
+                LAST_MODIFY_MAP.remove(tableName);
+            } else {
+                LAST_MODIFY_MAP.put(tableName, lastModified);
+            }
+            if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(uniqueID);
+            try {
+                CacheManifest.Entry entry = getManifestEntry(tableName);
+                loadTableFromDisk(tableName, entry == null ? null : entry.lastModified(), connection);
+            } finally {
+                if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(uniqueID);
+            }
+        } catch (SQLException | IOException | ClassNotFoundException | NotImplementedException e) {
+            throw new RuntimeException(e);
+        }
+        publishSnapshot();
+        log.debug("Loaded cold table {}, source {}", tableName, table.SOURCE);
+    }
+
+    /**
+     * Heap size in bytes the loaded tables may use, estimated by {@link AbstractTable#estimateMemory()}.
+     * Above it lazy tables are evicted, see {@link #evict()}. 0 for no limit.
+     */
+    protected long getMemoryBudget() {
+        return 0;
+    }
+
+    protected EvictionPolicy getEvictionPolicy() {
+        return EvictionPolicy.LRU;
+    }
+
+    // estimated heap size of the loaded tables in bytes
+    public long getMemoryUsage() {
+        chkTables();
+        long bytes = 0;
+        for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+            if (!COLD.contains(table.getTableName())) bytes += table.estimateMemory();
+        }
+        return bytes;
+    }
+
+    /**
+     * Evicts lazy tables in the order of {@link #getEvictionPolicy()} until the loaded tables fit
+     * into {@link #getMemoryBudget()}. Only tables with an up to date cache file are evicted, a table
+     * with changes merged since the last {@link #saveAllToDisk()} is kept. Evicted tables
+     * become cold and the next access loads them from disk again, also through a reference to the
+     * table that was held before. Readers that keep a snapshot of an evicted table keep its rows,
+     * a table that is changed at the moment is not evicted.
+     * <p>
+     * Called after a cold table is loaded and after the cache is written to disk.
+     *
+     * @return the names of the evicted tables
+     */
+    public List<String> evict() {
+        return evict(null);
+    }
+
+    // the table to keep was just loaded
+    private List<String> evict(String keep) {
+        long budget = getMemoryBudget();
+        if (budget <= 0) return List.of();
+        // tables are locked one by one, a running load or refresh of the cache goes on
+        synchronized (EVICT_LOCK) {
+            long usage = getMemoryUsage();
+            if (usage <= budget) return List.of();
+
+            ArrayList<AbstractTable<AbstractTableDataEntry>> candidates = new ArrayList<>();
+            for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+                if (!table.getTableName().equals(keep) && isEvictable(table)) candidates.add(table);
+            }
+            Comparator<AbstractTable<AbstractTableDataEntry>> lru = Comparator.comparingLong(table -> LAST_ACCESS.getOrDefault(table.getTableName(), 0L));
+            candidates.sort(getEvictionPolicy() == EvictionPolicy.LFU
+                    ? Comparator.<AbstractTable<AbstractTableDataEntry>>comparingLong(table -> getAccessCount(table.getTableName())).thenComparing(lru)
+                    : lru);
+
+            ArrayList<String> evicted = new ArrayList<>();
+            for (AbstractTable<AbstractTableDataEntry> table : candidates) {
+                if (usage <= budget) break;
+                // a load of the table finishes first
+                synchronized (getLoadLock(table.getTableName())) {
+                    if (!isEvictable(table)) continue;
+                    long tableUsage = table.estimateMemory();
+                    // cold before the rows are gone, a reader that sees no rows loads them again
+                    COLD.add(table.getTableName());
+                    if (!table.tryClear()) {
+                        // a change of the table runs, it is not evicted
+                        COLD.remove(table.getTableName());
+                        continue;
+                    }
+                    usage -= tableUsage;
+                }
+                evicted.add(table.getTableName());
+            }
+            if (!evicted.isEmpty()) {
+                publishSnapshot();
+                log.debug("Evicted tables {}, {} of {} used", evicted, formatBytes(usage), formatBytes(budget));
+            }
+            if (usage > budget) log.warn("Cache uses {} of a budget of {}, no more tables can be evicted", formatBytes(usage), formatBytes(budget));
+            return evicted;
+        }
+    }
+
+    // a loaded lazy table whose cache file has its rows
+    private boolean isEvictable(AbstractTable<AbstractTableDataEntry> table) {
+        String tableName = table.getTableName();
+        if (!table.isLazyLoad() || COLD.contains(tableName) || DIRTY.contains(tableName) || !isKnown(table)) return false;
+        CacheManifest.Entry entry = getManifestEntry(tableName);
+        return entry != null && table.getDbLastModify().equals(entry.lastModified());
+    }
+
+    private long getAccessCount(String tableName) {
+        LongAdder count = ACCESS_COUNT.get(tableName);
+        return count == null ? 0 : count.sum();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /**
+     * The tables as they were after the last completed load or refresh of the cache. Never blocks,
+     * the tables of the snapshot stay consistent with each other while the cache is refreshed.
+     * Changes of a single table are seen by {@link AbstractTable#snapshot()} at once.
+     */
+    public CacheSnapshot snapshot() {
+        CacheSnapshot snapshot = SNAPSHOT.get();
+        if (snapshot == null) {
+            chkTables();
+            SNAPSHOT.compareAndSet(null, new CacheSnapshot(0, TABLES));
+            snapshot = SNAPSHOT.get();
+        }
+        return snapshot;
+    }
+
+    private void publishSnapshot() {
+        SNAPSHOT.updateAndGet(previous -> new CacheSnapshot(previous == null ? 1 : previous.VERSION + 1, TABLES));
+    }
+
     public File getCacheFolder() {
         File cacheFolder = new File(CACHE_FOLDER);
         if (!cacheFolder.exists()) {
@@ -124,18 +372,31 @@ public abstract class AbstractCache {
             TABLES = new ArrayList<>();
             AbstractTable<AbstractTableDataEntry>[] tables = getTables();
             TABLES.addAll(Arrays.asList(tables));
+            for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+                if (!table.isLazyLoad()) continue;
+                COLD.add(table.getTableName());
+                // every access of a cold table loads it, also through a reference held before an eviction
+                table.setFaultIn(() -> {
+                    if (!COLD.contains(table.getTableName()) || lazyConnection == null) return;
+                    recordAccess(table.getTableName());
+                    loadCold(table);
+                });
+            }
         }
     }
 
     public void loadAllFromDB(DatabaseConnection connection) throws SQLException, ClassNotFoundException, InterruptedException {
         log.debug("loadAllFromDB");
         chkTables();
+        lazyConnection = connection;
+        // cold tables are loaded on first access
+        List<AbstractTable<AbstractTableDataEntry>> tables = TABLES.stream().filter(table -> !COLD.contains(table.getTableName())).toList();
         if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(UNIQUE_ID_THREAD_DATA_LOAD_ALL);
         int numberOfThreads = 12;
         ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
-        CountDownLatch latch = new CountDownLatch(TABLES.size());
+        CountDownLatch latch = new CountDownLatch(tables.size());
 
-        for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+        for (AbstractTable<AbstractTableDataEntry> table : tables) {
             executorService.submit(() -> {
                 try {
                     loadTableFromDB(connection, table);
@@ -152,28 +413,122 @@ public abstract class AbstractCache {
 
         if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(UNIQUE_ID_THREAD_DATA_LOAD_ALL);
 
+        publishSnapshot();
         logCacheInfo("Load Cache from DB");
     }
 
     public void loadTableFromDB(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table) throws SQLException {
         String tableName = table.getTableName();
 
-        //delete alt data
-        table.clear();
+        // an eviction of the table waits for the load
+        synchronized (getLoadLock(tableName)) {
+            // readers keep the old rows until the table is loaded completely
+            table.beginReload();
+            boolean loaded = false;
+            try {
+                readTable(connection, table, getWhereClauseForTable(tableName));
+                loaded = true;
+            } finally {
+                table.endReload(loaded);
+            }
+            table.SOURCE = AbstractTable.Source.DB;
+            table.SourceThread = Thread.currentThread().getName();
 
-        //load all data from table and store in an object
+            LocalDateTime lastModify = getLastModifiedOnDb(table.getTableName());
+            table.setDbLastModify(lastModify);
+            COLD.remove(tableName);
+        }
+    }
 
-        Statement st = connection.createStatement();
+    private void readTable(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table, String whereClause) throws SQLException {
+        if (readTableChunked(connection, table, whereClause)) return;
 
-        ResultSet rs = st.executeQuery("SELECT * FROM " + tableName + " " + getWhereClauseForTable(tableName) + ";");
-        table.add(rs);
-        table.SOURCE = AbstractTable.Source.DB;
-        table.SourceThread = Thread.currentThread().getName();
-        DatabaseMetaData metaData = st.getConnection().getMetaData();
-        table.SourceConnection = getConnectionInfo(metaData.getURL());
+        // closing the statement gives a pooled connection back, read the URL before the result set is consumed
+        try (Statement st = connection.createReadOnlyStatement()) {
+            DatabaseMetaData metaData = st.getConnection().getMetaData();
+            table.SourceConnection = getConnectionInfo(metaData.getURL());
 
-        LocalDateTime lastModify = getLastModifiedOnDb(table.getTableName());
-        table.setDbLastModify(lastModify);
+            // with a fetch size the rows are added while the driver streams them
+            if (table.getFetchSize() != 0) st.setFetchSize(table.getFetchSize());
+            ResultSet rs = st.executeQuery("SELECT * FROM " + table.getTableName() + " " + whereClause + ";");
+            table.add(rs);
+        }
+    }
+
+    /**
+     * Loads a large table in primary key ranges, each range with its own statement and so with its
+     * own pooled connection. The ranges split the span between the smallest and the largest key,
+     * they are read ordered by key and added in key order.
+     * <p>
+     * There are no more ranges than {@link DatabaseConnection#getAvailableConnectionCount()}, a
+     * single connection always loads the table with one query. The ranges run on a thread pool
+     * shared by all loads.
+     *
+     * @return false if the table is below {@link AbstractTable#getParallelLoadThreshold()}, has no
+     * integer primary key or the connection has no free connections, nothing is loaded then
+     */
+    boolean readTableChunked(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table,
+                             String whereClause) throws SQLException {
+        String keyColumn = table.getPrimaryKeyColumn();
+        if (keyColumn == null || table.getParallelLoadThreshold() <= 0 || table.getParallelLoadChunks() < 2) return false;
+        int chunks = Math.min(table.getParallelLoadChunks(), connection.getAvailableConnectionCount());
+        if (chunks < 2) return false;
+
+        String source = "(SELECT * FROM " + table.getTableName() + " " + whereClause + ") AS base";
+        long minKey, maxKey;
+        // the connection of the key span is returned before the ranges borrow theirs
+        try (Statement st = connection.createReadOnlyStatement()) {
+            table.SourceConnection = getConnectionInfo(st.getConnection().getMetaData().getURL());
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*), MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + source + ";")) {
+                if (!rs.next() || rs.getLong(1) < table.getParallelLoadThreshold()) return false;
+                Object min = rs.getObject(2);
+                Object max = rs.getObject(3);
+                if (!isIntegral(min) || !isIntegral(max)) return false;
+                minKey = ((Number) min).longValue();
+                maxKey = ((Number) max).longValue();
+            }
+        }
+        // ranges of at least one key, the last one ends at the largest key
+        long span = maxKey - minKey + 1;
+        if (span <= 0) return false;
+        long step = Math.max(1, (span + chunks - 1) / chunks);
+
+        String sql = "SELECT * FROM " + source + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " <= ? ORDER BY " + keyColumn + ";";
+        ArrayList<Future<List<AbstractTableDataEntry>>> ranges = new ArrayList<>();
+        try {
+            for (long from = minKey; from <= maxKey && from >= minKey; from += step) {
+                long first = from;
+                long last = maxKey - from < step ? maxKey : from + step - 1;
+                ranges.add(RANGE_LOADER.submit(() -> {
+                    try (PreparedStatement ps = connection.prepareReadOnlyStatement(sql)) {
+                        if (table.getFetchSize() != 0) ps.setFetchSize(table.getFetchSize());
+                        ps.setLong(1, first);
+                        ps.setLong(2, last);
+                        return table.createAll(ps.executeQuery());
+                    }
+                }));
+            }
+
+            // all ranges are read before the first one is added, a failed range adds nothing
+            ArrayList<List<AbstractTableDataEntry>> rows = new ArrayList<>();
+            for (Future<List<AbstractTableDataEntry>> range : ranges) rows.add(range.get());
+            for (List<AbstractTableDataEntry> range : rows) table.addAll(range);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading table " + table.getTableName(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) throw sqlException;
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // ranges still running after a failure are stopped
+            for (Future<List<AbstractTableDataEntry>> range : ranges) range.cancel(true);
+        }
+        log.debug("Loaded table {} in {} key ranges", table.getTableName(), ranges.size());
+        return true;
+    }
+
+    private static boolean isIntegral(Object key) {
+        return key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte;
     }
 
     public String getWhereClauseForTable(String tableName) {
@@ -207,7 +562,8 @@ public abstract class AbstractCache {
 
     public boolean loadAllFromDisk(DatabaseConnection connection) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
         chkTables();
-        File newCacheFile = new File(getCacheFolder(), "tables_cache.bin");
+        lazyConnection = connection;
+        File newCacheFile = new File(getCacheFolder(), CacheManifest.FILE_NAME);
 
         final AtomicBoolean anyChanges = new AtomicBoolean();
 
@@ -216,12 +572,11 @@ public abstract class AbstractCache {
 
             log.debug("loadAllFromDisk, cache folder: {}", newCacheFile.getAbsolutePath());
             try {
-                InputStream is = new FileInputStream(newCacheFile);
-                byte[] bytes = is.readAllBytes();
-                is.close();
-
-                StoreBase bitStore = new BitStore(bytes);
-                int tableCount = bitStore.readInt();
+                manifest = CacheManifest.read(getCacheFolder());
+                log.debug("Cache generation {}", manifest.generation);
+                // cold tables are loaded on first access
+                List<CacheManifest.Entry> entries = manifest.entries.stream().filter(entry -> !COLD.contains(entry.tableName())).toList();
+                int tableCount = entries.size();
 
                 int numberOfThreads = 12;
                 // Thread-Pool erstellen
@@ -230,9 +585,9 @@ public abstract class AbstractCache {
                 // CountDownLatch initialisieren
                 CountDownLatch latch = new CountDownLatch(tableCount);
 
-                for (int i = 0; i < tableCount; i++) {
-                    String tableName = bitStore.readString();
-                    LocalDateTime lastModifiedOnDisk = bitStore.readLocalDateTime();
+                for (CacheManifest.Entry entry : entries) {
+                    String tableName = entry.tableName();
+                    LocalDateTime lastModifiedOnDisk = entry.lastModified();
                     executorService.submit(() -> {
                         try {
                             // Ihre Methode aufrufen
@@ -270,6 +625,7 @@ public abstract class AbstractCache {
         }
 
 
+        publishSnapshot();
         logCacheInfo("Load Cache from disk");
         return anyChanges.get();
     }
@@ -279,67 +635,407 @@ public abstract class AbstractCache {
     }
 
     protected boolean loadTableFromDisk(String tableName, LocalDateTime lastModifiedOnDisk, DatabaseConnection connection, String whereClause) throws IOException, SQLException, NotImplementedException {
+        AbstractTable<AbstractTableDataEntry> table = findTable(tableName);
+
+        // an eviction of the table waits for the load
+        synchronized (getLoadLock(tableName)) {
+            // readers keep the old rows until the table is loaded and merged completely
+            table.beginReload();
+            boolean anyChanges;
+            boolean reloaded = false;
+            try {
+                anyChanges = reloadTable(table, lastModifiedOnDisk, connection, whereClause);
+                reloaded = true;
+            } finally {
+                table.endReload(reloaded);
+            }
+            table.setDbLastModify(getLastModifiedOnDb(tableName));
+            COLD.remove(tableName);
+            return anyChanges;
+        }
+    }
+
+    private boolean reloadTable(AbstractTable<AbstractTableDataEntry> table, LocalDateTime lastModifiedOnDisk, DatabaseConnection connection, String whereClause) throws SQLException {
         boolean anyChanges = false;
+        String tableName = table.getTableName();
 
+        LocalDateTime lastModifiedOnDB = getLastModifiedOnDb(tableName);
+        boolean outdated = lastModifiedOnDB == null || lastModifiedOnDisk == null || lastModifiedOnDB.isAfter(lastModifiedOnDisk);
 
-        AbstractTable<AbstractTableDataEntry> table = getTable(tableName);
+        // an outdated table with a delta source is loaded from disk and merged with the changed rows
+        boolean incremental = outdated && lastModifiedOnDisk != null && supportsIncrementalRefresh(table);
 
-        //delete alt data
-        table.clear();
+        boolean loaded = (!outdated || incremental) && table.loadFromDisk(getCacheFolder(), getManifestEntry(tableName));
 
-        LocalDateTime lastModifiedOnDB = getLastModifiedOnDb(tableName);
+        if (loaded && incremental) {
+            table.setDbLastModify(lastModifiedOnDisk);
+            loaded = refreshTableIncremental(connection, table, whereClause);
+            if (loaded) {
+                anyChanges = true;
+                table.SOURCE = AbstractTable.Source.Delta;
+                table.SourceThread = Thread.currentThread().getName();
+                table.SourceConnection = "HDD + DB delta";
+            }
+        } else if (loaded) {
+            table.SOURCE = AbstractTable.Source.Disk;
+            table.SourceThread = Thread.currentThread().getName();
+            table.SourceConnection = "HDD";
+        }
 
-        if (lastModifiedOnDB == null || lastModifiedOnDB.isAfter(lastModifiedOnDisk)) {
-            //cache is outdated, load from DB
+        if (!loaded) {
+            //cache is outdated or the table file is damaged, load this table from DB
+            if (!outdated) log.warn("Cache file of table {} is damaged, load it from DB", tableName);
             anyChanges = true;
+            table.clear();
 
-            Statement st = connection.createStatement();
-            ResultSet rs = st.executeQuery("SELECT * FROM " + tableName + " " + whereClause + ";");
-            table.add(rs);
+            readTable(connection, table, whereClause);
             table.SOURCE = AbstractTable.Source.DB;
             table.SourceThread = Thread.currentThread().getName();
-            DatabaseMetaData metaData = st.getConnection().getMetaData();
-            table.SourceConnection = getConnectionInfo(metaData.getURL());
+        }
+        return anyChanges;
+    }
+
+    /**
+     * Name of a change log table with the columns tableName, pk and changed, one row for every
+     * insert, update or delete of a row. Tables with a primary key are refreshed with the rows
+     * logged since their last modification. Null if the database has no change log.
+     */
+    protected String getChangeLogTable() {
+        return null;
+    }
+
+    boolean supportsIncrementalRefresh(AbstractTable<AbstractTableDataEntry> table) {
+        return table.getPrimaryKeyColumn() != null && (getChangeLogTable() != null || table.getChangeColumn() != null);
+    }
+
+    /**
+     * Brings the tables up to date with the database. Tables whose last_modified moved forward are
+     * refreshed with their changed rows if possible, otherwise they are reloaded completely.
+     *
+     * @return true if any table changed
+     */
+    public boolean refreshFromDB(DatabaseConnection connection) throws SQLException, IOException, ClassNotFoundException {
+        return refreshFromDB(connection, 1);
+    }
+
+    /**
+     * @param threads number of tables refreshed at the same time
+     * @return true if any table changed
+     * @see #refreshFromDB(DatabaseConnection)
+     */
+    public boolean refreshFromDB(DatabaseConnection connection, int threads) throws SQLException, IOException, ClassNotFoundException {
+        synchronized (CACHE_FOLDER) {
+            chkTables();
+            loadLAstModifiedFromDB(connection);
+
+            ArrayList<AbstractTable<AbstractTableDataEntry>> outdated = new ArrayList<>();
+            for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+                if (COLD.contains(table.getTableName())) continue;
+                if (isOutdated(table, getLastModifiedOnDb(table.getTableName()))) outdated.add(table);
+            }
+            if (outdated.isEmpty()) return false;
+
+            if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(UNIQUE_ID_REFRESH);
+            ExecutorService executorService = threads > 1 && outdated.size() > 1
+                    ? Executors.newFixedThreadPool(Math.min(threads, outdated.size())) : null;
+            try {
+                if (executorService == null) {
+                    for (AbstractTable<AbstractTableDataEntry> table : outdated) refreshTable(connection, table);
+                } else {
+                    ArrayList<Future<?>> refreshes = new ArrayList<>();
+                    for (AbstractTable<AbstractTableDataEntry> table : outdated) {
+                        refreshes.add(executorService.submit(() -> {
+                            refreshTable(connection, table);
+                            return null;
+                        }));
+                    }
+                    // every table is finished before the first failure is thrown
+                    ExecutionException failure = null;
+                    for (Future<?> refresh : refreshes) {
+                        try {
+                            refresh.get();
+                        } catch (ExecutionException e) {
+                            if (failure == null) failure = e;
+                        }
+                    }
+                    if (failure != null) {
+                        if (failure.getCause() instanceof SQLException sqlException) throw sqlException;
+                        if (failure.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+                        throw new RuntimeException(failure.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while refreshing the cache", e);
+            } finally {
+                if (executorService != null) executorService.shutdownNow();
+                if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(UNIQUE_ID_REFRESH);
+            }
+            publishSnapshot();
+            logCacheInfo("Refresh Cache from DB");
+            return true;
+        }
+    }
+
+    private void refreshTable(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table) throws SQLException {
+        synchronized (getLoadLock(table.getTableName())) {
+            // evicted meanwhile, the next access loads the table up to date
+            if (COLD.contains(table.getTableName())) return;
+            LocalDateTime lastModifiedOnDB = getLastModifiedOnDb(table.getTableName());
+            if (isKnown(table) && supportsIncrementalRefresh(table)
+                    && refreshTableIncremental(connection, table, getWhereClauseForTable(table.getTableName()))) {
+                table.SOURCE = AbstractTable.Source.Delta;
+                table.SourceThread = Thread.currentThread().getName();
+                table.setDbLastModify(lastModifiedOnDB);
+            } else {
+                loadTableFromDB(connection, table);
+            }
+        }
+    }
+
+    // the table was loaded and its last modification is known
+    private static boolean isKnown(AbstractTable<AbstractTableDataEntry> table) {
+        LocalDateTime cached = table.getDbLastModify();
+        return cached != null && cached != LocalDateTime.MAX;
+    }
+
+    private static boolean isOutdated(AbstractTable<AbstractTableDataEntry> table, LocalDateTime lastModifiedOnDB) {
+        return !isKnown(table) || lastModifiedOnDB == null || lastModifiedOnDB.isAfter(table.getDbLastModify());
+    }
+
+    /**
+     * Reads the last_modified table without waiting for a running load or refresh of the cache.
+     *
+     * @return the names of the tables {@link #refreshFromDB(DatabaseConnection)} would refresh
+     */
+    public List<String> getOutdatedTables(DatabaseConnection connection) throws SQLException, ClassNotFoundException {
+        chkTables();
+        HashMap<String, LocalDateTime> lastModified = readLastModifiedFromDB(connection, UNIQUE_ID_POLL_LAST_MODIFY);
+        ArrayList<String> outdated = new ArrayList<>();
+        for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+            if (COLD.contains(table.getTableName())) continue;
+            if (isOutdated(table, lastModified.get(table.getTableName()))) outdated.add(table.getTableName());
+        }
+        return outdated;
+    }
 
+    /**
+     * Fetches the rows changed since the cached state and merges them into the table. With a change
+     * log the keys logged since {@link AbstractTable#getDbLastModify()} are fetched, keys without a
+     * row are deleted. Otherwise the rows with a change column value not older than the newest cached
+     * one are fetched and deleted rows are found by comparing the keys.
+     *
+     * @return false if the table can't be refreshed incrementally and has to be reloaded
+     */
+    boolean refreshTableIncremental(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table, String whereClause) throws SQLException {
+        String keyColumn = table.getPrimaryKeyColumn();
+        if (keyColumn == null) return false;
+
+        // the where clause of the table applies to the delta as well
+        String source = "(SELECT * FROM " + table.getTableName() + " " + whereClause + ") AS base";
+        ArrayList<AbstractTableDataEntry> changedRows = new ArrayList<>();
+        HashSet<String> deletedKeys = new HashSet<>();
+
+        // the delta is computed against one version of the rows
+        TableSnapshot<AbstractTableDataEntry> cached = table.snapshot();
+        String changeLog = getChangeLogTable();
+        String changeColumn = table.getChangeColumn();
+        LocalDateTime since = table.getDbLastModify();
+
+        if (changeLog != null && since != null && since != LocalDateTime.MAX) {
+            try (PreparedStatement st = connection.prepareReadOnlyStatement("SELECT DISTINCT pk FROM " + changeLog + " WHERE tableName = ? AND changed >= ?")) {
+                st.setString(1, table.getTableName());
+                st.setString(2, Abstract_Database.getDateString(since));
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) deletedKeys.add(rs.getString(1));
+            }
+
+            fetchByKeys(connection, table, source, deletedKeys, changedRows);
+        } else if (changeColumn != null) {
+            Object watermark = cached.getMaxValue(changeColumn);
+            if (watermark == null) return false;
+
+            // rows with the same value as the watermark may have changed after the cached state was read
+            try (PreparedStatement st = connection.prepareReadOnlyStatement("SELECT * FROM " + source + " WHERE " + changeColumn + " >= ?")) {
+                if (watermark instanceof LocalDateTime dateTime) {
+                    st.setString(1, Abstract_Database.getDateString(dateTime));
+                } else {
+                    st.setObject(1, watermark);
+                }
+                changedRows.addAll(table.createAll(st.executeQuery()));
+            }
+
+            // a deleted row leaves no change behind, only its missing key
+            for (AbstractTableDataEntry row : cached) deletedKeys.add(table.getKey(row));
+            try (PreparedStatement st = connection.prepareReadOnlyStatement("SELECT " + keyColumn + " FROM " + source)) {
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) deletedKeys.remove(rs.getString(1));
+            }
         } else {
-            table.loadFromDisk(getCacheFolder());
-            table.SOURCE = AbstractTable.Source.Disk;
-            table.SourceThread = Thread.currentThread().getName();
-            table.SourceConnection = "HDD";
+            return false;
         }
-        table.setDbLastModify(getLastModifiedOnDb(tableName));
-        return anyChanges;
+
+        table.applyDelta(changedRows, deletedKeys);
+        DIRTY.add(table.getTableName());
+        log.debug("Refreshed table {} incrementally, {} changed and {} deleted rows", table.getTableName(), changedRows.size(), deletedKeys.size());
+        return true;
     }
 
-    public void saveAllToDisk() throws IOException, NotImplementedException {
+    /**
+     * Fetches the rows with the keys in chunks of {@link #DELTA_KEY_CHUNK}. The keys of the fetched
+     * rows are removed from keys, the remaining keys have no row anymore.
+     */
+    private void fetchByKeys(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table, String source,
+                             Set<String> keys, List<AbstractTableDataEntry> rows) throws SQLException {
+        ArrayList<String> chunks = new ArrayList<>(keys);
+        for (int from = 0; from < chunks.size(); from += DELTA_KEY_CHUNK) {
+            List<String> chunk = chunks.subList(from, Math.min(chunks.size(), from + DELTA_KEY_CHUNK));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement st = connection.prepareReadOnlyStatement("SELECT * FROM " + source + " WHERE " + table.getPrimaryKeyColumn() + " IN (" + placeholders + ")")) {
+                for (int i = 0; i < chunk.size(); i++) st.setString(i + 1, chunk.get(i));
+                for (AbstractTableDataEntry row : table.createAll(st.executeQuery())) {
+                    rows.add(row);
+                    keys.remove(table.getKey(row));
+                }
+            }
+        }
+    }
 
-        log.debug("Write Cache to disk!");
+    /**
+     * Applies changes reported by a {@link ChangeStream} at once. The changed rows of a table with a
+     * primary key are fetched by key and merged, keys without a row are deleted. A change of a whole
+     * table or of a table without primary key reloads the table. Changes of tables that are not
+     * cached or cold are ignored.
+     * <p>
+     * The last modification of the tables stays as it is, a later {@link #refreshFromDB(DatabaseConnection)}
+     * fetches the same changes again instead of missing one. The changed tables are not evicted
+     * before the next {@link #saveAllToDisk()}, their cache files don't have the changes.
+     *
+     * @return the names of the changed tables
+     */
+    public Set<String> applyChanges(DatabaseConnection connection, Collection<ChangeEvent> events) throws SQLException, ClassNotFoundException {
+        synchronized (CACHE_FOLDER) {
+            chkTables();
+            // keys by table, null for a change of the whole table
+            LinkedHashMap<String, HashSet<String>> changes = new LinkedHashMap<>();
+            for (ChangeEvent event : events) {
+                if (COLD.contains(event.tableName()) || TABLES.stream().noneMatch(table -> table.getTableName().equals(event.tableName()))) continue;
+                if (changes.containsKey(event.tableName()) && changes.get(event.tableName()) == null) continue;
+                if (event.isTableChange()) {
+                    changes.put(event.tableName(), null);
+                } else {
+                    changes.computeIfAbsent(event.tableName(), name -> new HashSet<>()).add(event.key());
+                }
+            }
+            if (changes.isEmpty()) return Set.of();
+
+            if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(UNIQUE_ID_APPLY_CHANGES);
+            try {
+                for (Map.Entry<String, HashSet<String>> change : changes.entrySet()) {
+                    AbstractTable<AbstractTableDataEntry> table = findTable(change.getKey());
+                    synchronized (getLoadLock(change.getKey())) {
+                        // evicted meanwhile, the next access loads the table with its changes
+                        if (COLD.contains(change.getKey())) continue;
+                        applyChanges(connection, table, change.getValue());
+                    }
+                }
+            } finally {
+                if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(UNIQUE_ID_APPLY_CHANGES);
+            }
+            publishSnapshot();
+            return changes.keySet();
+        }
+    }
 
-        BitStore bitStore = new BitStore();
-        bitStore.write(TABLES.size());
+    // keys of the changed rows, null for a change of the whole table
+    private void applyChanges(DatabaseConnection connection, AbstractTable<AbstractTableDataEntry> table, HashSet<String> keys) throws SQLException {
+        // the last modification stays as it is, the cache file no longer has the rows
+        DIRTY.add(table.getTableName());
+        if (keys == null || table.getPrimaryKeyColumn() == null) {
+            loadTableFromDB(connection, table);
+            return;
+        }
+        String source = "(SELECT * FROM " + table.getTableName() + " " + getWhereClauseForTable(table.getTableName()) + ") AS base";
+        ArrayList<AbstractTableDataEntry> changedRows = new ArrayList<>();
+        int changedKeys = keys.size();
+        // keys that are left have no row, they are removed if cached
+        fetchByKeys(connection, table, source, keys, changedRows);
+        table.applyDelta(changedRows, keys);
+        table.SOURCE = AbstractTable.Source.Delta;
+        table.SourceThread = Thread.currentThread().getName();
+        log.debug("Applied changes of {} keys to table {}, {} rows fetched", changedKeys, table.getTableName(), changedRows.size());
+    }
 
+    /**
+     * Marks the tables as not loaded, the next {@link #refreshFromDB(DatabaseConnection)} reloads
+     * them completely. For changes that could not be applied.
+     */
+    public void invalidate(Collection<String> tableNames) {
+        chkTables();
         for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
-            bitStore.write(table.getTableName());
-            bitStore.write(table.getDbLastModify());
-            table.saveToDisk(getCacheFolder());
+            if (tableNames.contains(table.getTableName())) table.setDbLastModify(null);
         }
+    }
 
-        byte[] bytes = bitStore.getArray();
-        File newCacheFile = new File(getCacheFolder(), "tables_cache.bin");
-        if (!newCacheFile.exists()) {
-            newCacheFile.getParentFile().mkdirs();
-            newCacheFile.createNewFile();
+    /**
+     * Writes every table to its own file and then the manifest with the checksums of the files.
+     * All files are replaced atomically, after a crash each table file is either the old or the
+     * new one. A table file that doesn't match the manifest is loaded from the DB on the next start.
+     */
+    public void saveAllToDisk() throws IOException, NotImplementedException {
+        // a refresh may run meanwhile, saves only wait for each other
+        synchronized (SAVE_LOCK) {
+            log.debug("Write Cache to disk!");
+
+            ArrayList<CacheManifest.Entry> entries = new ArrayList<>();
+            // cleared before the rows are read, a change in between marks the table again
+            HashSet<String> cleared = new HashSet<>();
+            boolean written = false;
+            try {
+                for (AbstractTable<AbstractTableDataEntry> table : TABLES) {
+                    if (COLD.contains(table.getTableName())) {
+                        // the file of a cold table stays as it is
+                        CacheManifest.Entry entry = getManifestEntry(table.getTableName());
+                        if (entry != null) entries.add(entry);
+                        continue;
+                    }
+                    // read before the rows, a refresh in between makes the file newer than its entry, never older
+                    LocalDateTime lastModified = table.getDbLastModify();
+                    if (DIRTY.remove(table.getTableName())) cleared.add(table.getTableName());
+                    AtomicCacheFile.Checksum checksum = table.writeCacheFile(getCacheFolder());
+                    entries.add(new CacheManifest.Entry(table.getTableName(), lastModified, checksum.length(), checksum.crc(), true));
+                }
+
+                CacheManifest newManifest = new CacheManifest(getCacheGeneration() + 1, entries);
+                newManifest.write(getCacheFolder());
+                manifest = newManifest;
+                written = true;
+            } finally {
+                // without a new manifest the changes are not on disk
+                if (!written) DIRTY.addAll(cleared);
+            }
+
+            log.debug("Cache generation {} written to disk: {}", manifest.generation, getCacheFolder().getAbsolutePath());
         }
-        OutputStream os = new FileOutputStream(newCacheFile);
-        os.write(bytes);
-        os.close();
 
-        log.debug("Cache written to disk: {}", newCacheFile.getAbsolutePath());
+        // written tables can be loaded from disk again
+        evict();
 
 
         logCacheInfo("Write Cache to disk");
     }
 
+    // generation of the cache on disk, incremented by every saveAllToDisk(), 0 if there is none
+    public long getCacheGeneration() {
+        CacheManifest current = manifest;
+        return current == null ? 0 : current.generation;
+    }
+
+    private CacheManifest.Entry getManifestEntry(String tableName) {
+        CacheManifest current = manifest;
+        return current == null ? null : current.get(tableName);
+    }
+
     private void logCacheInfo(String infoName) {
         log.info("Cache info: " + infoName);
 //        StringBuilder sb = new StringBuilder("+----------------------------------+---------+--------+----------+------------------------+\n" +
@@ -356,12 +1052,15 @@ public abstract class AbstractCache {
 
         log.info("\n" + AsciiTable.getTable(TABLES, Arrays.asList(
                 new Column().header("Name").with(table -> table.tableName),
-                new Column().header("entries").with(table -> Integer.toString(table.tableData.size())),
+                new Column().header("entries").with(table -> COLD.contains(table.getTableName()) ? "cold" : Integer.toString(table.size())),
+                new Column().header("memory").dataAlign(HorizontalAlign.RIGHT).with(table -> COLD.contains(table.getTableName()) ? "" : formatBytes(table.estimateMemory())),
                 new Column().header("fromDB").dataAlign(HorizontalAlign.CENTER).with(table -> table.SOURCE == AbstractTable.Source.Disk ? "" : table.SourceThread),
                 new Column().header("fromDisk").dataAlign(HorizontalAlign.CENTER).with(table -> table.SOURCE == AbstractTable.Source.DB ? "" : table.SourceThread),
                 new Column().header("last modify").with(table -> Abstract_Database.getDateString(table.lastModified)),
                 new Column().header("Connection").with(table -> table.SourceConnection)
         )));
+        long budget = getMemoryBudget();
+        log.info("Cache memory: {}{}", formatBytes(getMemoryUsage()), budget > 0 ? " of " + formatBytes(budget) : "");
 
 
     }
@@ -379,15 +1078,23 @@ public abstract class AbstractCache {
     protected void loadLAstModifiedFromDB(DatabaseConnection connection) throws IOException, SQLException, ClassNotFoundException {
 
         log.debug("loadLastModifiedFromDB");
+        LAST_MODIFY_MAP.putAll(readLastModifiedFromDB(connection, UNIQUE_ID_SET_LAST_MODIFY_TABLE));
+    }
 
+    private HashMap<String, LocalDateTime> readLastModifiedFromDB(DatabaseConnection connection, String uniqueID) throws SQLException, ClassNotFoundException {
+        HashMap<String, LocalDateTime> lastModified = new HashMap<>();
         String sql = "SELECT * FROM last_modified ";
-        if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(UNIQUE_ID_SET_LAST_MODIFY_TABLE);
-        ResultSet rs = connection.createStatement().executeQuery(sql);
-        while (rs.next()) {
-            LocalDateTime lastModifiedOnDb = Abstract_Database.getDateTime(rs.getString("localDateTime"));
-            LAST_MODIFY_MAP.put(rs.getString("tableName"), lastModifiedOnDb);
+        if (!(connection instanceof MariaDB_Cluster_Connection)) connection.connect(uniqueID);
+        try (Statement st = connection.createReadOnlyStatement()) {
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()) {
+                LocalDateTime lastModifiedOnDb = Abstract_Database.getDateTime(rs.getString("localDateTime"));
+                // an unknown time is the same as a missing one
+                if (lastModifiedOnDb != null) lastModified.put(rs.getString("tableName"), lastModifiedOnDb);
+            }
         }
-        if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(UNIQUE_ID_SET_LAST_MODIFY_TABLE);
+        if (!(connection instanceof MariaDB_Cluster_Connection)) connection.disconnect(uniqueID);
+        return lastModified;
     }
 
     protected LocalDateTime getLastModifiedOnDb(String tableName) throws SQLException {
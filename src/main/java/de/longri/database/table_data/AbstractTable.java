@@ -26,12 +26,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 public abstract class AbstractTable<T extends AbstractTableDataEntry> implements Iterable<T> {
@@ -39,17 +48,18 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
     private final static Logger log = LoggerFactory.getLogger(AbstractTable.class);
 
     public boolean isEmpty() {
-        return tableData.isEmpty();
+        return snapshot().isEmpty();
     }
 
     public abstract String[] getColumnNames();
 
     public int size() {
-        return tableData.size();
+        return snapshot().size();
     }
 
     public static enum Source {
-        DB, Disk, unknown
+        // Delta: loaded from disk and brought up to date with the changed rows from the DB
+        DB, Disk, Delta, unknown
     }
 
     public Source SOURCE = Source.unknown;
@@ -60,7 +70,29 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
 
     public final String tableName;
 
-    public final ArrayList<T> tableData = new ArrayList<>();
+    /**
+     * The rows of the current snapshot, not modifiable. Each call reads the snapshot that is current
+     * at that moment, use {@link #snapshot()} to read several rows of the same version.
+     * <p>
+     * This was a modifiable {@code ArrayList<T>} before the rows were kept in snapshots, see the
+     * migration note in the README.
+     */
+    public final List<T> tableData = new AbstractList<>() {
+        @Override
+        public T get(int index) {
+            return snapshot().getRows().get(index);
+        }
+
+        @Override
+        public int size() {
+            return snapshot().size();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return snapshot().iterator();
+        }
+    };
 
     public LocalDateTime lastModified = LocalDateTime.MAX;
 
@@ -74,74 +106,610 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
 
     public abstract String getTableName();
 
+    /**
+     * Rows of a table with compact storage keep their values in a primitive array and an object
+     * array instead of one property object per column. Values are read by column ordinal, e.g.
+     * {@link AbstractTableDataEntry#getInt(int)}, a row gets property objects only when
+     * {@link AbstractTableDataEntry#getProperty(String)} is called on it.
+     */
+    public boolean isCompactStorage() {
+        return false;
+    }
+
+    // created on first use, like the indexes
+    private volatile String[] columnNames;
+    private volatile HashMap<String, Integer> columnIndexes;
+    private volatile RowLayout rowLayout;
+
+    /**
+     * @return the ordinal of the column for the accessors of the rows, -1 if there is no such column
+     */
+    public int getColumnIndex(String name) {
+        HashMap<String, Integer> indexes = columnIndexes;
+        if (indexes == null) {
+            indexes = new HashMap<>();
+            String[] names = getColumnNames();
+            for (int col = 0; col < names.length; col++) indexes.put(names[col], col);
+            columnIndexes = indexes;
+        }
+        Integer col = indexes.get(name);
+        return col == null ? -1 : col;
+    }
+
+    String getColumnName(int col) {
+        String[] names = columnNames;
+        if (names == null) columnNames = names = getColumnNames();
+        return names[col];
+    }
+
+    // the column types are known from the properties the first row creates
+    RowLayout getRowLayout(AbstractTableDataEntry probe) {
+        RowLayout layout = rowLayout;
+        if (layout == null) {
+            synchronized (this) {
+                if (rowLayout == null) rowLayout = new RowLayout(getColumnNames(), probe);
+                layout = rowLayout;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Column with the primary key of the table. Needed to merge changed rows into the table,
+     * null if the table has none and is always reloaded completely.
+     */
+    public String getPrimaryKeyColumn() {
+        return null;
+    }
+
+    /**
+     * Column with the time or version of the last change of a row. With a primary key the table
+     * is refreshed with the rows changed since the newest cached value, null if the table has none.
+     */
+    public String getChangeColumn() {
+        return null;
+    }
+
     public LocalDateTime getDbLastModify() {
         return lastModified;
     }
 
     public void clear() {
-        tableData.clear();
+        beginChange(true);
+        endChange(true);
     }
 
+    /**
+     * Adds a row. Outside of a reload the rows added one after the other are collected in one copy
+     * of the current rows, which is published when the table is read the next time.
+     */
     public void add(T data) {
-        tableData.add(data);
+        faultIn();
+        WRITE_LOCK.lock();
+        try {
+            if (changeDepth > 0) {
+                pending.add(data);
+                return;
+            }
+            while (true) {
+                // only add() sets unpublished and this thread holds the write lock, a reader can only publish it
+                TableSnapshot<T> copy = unpublished == null ? currentSnapshot().copy() : null;
+                synchronized (ADD_LOCK) {
+                    TableSnapshot<T> added = unpublished != null ? unpublished : copy;
+                    if (added != null) {
+                        added.add(data);
+                        unpublished = added;
+                        return;
+                    }
+                }
+                // a reader published the rows between the check and the lock, they are copied again
+            }
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+    }
+
+    public void addAll(Collection<? extends T> rows) {
+        change(snapshot -> snapshot.addAll(rows));
+    }
+
+    // rows sampled by estimateMemory()
+    static final int MEMORY_SAMPLE_ROWS = 64;
+    // approximate heap size of one row in the row list and in one index
+    static final int ROW_REFERENCE_SIZE = 4;
+    static final int INDEX_ENTRY_SIZE = 32;
+
+    private record MemoryEstimate(TableSnapshot<?> snapshot, long bytes) {
+    }
+
+    private volatile MemoryEstimate memoryEstimate;
+
+    /**
+     * Approximate heap size of the current rows and their indexes in bytes, extrapolated from up
+     * to {@link #MEMORY_SAMPLE_ROWS} rows spread over the table. Computed once per snapshot.
+     */
+    public long estimateMemory() {
+        // a cold table is not loaded for its estimate
+        TableSnapshot<T> snapshot = currentSnapshot();
+        MemoryEstimate estimate = memoryEstimate;
+        if (estimate != null && estimate.snapshot() == snapshot) return estimate.bytes();
+
+        int size = snapshot.size();
+        long bytes = 0;
+        if (size > 0) {
+            int samples = Math.min(size, MEMORY_SAMPLE_ROWS);
+            long sampled = 0;
+            for (int i = 0; i < samples; i++) sampled += snapshot.getRows().get((int) ((long) i * size / samples)).estimateSize();
+            bytes = sampled * size / samples + (long) size * (ROW_REFERENCE_SIZE + INDEX_ENTRY_SIZE * snapshot.indexCount());
+        }
+        memoryEstimate = new MemoryEstimate(snapshot, bytes);
+        return bytes;
+    }
+
+    // current snapshot, published by the last change of the table
+    private final AtomicReference<TableSnapshot<T>> SNAPSHOT = new AtomicReference<>();
+
+    // writers wait for each other, readers never wait
+    private final ReentrantLock WRITE_LOCK = new ReentrantLock();
+
+    // next snapshot while a change runs, only seen by the thread that holds the write lock
+    private TableSnapshot<T> pending;
+    private int changeDepth;
+
+    // rows of add() calls outside of a change, published by the next read, changed only under ADD_LOCK
+    private volatile TableSnapshot<T> unpublished;
+
+    // held by add() for one row and by a reader to publish the added rows, never while a change or reload runs
+    private final Object ADD_LOCK = new Object();
+
+    // loads the rows of a cold lazy table, set by its cache, see AbstractCache#evict()
+    private volatile Runnable faultIn;
+
+    void setFaultIn(Runnable faultIn) {
+        this.faultIn = faultIn;
+    }
+
+    private void faultIn() {
+        Runnable load = faultIn;
+        // the thread of a change or reload works on the rows as they are
+        if (load != null && !WRITE_LOCK.isHeldByCurrentThread()) load.run();
+    }
+
+    /**
+     * Clears the rows unless a change or reload runs, for an eviction that must not wait for the
+     * writer. A writer may be the calling thread.
+     *
+     * @return false if the rows are kept
+     */
+    boolean tryClear() {
+        if (WRITE_LOCK.isHeldByCurrentThread() || !WRITE_LOCK.tryLock()) return false;
+        try {
+            clear();
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * The current version of the rows with their indexes. Waits at most for one running
+     * {@link #add(AbstractTableDataEntry)}, a reader that keeps the snapshot sees the same rows
+     * while the table is changed or reloaded. The thread of a running
+     * reload sees the rows it loaded so far. A cold lazy table of a cache is loaded first, also
+     * after it was evicted, see {@link AbstractCache#getTable(String)}.
+     */
+    public TableSnapshot<T> snapshot() {
+        if (WRITE_LOCK.isHeldByCurrentThread() && pending != null) return pending;
+        faultIn();
+        return currentSnapshot();
+    }
+
+    // the current snapshot without loading a cold table
+    TableSnapshot<T> currentSnapshot() {
+        if (unpublished != null) publishAdded();
+        TableSnapshot<T> snapshot = SNAPSHOT.get();
+        if (snapshot == null) {
+            // created on first use, the key and index columns of a subclass are not known in the constructor
+            SNAPSHOT.compareAndSet(null, new TableSnapshot<>(this, 0));
+            snapshot = SNAPSHOT.get();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Starts to load the table into a new snapshot while readers keep the current one, e.g.
+     * {@code beginReload(); try { ...; loaded = true; } finally { endReload(loaded); }}. The rows
+     * added by this thread until {@link #endReload(boolean)} go to the new snapshot, other writers
+     * wait. Reloads can be nested, the outermost one publishes.
+     */
+    public void beginReload() {
+        beginChange(true);
+    }
+
+    /**
+     * @param publish true to publish the loaded rows, false keeps the rows of the current snapshot
+     */
+    public void endReload(boolean publish) {
+        endChange(publish);
+    }
+
+    // a reader doesn't take the write lock, it would wait for a running reload
+    private void publishAdded() {
+        synchronized (ADD_LOCK) {
+            if (unpublished != null) SNAPSHOT.set(unpublished);
+            unpublished = null;
+        }
+    }
+
+    // a nested reload starts again from an empty snapshot, a nested change goes to the pending one
+    private void beginChange(boolean reload) {
+        // a change applies to the loaded rows, a reload replaces them
+        if (!reload) faultIn();
+        WRITE_LOCK.lock();
+        if (changeDepth++ == 0) {
+            pending = reload ? currentSnapshot().next() : currentSnapshot().copy();
+        } else if (reload) {
+            pending.clear();
+        }
+    }
+
+    private void endChange(boolean publish) {
+        try {
+            if (--changeDepth == 0) {
+                if (publish) SNAPSHOT.set(pending);
+                pending = null;
+            }
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+    }
+
+    private void change(Consumer<TableSnapshot<T>> changes) {
+        beginChange(false);
+        boolean changed = false;
+        try {
+            changes.accept(pending);
+            changed = true;
+        } finally {
+            endChange(changed);
+        }
+    }
+
+    /**
+     * Columns with unique values besides the primary key, each one is indexed for
+     * {@link #getByUniqueKey(String, Object)}.
+     */
+    public String[] getUniqueKeyColumns() {
+        return new String[0];
+    }
+
+    /**
+     * @return the row with the primary key, null if there is none
+     */
+    public T get(int id) {
+        return snapshot().get(id);
+    }
+
+    /**
+     * @return the row with the primary key, null if there is none
+     */
+    public T get(Object key) {
+        return snapshot().get(key);
+    }
+
+    /**
+     * @return the row with the key in a column of {@link #getUniqueKeyColumns()} or the primary key column
+     */
+    public T getByUniqueKey(String column, Object key) {
+        return snapshot().getByUniqueKey(column, key);
+    }
+
+    /**
+     * The indexes are kept up to date by the methods of the table, call this after changing the
+     * value of an indexed column of a row directly.
+     */
+    public void rebuildIndexes() {
+        change(TableSnapshot::rebuildIndexes);
     }
 
+    /**
+     * Columns with a hash index for {@link #where(String, Op, Object)} with {@link Op#EQ}, e.g.
+     * foreign keys and flags.
+     */
+    public String[] getHashIndexColumns() {
+        return new String[0];
+    }
+
+    /**
+     * Columns with a sorted index for equality and range queries.
+     */
+    public String[] getSortedIndexColumns() {
+        return new String[0];
+    }
+
+    public static enum Op {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    // tables with more rows are scanned in parallel by a query without index
+    static int PARALLEL_SCAN_THRESHOLD = 10_000;
+
+    /**
+     * Rows whose value in the column compares with the given value, null values never match.
+     * Numbers of different types compare by value. Uses an index of the column if there is one,
+     * otherwise all rows are scanned.
+     *
+     * @return the matching rows, in the order of the index or of the table
+     */
+    public List<T> where(String column, Op op, Object value) {
+        return snapshot().where(column, op, value);
+    }
+
+    /**
+     * Rows whose value in the column lies between from and to, null values never match.
+     *
+     * @param from lower bound, null for none
+     * @param to   upper bound, null for none
+     * @return the matching rows, ordered by the column if it has a sorted index
+     */
+    public List<T> range(String column, Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        return snapshot().range(column, from, fromInclusive, to, toInclusive);
+    }
+
+    // all rows of the result set are published together
     public void add(ResultSet rs) throws SQLException {
-        while (rs.next()) {
-            this.add(this.create(rs));
+        beginChange(false);
+        boolean added = false;
+        try {
+            if (isParallelDecoding()) {
+                ParallelRowReader.read(this, rs, getFetchSize() > 0 ? getFetchSize() : ParallelRowReader.CHUNK_ROWS);
+            } else {
+                while (rs.next()) {
+                    pending.add(this.create(rs));
+                }
+            }
+            added = true;
+        } finally {
+            rowMapper.remove();
+            endChange(added);
         }
     }
 
+    /**
+     * Fetch size of the statement that loads the table, 0 for the driver default. MySQL Connector/J
+     * reads the whole result into memory before the first row by default. With Integer.MIN_VALUE it
+     * streams the rows one by one, a positive size fetches that many rows per round trip from a
+     * server cursor if the URL enables useCursorFetch. A streamed result blocks other statements
+     * on the same connection until it is read.
+     */
+    public int getFetchSize() {
+        return 0;
+    }
+
+    /**
+     * With parallel decoding a second thread reads the result set while the loading thread creates
+     * the rows, see {@link ParallelRowReader}. Pays off for large tables with a streaming fetch size.
+     */
+    public boolean isParallelDecoding() {
+        return false;
+    }
+
+    /**
+     * Tables with at least this many rows are loaded in primary key ranges over several connections
+     * at once, see {@link #getParallelLoadChunks()}. 0 loads the table with one query. Needs an
+     * integer primary key.
+     */
+    public int getParallelLoadThreshold() {
+        return 0;
+    }
+
+    /**
+     * A lazy table is not loaded with its cache, it stays cold until the first
+     * {@link AbstractCache#getTable(String)} loads it from disk or DB. For rarely used tables.
+     */
+    public boolean isLazyLoad() {
+        return false;
+    }
+
+    // number of key ranges and concurrent queries of a parallel load
+    public int getParallelLoadChunks() {
+        return 4;
+    }
+
+    /**
+     * Creates a row without values, the columnar cache format and parallel decoding set the values
+     * afterwards. Tables override it with the {@link AbstractTableDataEntry#AbstractTableDataEntry(AbstractTable)}
+     * constructor of their rows, e.g. {@code return new Table1_data(this);}.
+     * <p>
+     * Without an override the row is created by {@link #create(StoreBase)} from a store that holds
+     * a property count of zero, for tables that have no such constructor yet.
+     */
+    protected T createRow() throws SQLException, NotImplementedException {
+        StoreBase emptyRow = new BitStore();
+        emptyRow.write(0);
+        return create(new BitStore(emptyRow.getArray()));
+    }
+
+    // rows without values, see createRow()
+    List<T> createEmpty(int count) throws SQLException, NotImplementedException {
+        ArrayList<T> rows = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            rows.add(createRow());
+        }
+        return rows;
+    }
+
+    // creates the rows of the result set without adding them to the table
+    List<T> createAll(ResultSet rs) throws SQLException {
+        ArrayList<T> rows = new ArrayList<>();
+        try {
+            while (rs.next()) {
+                rows.add(this.create(rs));
+            }
+        } finally {
+            rowMapper.remove();
+        }
+        return rows;
+    }
+
+    // mapper of the result set that is being read, released after the last row. Per thread, chunks
+    // of a table are read concurrently
+    private final ThreadLocal<RowMapper> rowMapper = new ThreadLocal<>();
+
+    RowMapper getRowMapper(ResultSet resultSet, AbstractTableDataEntry probe) throws SQLException {
+        RowMapper mapper = rowMapper.get();
+        if (mapper == null || mapper.RESULT_SET != resultSet) {
+            mapper = new RowMapper(resultSet, getColumnNames(), probe);
+            rowMapper.set(mapper);
+        }
+        return mapper;
+    }
+
+    /**
+     * Merges changed rows into the table by primary key. A row with a cached key replaces the
+     * cached row, a row with a new key is appended and rows with a key in deletedKeys are removed.
+     * Deleted keys are given as strings, the way they are stored in a change log.
+     */
+    public void applyDelta(Collection<? extends T> changedRows, Collection<String> deletedKeys) {
+        change(snapshot -> snapshot.applyDelta(changedRows, deletedKeys));
+    }
+
+    // primary key of the row as string, null keys are stored as "null"
+    String getKey(AbstractTableDataEntry row) {
+        return String.valueOf(row.getValue(getPrimaryKeyColumn()));
+    }
+
+    /**
+     * @return the largest value of the column in the cached rows, null if the table is empty or
+     * the column has no comparable values
+     */
+    public Object getMaxValue(String column) {
+        return snapshot().getMaxValue(column);
+    }
+
     public void saveToDisk(File cacheFolder) throws NotImplementedException, IOException {
-        // serialize and store on disk
+        writeCacheFile(cacheFolder);
+    }
 
+    // serialize and store on disk, a crash while writing leaves the previous file intact
+    AtomicCacheFile.Checksum writeCacheFile(File cacheFolder) throws NotImplementedException, IOException {
+        File newCacheFile = new File(cacheFolder, getTableName() + "_cache.bin");
+        // a reload while the file is written doesn't mix two versions of the rows
+        List<T> rows = snapshot().getRows();
+        return AtomicCacheFile.write(newCacheFile, os -> {
+            if (!ColumnarTableFormat.write(rows, os)) {
+                // rows with different properties can only be stored row by row
+                log.debug("Table {} has no common schema, store it in row format", tableName);
+                os.write(serializeRows(rows));
+            }
+        });
+    }
+
+    // row format, the format of all cache files before the columnar format
+    byte[] serializeRows(List<T> rows) throws NotImplementedException {
         StoreBase bitStore = new BitStore();
 
-        bitStore.write(tableData.size());
+        bitStore.write(rows.size());
 
-        for (T data : tableData) {
+        for (T data : rows) {
             data.serialize(bitStore);
         }
+        return bitStore.getArray();
+    }
+
+    public void loadFromDisk(File cacheFolder) throws NotImplementedException, IOException, SQLException {
+        loadFromDisk(cacheFolder, null);
+    }
 
-        byte[] bytes = bitStore.getArray();
-        File newCacheFile = new File(cacheFolder, this.tableName + "_cache.bin");
-        if (!newCacheFile.exists()) {
-            newCacheFile.getParentFile().mkdirs();
-            newCacheFile.createNewFile();
+    /**
+     * @param expected length and checksum of the file from the cache manifest, null to skip the check
+     * @return false if the file is missing or damaged, a damaged file is deleted
+     */
+    boolean loadFromDisk(File cacheFolder, CacheManifest.Entry expected) {
+        File newCacheFile = new File(cacheFolder, getTableName() + "_cache.bin");
+        if (!newCacheFile.exists()) return false;
+
+        // readers keep the current rows until the file is loaded completely
+        beginReload();
+        boolean loaded = false;
+        try {
+            loaded = loadCacheFile(newCacheFile, expected);
+        } finally {
+            endReload(loaded);
         }
-        OutputStream os = new FileOutputStream(newCacheFile);
-        os.write(bytes);
-        os.close();
+        return loaded;
+    }
+
+    private boolean loadCacheFile(File newCacheFile, CacheManifest.Entry expected) {
+        try {
+            ByteBuffer buffer = readCacheFile(newCacheFile);
+            if (expected != null && expected.checked()
+                    && (buffer.remaining() != expected.length() || AtomicCacheFile.crc(buffer) != expected.crc())) {
+                throw new IOException("Checksum mismatch of cache file " + newCacheFile);
+            }
+            if (ColumnarTableFormat.isColumnar(buffer)) {
+                ColumnarTableFormat.read(this, buffer);
+                return true;
+            }
 
+            // the row format needs the file as byte array for the BitStore
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            StoreBase bitStore = new BitStore(bytes);
+
+            int tableDataSize = bitStore.readInt();
+
+            for (int i = 0; i < tableDataSize; i++) {
+                this.add(create(bitStore));
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("Error with loading data from disk", e);
+            //Anything is wrong with the cache file. Delete it!
+            clear();
+            newCacheFile.delete();
+        }
+        return false;
     }
 
-    public void loadFromDisk(File cacheFolder) throws NotImplementedException, IOException, SQLException {
-        File newCacheFile = new File(cacheFolder, this.tableName + "_cache.bin");
-        if (newCacheFile.exists()) {
-            try {
-                InputStream is = new FileInputStream(newCacheFile);
-                byte[] bytes = is.readAllBytes();
-                is.close();
+    // Windows keeps a mapped file locked until the mapping is garbage collected, the next save would fail
+    static volatile boolean MEMORY_MAPPED_LOADING = !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
 
-                StoreBase bitStore = new BitStore(bytes);
+    /**
+     * Cache files are memory mapped by default, except on Windows. A mapped file stays readable
+     * when a save renames a new file over it during the load.
+     */
+    public static void setMemoryMappedLoading(boolean memoryMapped) {
+        MEMORY_MAPPED_LOADING = memoryMapped;
+    }
 
-                int tableDataSize = bitStore.readInt();
+    public static boolean isMemoryMappedLoading() {
+        return MEMORY_MAPPED_LOADING;
+    }
 
-                for (int i = 0; i < tableDataSize; i++) {
-                    this.add(create(bitStore));
-                }
-            } catch (Exception e) {
-                log.error("Error with loading data from disk", e);
-                //Anything is wrong with the cache file. Delete it!
-                newCacheFile.delete();
+    /**
+     * Maps the cache file into memory, the columnar format is decoded straight from the
+     * mapping without copying the file into the heap. Without memory mapping the file is
+     * read into a heap buffer.
+     */
+    static ByteBuffer readCacheFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Cache file " + file + " is too large: " + size);
+            if (MEMORY_MAPPED_LOADING) return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new EOFException("Cache file " + file + " is truncated");
             }
+            return buffer.flip();
         }
     }
 
     @Override
     public boolean equals(Object other) {
         if (other instanceof AbstractTable otherTable) {
-            return tableData.equals(otherTable.tableData);
+            return snapshot().getRows().equals(otherTable.snapshot().getRows());
         }
         return false;
     }
@@ -154,8 +722,8 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
     @Override
     public String toString() {
         // iterate items
-        if (tableData.size() == 0) return "[]";
-        ArrayList<T> items = this.tableData;
+        List<T> items = snapshot().getRows();
+        if (items.size() == 0) return "[]";
         StringBuilder buffer = new StringBuilder(32);
         buffer.append('[');
         buffer.append(items.get(0));
@@ -177,7 +745,7 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
     @NotNull
     @Override
     public Iterator<T> iterator() {
-        return tableData.iterator();
+        return snapshot().iterator();
     }
 
     /**
@@ -202,7 +770,7 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
      */
     @Override
     public void forEach(Consumer action) {
-        tableData.forEach(action);
+        snapshot().getRows().forEach(action);
     }
 
     /**
@@ -224,6 +792,6 @@ public abstract class AbstractTable<T extends AbstractTableDataEntry> implements
      */
     @Override
     public Spliterator<T> spliterator() {
-        return tableData.spliterator();
+        return snapshot().getRows().spliterator();
     }
 }
@@ -27,14 +27,27 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Objects;
 
 public abstract class AbstractTableDataEntry {
 
     public final ArrayList<NamedObjectProperty> properties = new ArrayList<>();
     public final AbstractTable TABLE;
 
+    // values of a compact row, null for a row with property objects
+    private volatile CompactRow compact;
+
     protected AbstractTableDataEntry(ArrayList<NamedObjectProperty> properties, AbstractTable table) {
         TABLE = table;
+        if (TABLE.isCompactStorage()) {
+            CompactRow row = new CompactRow(TABLE.getRowLayout(this));
+            for (int col = 0; col < row.LAYOUT.NAMES.length; col++) {
+                NamedObjectProperty newProp = getProperty(properties, row.LAYOUT.NAMES[col]);
+                if (newProp != null) row.set(col, newProp.getValue());
+            }
+            compact = row;
+            return;
+        }
 
         for (String col : TABLE.getColumnNames()) {
             NamedObjectProperty prop = createProperty(col);
@@ -50,40 +63,70 @@ public abstract class AbstractTableDataEntry {
         }
     }
 
-    protected AbstractTableDataEntry(ResultSet resultSet, AbstractTable table) throws SQLException {
+    /**
+     * Row without values for {@link AbstractTable#createRow()}, the decoders of a table set the
+     * values afterwards.
+     */
+    protected AbstractTableDataEntry(AbstractTable table) {
         TABLE = table;
-        for (String col : TABLE.getColumnNames()) {
-            NamedObjectProperty prop = createProperty(col);
-
-            if (prop == null) {
-                throw new RuntimeException("Cant't create property for column: " + col);
-            }
+        if (TABLE.isCompactStorage()) {
+            compact = new CompactRow(TABLE.getRowLayout(this));
+        }
+    }
 
-            if (prop instanceof NamedObjectProperty.NamedBoolProperty) {
-                prop.set(resultSet.getBoolean(col));
-            } else if (prop instanceof NamedObjectProperty.NamedIntegerProperty) {
-                prop.set(resultSet.getInt(col));
-            } else if (prop instanceof NamedObjectProperty.NamedStringProperty) {
-                prop.set(resultSet.getString(col));
-            } else if (prop instanceof NamedObjectProperty.NamedDoubleProperty) {
-                prop.set(resultSet.getDouble(col));
-            } else if (prop instanceof NamedObjectProperty.NamedLocalDateTimeProperty) {
-                LocalDateTime dbDate = Abstract_Database.getDateTime(resultSet.getString(col));
-                prop.set(dbDate);
-            }
-            properties.add(prop);
+    protected AbstractTableDataEntry(ResultSet resultSet, AbstractTable table) throws SQLException {
+        TABLE = table;
+        // column indexes and types are resolved once for all rows of the result set
+        RowMapper mapper = TABLE.getRowMapper(resultSet, this);
+        if (TABLE.isCompactStorage()) {
+            CompactRow row = new CompactRow(TABLE.getRowLayout(this));
+            mapper.read(row);
+            compact = row;
+            return;
         }
+        mapper.read(this, properties);
     }
 
 
     protected AbstractTableDataEntry(StoreBase bitStore, AbstractTable table) throws SQLException, NotImplementedException {
         TABLE = table;
         int propertyCount = bitStore.readInt();
+        if (TABLE.isCompactStorage()) {
+            CompactRow row = new CompactRow(TABLE.getRowLayout(this));
+            for (int i = 0; i < propertyCount; i++) {
+                readValue(bitStore, row);
+            }
+            compact = row;
+            return;
+        }
         for (int i = 0; i < propertyCount; i++) {
             properties.add(readProperty(bitStore));
         }
     }
 
+    private void readValue(StoreBase bitStore, CompactRow row) throws NotImplementedException {
+        int propertyType = bitStore.readInt();
+        String propertyName = bitStore.readString();
+        int col = row.LAYOUT.ordinal(propertyName);
+
+        if (col < 0)
+            throw new RuntimeException("Property " + propertyName + " not found for table " + TABLE.getTableName());
+
+        if (propertyType == NamedBoolProperty) {
+            row.set(col, bitStore.readBool());
+        } else if (propertyType == NamedIntegerProperty) {
+            row.set(col, bitStore.readInt());
+        } else if (propertyType == NamedStringProperty) {
+            row.set(col, bitStore.readString());
+        } else if (propertyType == NamedDoubleProperty) {
+            row.set(col, Double.valueOf(bitStore.readString()));
+        } else if (propertyType == NamedLocalDateTimeProperty) {
+            row.set(col, Abstract_Database.getDateTime(bitStore.readString()));
+        } else {
+            throw new RuntimeException("Unknown property type " + propertyType);
+        }
+    }
+
 
     private NamedObjectProperty getProperty(ArrayList<NamedObjectProperty> properties, String name) {
         for (NamedObjectProperty prop : properties) {
@@ -120,7 +163,13 @@ public abstract class AbstractTableDataEntry {
 
     protected abstract NamedObjectProperty createProperty(String name);
 
+    /**
+     * A compact row gets its property objects with the first call, they can be bound and changed
+     * like the properties of any other row. Use the column ordinal accessors to read values
+     * without this.
+     */
     public NamedObjectProperty getProperty(String name) {
+        if (compact != null) inflate();
         if (properties == null || properties.isEmpty()) throw new RuntimeException("properties not initialized");
         for (NamedObjectProperty prop : properties) {
             if (prop.getName().equals(name))
@@ -129,6 +178,136 @@ public abstract class AbstractTableDataEntry {
         throw new RuntimeException("Property " + name + " not found for table " + TABLE.getTableName());
     }
 
+    private synchronized void inflate() {
+        CompactRow row = compact;
+        if (row == null) return;
+        for (int col = 0; col < row.LAYOUT.NAMES.length; col++) {
+            NamedObjectProperty prop = createProperty(row.LAYOUT.NAMES[col]);
+            prop.set(row.get(col));
+            properties.add(prop);
+        }
+        // properties is complete before other threads see the row without compact values
+        compact = null;
+    }
+
+    // true while the values are stored without property objects, see AbstractTable.isCompactStorage()
+    public boolean isCompact() {
+        return compact != null;
+    }
+
+    CompactRow compactRow() {
+        return compact;
+    }
+
+    // approximate heap size of a property object without its value
+    static final int PROPERTY_SIZE = 48;
+
+    // approximate heap size of the row in bytes with compressed references, the values included
+    long estimateSize() {
+        CompactRow row = compact;
+        if (row != null) return 24 + row.estimateSize();
+        long size = 24 + 40 + 4L * properties.size();
+        for (NamedObjectProperty prop : properties) size += PROPERTY_SIZE + estimateSize(prop.get());
+        return size;
+    }
+
+    static long estimateSize(Object value) {
+        if (value == null || value instanceof Boolean) return 0;
+        if (value instanceof String string) return 40 + string.length();
+        if (value instanceof LocalDateTime) return 72;
+        return 16;
+    }
+
+    // column ordinals are the indexes of AbstractTable.getColumnNames(), see AbstractTable.getColumnIndex()
+
+    public Object getValue(int col) {
+        CompactRow row = compact;
+        return row != null ? row.get(col) : propertyAt(col).get();
+    }
+
+    public Object getValue(String name) {
+        CompactRow row = compact;
+        int col = row != null ? row.LAYOUT.ordinal(name) : TABLE.getColumnIndex(name);
+        if (col < 0) return getProperty(name).get();
+        return row != null ? row.get(col) : propertyAt(col).get();
+    }
+
+    public void setValue(int col, Object value) {
+        CompactRow row = compact;
+        if (row != null) {
+            row.set(col, value);
+        } else {
+            propertyAt(col).set(value);
+        }
+    }
+
+    public boolean isNull(int col) {
+        CompactRow row = compact;
+        return row != null ? row.isNull(col) : propertyAt(col).get() == null;
+    }
+
+    // null values read as false and 0, as in a JDBC ResultSet
+    public boolean getBool(int col) {
+        CompactRow row = compact;
+        return row != null ? row.getBool(col) : Boolean.TRUE.equals(propertyAt(col).get());
+    }
+
+    public int getInt(int col) {
+        CompactRow row = compact;
+        if (row != null) return row.getInt(col);
+        Object value = propertyAt(col).get();
+        return value == null ? 0 : (Integer) value;
+    }
+
+    public double getDouble(int col) {
+        CompactRow row = compact;
+        if (row != null) return row.getDouble(col);
+        Object value = propertyAt(col).get();
+        return value == null ? 0 : (Double) value;
+    }
+
+    public String getString(int col) {
+        CompactRow row = compact;
+        return row != null ? row.getString(col) : (String) propertyAt(col).get();
+    }
+
+    public LocalDateTime getDateTime(int col) {
+        CompactRow row = compact;
+        return row != null ? row.getDateTime(col) : (LocalDateTime) propertyAt(col).get();
+    }
+
+    // the properties are in column order unless the row was read from an older cache file
+    private NamedObjectProperty propertyAt(int col) {
+        String name = TABLE.getColumnName(col);
+        if (col < properties.size()) {
+            NamedObjectProperty prop = properties.get(col);
+            if (prop.getName().equals(name)) return prop;
+        }
+        return getProperty(name);
+    }
+
+    // the columns of this row in its own order, the same for a compact row and its properties
+
+    int columnCount() {
+        CompactRow row = compact;
+        return row != null ? row.LAYOUT.NAMES.length : properties.size();
+    }
+
+    String columnName(int i) {
+        CompactRow row = compact;
+        return row != null ? row.LAYOUT.NAMES[i] : properties.get(i).getName();
+    }
+
+    int columnType(int i) {
+        CompactRow row = compact;
+        return row != null ? row.LAYOUT.TYPES[i] : RowLayout.typeOf(properties.get(i));
+    }
+
+    Object columnValue(int i) {
+        CompactRow row = compact;
+        return row != null ? row.get(i) : properties.get(i).get();
+    }
+
     public static final int NamedBoolProperty = 0;
     public static final int NamedIntegerProperty = 1;
     public static final int NamedStringProperty = 2;
@@ -136,6 +315,11 @@ public abstract class AbstractTableDataEntry {
     public static final int NamedDoubleProperty = 4;
 
     public void serialize(StoreBase bitStore) throws NotImplementedException {
+        CompactRow row = compact;
+        if (row != null) {
+            serialize(row, bitStore);
+            return;
+        }
         bitStore.write(properties.size());
         for (NamedObjectProperty prop : properties) {
             if (prop instanceof NamedObjectProperty.NamedBoolProperty boolProperty) {
@@ -177,11 +361,37 @@ public abstract class AbstractTableDataEntry {
         }
     }
 
+    // the row format of serialize(), written from the compact values
+    private static void serialize(CompactRow row, StoreBase bitStore) throws NotImplementedException {
+        RowLayout layout = row.LAYOUT;
+        bitStore.write(layout.NAMES.length);
+        for (int col = 0; col < layout.NAMES.length; col++) {
+            bitStore.write(layout.TYPES[col]);
+            bitStore.write(layout.NAMES[col]);
+            switch (layout.TYPES[col]) {
+                case NamedBoolProperty -> bitStore.write(row.getBool(col));
+                case NamedIntegerProperty -> bitStore.write(row.getInt(col));
+                case NamedStringProperty -> bitStore.write(row.getString(col));
+                case NamedDoubleProperty -> bitStore.write(Double.toString(row.getDouble(col)));
+                default -> bitStore.write(Abstract_Database.getDateString(row.getDateTime(col)));
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         AbstractTableDataEntry that = (AbstractTableDataEntry) o;
+        if (compact != null || that.compact != null) {
+            if (columnCount() != that.columnCount()) return false;
+            for (int i = 0; i < columnCount(); i++) {
+                if (!columnName(i).equals(that.columnName(i)) || !Objects.equals(columnValue(i), that.columnValue(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
         if (properties.size() != that.properties.size()) return false;
         for (int i = 0; i < properties.size(); i++) {
             if (!properties.get(i).equals(that.properties.get(i))) {
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.serializable.NotImplementedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Crash safe writing of cache files. The content goes to {@code <name>.tmp}, is synced to the
+ * disk and then renamed over the target, so a reader sees either the old or the new file,
+ * never a torn one. The CRC32C and the length of the written content are returned for the
+ * {@link CacheManifest}.
+ */
+final class AtomicCacheFile {
+
+    private final static Logger log = LoggerFactory.getLogger(AtomicCacheFile.class);
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException, NotImplementedException;
+    }
+
+    record Checksum(long length, int crc) {
+    }
+
+    private AtomicCacheFile() {
+    }
+
+    static Checksum write(File target, Writer writer) throws IOException, NotImplementedException {
+        File folder = target.getAbsoluteFile().getParentFile();
+        if (!folder.exists()) folder.mkdirs();
+        File tmp = new File(folder, target.getName() + ".tmp");
+
+        CRC32C crc = new CRC32C();
+        long length;
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc), 1 << 16))) {
+            writer.write(out);
+            out.flush();
+            fos.getFD().sync();
+            length = fos.getChannel().size();
+        } catch (IOException | NotImplementedException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncFolder(folder);
+        return new Checksum(length, (int) crc.getValue());
+    }
+
+    // makes the rename durable, not every platform can open a directory (Windows)
+    private static void syncFolder(File folder) {
+        try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Can't sync folder {}", folder, e);
+        }
+    }
+
+    static int crc(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.database.DatabaseConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies the changes of a {@link ChangeStream} to a cache as they happen, see
+ * {@link AbstractCache#applyChanges(DatabaseConnection, java.util.Collection)}. With an invalidator
+ * a {@link CacheRefresher} can poll much less often, it only catches what the stream missed.
+ * <p>
+ * If changes can't be applied, their tables are invalidated and reloaded completely by the next
+ * {@link AbstractCache#refreshFromDB(DatabaseConnection)}.
+ */
+public class CacheInvalidator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidator.class);
+
+    private final AbstractCache CACHE;
+    private final DatabaseConnection CONNECTION;
+    private final ChangeStream STREAM;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public CacheInvalidator(AbstractCache cache, DatabaseConnection connection, ChangeStream stream) {
+        CACHE = cache;
+        CONNECTION = connection;
+        STREAM = stream;
+    }
+
+    public void start() {
+        STREAM.start(this::apply);
+    }
+
+    void apply(List<ChangeEvent> changes) {
+        events.add(changes.size());
+        try {
+            CACHE.applyChanges(CONNECTION, changes);
+        } catch (Throwable e) {
+            failures.increment();
+            LinkedHashSet<String> tables = new LinkedHashSet<>();
+            for (ChangeEvent change : changes) tables.add(change.tableName());
+            log.error("Can't apply changes to tables {}, they are reloaded with the next refresh", tables, e);
+            CACHE.invalidate(tables);
+        }
+    }
+
+    // number of received change events
+    public long getEventCount() {
+        return events.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public void close() {
+        STREAM.close();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.serializable.BitStore;
+import de.longri.serializable.NotImplementedException;
+import de.longri.serializable.StoreBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content of {@code tables_cache.bin}: a generation number that is incremented on every save
+ * and per table the last modification on the database and the length and CRC32C of its cache
+ * file. The manifest is written after all table files, so it is the commit point of a save.
+ * <pre>
+ * int MAGIC, int VERSION, long generation, int table count
+ * per table: string name, byte hasLastModified [, long epoch seconds, int nanos], long length, int crc
+ * int CRC32C of everything before
+ * </pre>
+ * Manifests of older versions (table count, then name and last modification per table) are
+ * still read, their tables are not checked.
+ */
+final class CacheManifest {
+
+    static final String FILE_NAME = "tables_cache.bin";
+    static final int MAGIC = 0x4C434D46; // "LCMF"
+    static final int VERSION = 1;
+
+    /**
+     * @param checked false if the manifest has no checksum for the table file
+     */
+    record Entry(String tableName, LocalDateTime lastModified, long length, int crc, boolean checked) {
+    }
+
+    final long generation;
+    final List<Entry> entries;
+
+    CacheManifest(long generation, List<Entry> entries) {
+        this.generation = generation;
+        this.entries = entries;
+    }
+
+    Entry get(String tableName) {
+        for (Entry entry : entries) {
+            if (entry.tableName().equals(tableName)) return entry;
+        }
+        return null;
+    }
+
+    void write(File cacheFolder) throws IOException, NotImplementedException {
+        AtomicCacheFile.write(new File(cacheFolder, FILE_NAME), out -> {
+            ByteBuffer buffer = ByteBuffer.allocate(size());
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(generation);
+            buffer.putInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] name = entry.tableName().getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(name.length);
+                buffer.put(name);
+                buffer.put((byte) (entry.lastModified() == null ? 0 : 1));
+                if (entry.lastModified() != null) {
+                    buffer.putLong(entry.lastModified().toEpochSecond(ZoneOffset.UTC));
+                    buffer.putInt(entry.lastModified().getNano());
+                }
+                buffer.putLong(entry.length());
+                buffer.putInt(entry.crc());
+            }
+            buffer.flip();
+            int crc = AtomicCacheFile.crc(buffer);
+            out.write(buffer.array(), 0, buffer.limit());
+            out.writeInt(crc);
+        });
+    }
+
+    private int size() {
+        int size = 4 + 4 + 8 + 4;
+        for (Entry entry : entries) {
+            size += 4 + entry.tableName().getBytes(StandardCharsets.UTF_8).length + 1 + (entry.lastModified() == null ? 0 : 12) + 8 + 4;
+        }
+        return size;
+    }
+
+    /**
+     * @throws IOException if the manifest is damaged
+     */
+    static CacheManifest read(File cacheFolder) throws IOException, NotImplementedException {
+        ByteBuffer buffer = AbstractTable.readCacheFile(new File(cacheFolder, FILE_NAME));
+        if (buffer.remaining() < 4 || buffer.getInt(buffer.position()) != MAGIC) return readVersion0(buffer);
+
+        if (buffer.remaining() < 8) throw new IOException("Cache manifest is truncated");
+        ByteBuffer content = buffer.duplicate().limit(buffer.limit() - 4);
+        if (AtomicCacheFile.crc(content) != buffer.getInt(buffer.limit() - 4))
+            throw new IOException("Cache manifest checksum mismatch");
+
+        content.getInt();
+        int version = content.getInt();
+        if (version != VERSION) throw new IOException("Unsupported cache manifest version " + version);
+        long generation = content.getLong();
+        int count = content.getInt();
+        ArrayList<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[content.getInt()];
+            content.get(name);
+            LocalDateTime lastModified = null;
+            if (content.get() != 0) {
+                long seconds = content.getLong();
+                lastModified = LocalDateTime.ofEpochSecond(seconds, content.getInt(), ZoneOffset.UTC);
+            }
+            entries.add(new Entry(new String(name, StandardCharsets.UTF_8), lastModified, content.getLong(), content.getInt(), true));
+        }
+        return new CacheManifest(generation, entries);
+    }
+
+    // BitStore manifest written before checksums existed
+    private static CacheManifest readVersion0(ByteBuffer buffer) throws NotImplementedException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        StoreBase bitStore = new BitStore(bytes);
+        int count = bitStore.readInt();
+        ArrayList<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String tableName = bitStore.readString();
+            LocalDateTime lastModified = bitStore.readLocalDateTime();
+            entries.add(new Entry(tableName, lastModified, 0, 0, false));
+        }
+        return new CacheManifest(0, entries);
+    }
+}
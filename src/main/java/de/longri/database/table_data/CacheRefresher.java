@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.database.DatabaseConnection;
+import de.longri.database.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a cache up to date in the background. Polls the last_modified table on a schedule, without
+ * waiting for a running load of the cache, and refreshes the tables whose time moved forward in
+ * parallel, see {@link AbstractCache#refreshFromDB(DatabaseConnection, int)}. After a refresh the
+ * cache is written to disk by a second thread, the next poll doesn't wait for the disk.
+ * <p>
+ * A failed poll or refresh is logged and retried with the next poll, the lag of
+ * {@link #getMetrics()} shows how old the cached data is.
+ */
+public class CacheRefresher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheRefresher.class);
+
+    private final AbstractCache CACHE;
+    private final DatabaseConnection CONNECTION;
+    private final long INTERVAL;
+    private final long JITTER;
+    private final int REFRESH_THREADS;
+    private final boolean PERSIST;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService saver;
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder tables = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder saveFailures = new LongAdder();
+    private final LatencyHistogram refreshTime = new LatencyHistogram();
+    private final LatencyHistogram saveTime = new LatencyHistogram();
+    private volatile long lastSync;
+
+    public CacheRefresher(AbstractCache cache, DatabaseConnection connection) {
+        this(cache, connection, new CacheRefresherConfig());
+    }
+
+    public CacheRefresher(AbstractCache cache, DatabaseConnection connection, CacheRefresherConfig config) {
+        if (config.intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be greater than 0");
+        CACHE = cache;
+        CONNECTION = connection;
+        INTERVAL = config.intervalMillis;
+        JITTER = Math.max(0, config.jitterMillis);
+        REFRESH_THREADS = Math.max(1, config.refreshThreads);
+        PERSIST = config.persistToDisk;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CacheRefresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CacheRefresher-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // starts polling, the first poll runs after one interval
+    public void start() {
+        if (closed) throw new IllegalStateException("Cache refresher is closed");
+        if (started.compareAndSet(false, true)) scheduleNext();
+    }
+
+    private void scheduleNext() {
+        if (closed) return;
+        long delay = INTERVAL + (JITTER > 0 ? ThreadLocalRandom.current().nextLong(JITTER + 1) : 0);
+        scheduler.schedule(() -> {
+            try {
+                refreshNow();
+            } catch (Throwable e) {
+                // a failure is counted by refreshNow(), the schedule goes on
+            } finally {
+                scheduleNext();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls the last_modified table and refreshes the changed tables, in the calling thread.
+     *
+     * @return true if any table changed
+     */
+    public boolean refreshNow() throws SQLException, IOException, ClassNotFoundException {
+        long pollStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+        polls.increment();
+        try {
+            List<String> outdated = CACHE.getOutdatedTables(CONNECTION);
+            boolean changed = false;
+            if (!outdated.isEmpty()) {
+                log.debug("Refresh outdated tables {}", outdated);
+                changed = CACHE.refreshFromDB(CONNECTION, REFRESH_THREADS);
+                if (changed) {
+                    refreshes.increment();
+                    tables.add(outdated.size());
+                    refreshTime.record(System.nanoTime() - start);
+                    if (PERSIST) scheduleSave();
+                }
+            }
+            // the cache has at least the data the database had when the poll started
+            lastSync = pollStart;
+            return changed;
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("Refresh of the cache failed", e);
+            throw e;
+        }
+    }
+
+    // a refresh during a running save is written by the next save, refreshes before it start share it
+    private void scheduleSave() {
+        if (!savePending.compareAndSet(false, true)) return;
+        saver.execute(() -> {
+            savePending.set(false);
+            long start = System.nanoTime();
+            try {
+                CACHE.saveAllToDisk();
+                saves.increment();
+                saveTime.record(System.nanoTime() - start);
+            } catch (Exception e) {
+                saveFailures.increment();
+                log.warn("Can't write the cache to disk", e);
+            }
+        });
+    }
+
+    public CacheRefresherMetrics getMetrics() {
+        long now = System.currentTimeMillis();
+        long sync = lastSync;
+        return new CacheRefresherMetrics(now,
+                polls.sum(), refreshes.sum(), tables.sum(), failures.sum(),
+                saves.sum(), saveFailures.sum(),
+                sync, sync == 0 ? -1 : now - sync,
+                refreshTime.snapshot(), saveTime.snapshot());
+    }
+
+    /**
+     * Stops polling. A save that was started is finished in the background.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        saver.shutdown();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Waits for the pending save of the cache.
+     *
+     * @return false if the save didn't finish in time
+     */
+    public boolean awaitSave(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            // the saver runs one task at a time, an empty task finishes after the pending save
+            saver.submit(() -> {
+            }).get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        } catch (RejectedExecutionException e) {
+            // closed, the pending save still runs
+            return saver.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+/**
+ * Schedule of a {@link CacheRefresher}.
+ * <p>
+ * The values are copied by the refresher on construction, changing them afterwards
+ * has no effect on an existing refresher.
+ */
+public class CacheRefresherConfig {
+
+    // time between two polls of the last_modified table
+    public long intervalMillis = 30_000;
+
+    // a random delay up to this is added to every interval, refreshers of many instances don't poll at the same time
+    public long jitterMillis = 5_000;
+
+    // number of changed tables refreshed at the same time
+    public int refreshThreads = 4;
+
+    // a refresh that changed tables is written to disk in the background
+    public boolean persistToDisk = true;
+
+    public CacheRefresherConfig() {
+    }
+
+    public CacheRefresherConfig(long intervalMillis, long jitterMillis) {
+        this.intervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheRefresherConfig{intervalMillis=" + intervalMillis + ", jitterMillis=" + jitterMillis
+                + ", refreshThreads=" + refreshThreads + ", persistToDisk=" + persistToDisk + '}';
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.database.LatencyHistogram;
+
+/**
+ * Point in time view of the counters and timings of a {@link CacheRefresher}.
+ *
+ * @param timestamp       time of the snapshot in ms
+ * @param pollCount       polls of the last_modified table
+ * @param refreshCount    polls that found changed tables and refreshed them
+ * @param tableCount      refreshed tables, summed over all refreshes
+ * @param failureCount    polls or refreshes that failed
+ * @param saveCount       cache writes to disk
+ * @param saveFailedCount failed cache writes
+ * @param lastSync        time in ms of the last poll that left the cache up to date, 0 if there was none
+ * @param lagMillis       age of the cached data, the time since lastSync, -1 before the first sync
+ * @param refreshTime     time from the poll until the changed tables are published
+ * @param saveTime        time to write the cache to disk
+ */
+public record CacheRefresherMetrics(long timestamp,
+                                    long pollCount, long refreshCount, long tableCount, long failureCount,
+                                    long saveCount, long saveFailedCount,
+                                    long lastSync, long lagMillis,
+                                    LatencyHistogram.Snapshot refreshTime,
+                                    LatencyHistogram.Snapshot saveTime) {
+}
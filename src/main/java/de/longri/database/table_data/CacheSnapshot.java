@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The snapshots of all tables of a cache as one version. A load or refresh of the cache publishes
+ * the next version when all its tables are done, a reader that pins a version sees tables that
+ * belong together, e.g. rows of one table and the rows of another table they refer to. Cold lazy
+ * tables are empty in a cache snapshot.
+ */
+public final class CacheSnapshot {
+
+    // increases with every load or refresh of the cache
+    public final long VERSION;
+
+    private final LinkedHashMap<String, TableSnapshot<AbstractTableDataEntry>> TABLES = new LinkedHashMap<>();
+
+    CacheSnapshot(long version, List<AbstractTable<AbstractTableDataEntry>> tables) {
+        VERSION = version;
+        for (AbstractTable<AbstractTableDataEntry> table : tables) TABLES.put(table.getTableName(), table.currentSnapshot());
+    }
+
+    public TableSnapshot<AbstractTableDataEntry> get(String tableName) {
+        TableSnapshot<AbstractTableDataEntry> snapshot = TABLES.get(tableName);
+        if (snapshot == null) throw new IllegalArgumentException("Table " + tableName + " not found");
+        return snapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractTableDataEntry> TableSnapshot<T> get(AbstractTable<T> table) {
+        return (TableSnapshot<T>) (TableSnapshot<?>) get(table.getTableName());
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.time.LocalDateTime;
+
+/**
+ * A change of a table, reported by a {@link ChangeStream}.
+ *
+ * @param tableName name of the changed table
+ * @param key       primary key of the inserted, updated or deleted row, null if the whole table changed
+ * @param changed   time of the change
+ */
+public record ChangeEvent(String tableName, String key, LocalDateTime changed) {
+
+    public static ChangeEvent ofTable(String tableName, LocalDateTime changed) {
+        return new ChangeEvent(tableName, null, changed);
+    }
+
+    public boolean isTableChange() {
+        return key == null;
+    }
+}
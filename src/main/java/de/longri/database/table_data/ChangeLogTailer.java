@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.database.Abstract_Database;
+import de.longri.database.DatabaseConnection;
+import de.longri.database.MariaDB_Cluster_Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ChangeStream} that tails the change log table of a cache, see
+ * {@link AbstractCache#getChangeLogTable()}. One short query for the entries since the last read
+ * replaces the poll of every table, the log needs an index on the changed column.
+ * <p>
+ * Entries with the time of the last read are read again, the ones already delivered are skipped.
+ * The log has one row per change, a key with more rows in that second than delivered so far
+ * changed again within the second and is delivered again. Entries without a valid time are
+ * logged and skipped.
+ */
+public class ChangeLogTailer implements ChangeStream {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeLogTailer.class);
+    static final String UNIQUE_ID_TAIL = "UNIQUE_ID_TAIL_CHANGE_LOG";
+
+    private final DatabaseConnection CONNECTION;
+    private final String CHANGE_LOG;
+    private final long INTERVAL;
+
+    private final ScheduledExecutorService scheduler;
+    private LocalDateTime position;
+    // number of entries per table and key with the time of position that are delivered already
+    private final HashMap<String, Integer> delivered = new HashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param since          time of the first entries to read, usually the time the cache was loaded
+     * @param intervalMillis pause between two reads of the log
+     */
+    public ChangeLogTailer(DatabaseConnection connection, String changeLogTable, LocalDateTime since, long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be greater than 0");
+        if (since == null) throw new IllegalArgumentException("since cannot be null");
+        CONNECTION = connection;
+        CHANGE_LOG = changeLogTable;
+        INTERVAL = intervalMillis;
+        position = since;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ChangeLogTailer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Listener listener) {
+        if (closed) throw new IllegalStateException("Change log tailer is closed");
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                List<ChangeEvent> events = readChanges();
+                if (!events.isEmpty()) listener.onChanges(events);
+            } catch (Throwable e) {
+                log.error("Can't tail change log {}", CHANGE_LOG, e);
+            }
+        }, 0, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the entries of the log since the last read, in the calling thread.
+     */
+    public synchronized List<ChangeEvent> readChanges() throws SQLException, ClassNotFoundException {
+        LinkedHashSet<ChangeEvent> events = new LinkedHashSet<>();
+        if (!(CONNECTION instanceof MariaDB_Cluster_Connection)) CONNECTION.connect(UNIQUE_ID_TAIL);
+        try (PreparedStatement st = CONNECTION.prepareReadOnlyStatement("SELECT tableName, pk, changed FROM " + CHANGE_LOG + " WHERE changed >= ? ORDER BY changed")) {
+            st.setString(1, Abstract_Database.getDateString(position));
+            ResultSet rs = st.executeQuery();
+            // entries per table and key with the time of position in this read
+            HashMap<String, Integer> read = new HashMap<>();
+            while (rs.next()) {
+                String tableName = rs.getString(1);
+                String key = rs.getString(2);
+                LocalDateTime changed = parseTime(rs.getString(3));
+                if (changed == null || changed.isBefore(position)) {
+                    log.warn("Skip entry of {} with key {} and time {} in change log {}", tableName, key, rs.getString(3), CHANGE_LOG);
+                    continue;
+                }
+                if (changed.isAfter(position)) {
+                    position = changed;
+                    delivered.clear();
+                    read.clear();
+                }
+                String entry = tableName + '\u0000' + key;
+                int count = read.merge(entry, 1, Integer::sum);
+                if (count > delivered.getOrDefault(entry, 0)) {
+                    delivered.put(entry, count);
+                    events.add(new ChangeEvent(tableName, key, changed));
+                }
+            }
+        } finally {
+            if (!(CONNECTION instanceof MariaDB_Cluster_Connection)) CONNECTION.disconnect(UNIQUE_ID_TAIL);
+        }
+        return new ArrayList<>(events);
+    }
+
+    // null if the time is NULL or can't be parsed
+    private static LocalDateTime parseTime(String changed) {
+        try {
+            return Abstract_Database.getDateTime(changed);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.util.List;
+
+/**
+ * Source of the changes of the database as they happen, e.g. a tailed change log table
+ * ({@link ChangeLogTailer}) or the binlog of the server. A {@link CacheInvalidator} applies the
+ * changes to a cache.
+ */
+public interface ChangeStream extends AutoCloseable {
+
+    interface Listener {
+        /**
+         * Called with the next changes, in the order they happened and by one thread at a time.
+         */
+        void onChanges(List<ChangeEvent> events);
+    }
+
+    /**
+     * Starts to deliver changes to the listener. A stream is started once.
+     */
+    void start(Listener listener);
+
+    @Override
+    void close();
+}
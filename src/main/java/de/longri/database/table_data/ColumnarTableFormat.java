@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.serializable.NotImplementedException;
+import de.longri.serializable.StoreBase;
+import de.longri.utils.NamedObjectProperty;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Columnar disk format of an {@link AbstractTable}.
+ * <pre>
+ * int    MAGIC, int VERSION
+ * int    row count, int column count
+ * per column: string name, byte type
+ * per column: byte hasNulls [, null bitmap], values
+ *   bool     bitmap
+ *   int      int[rows]
+ *   double   long[rows] (raw bits)
+ *   datetime long[rows] epoch seconds (UTC), byte hasNanos [, int[rows] nanos]
+ *   string   byte encoding: PLAIN (int length + UTF-8 per row) or
+ *            DICTIONARY (int size, strings, then one index per row of 1, 2 or 4 bytes)
+ * </pre>
+ * The schema is written once instead of type and name per row, numbers and timestamps are
+ * binary instead of decimal strings. Null values are marked in a bitmap, the value slot is 0.
+ * <p>
+ * Files without the magic number are in the row format of {@link AbstractTableDataEntry#serialize(StoreBase)}.
+ */
+final class ColumnarTableFormat {
+
+    static final int MAGIC = 0x4C434F4C; // "LCOL"
+    static final int VERSION = 1;
+
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    private ColumnarTableFormat() {
+    }
+
+    static boolean isColumnar(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * @return false if the rows of the table don't share one schema, nothing is written then
+     */
+    static boolean write(List<? extends AbstractTableDataEntry> rows, DataOutputStream out) throws IOException {
+        int rowCount = rows.size();
+        String[] names = new String[0];
+        int[] types = new int[0];
+        if (rowCount > 0) {
+            AbstractTableDataEntry first = rows.get(0);
+            names = new String[first.columnCount()];
+            types = new int[names.length];
+            for (int c = 0; c < names.length; c++) {
+                names[c] = first.columnName(c);
+                types[c] = first.columnType(c);
+                if (types[c] < 0) return false;
+            }
+            if (!sameSchema(rows, names, types)) return false;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rowCount);
+        out.writeInt(names.length);
+        for (int c = 0; c < names.length; c++) {
+            writeString(names[c], out);
+            out.writeByte(types[c]);
+        }
+        for (int c = 0; c < names.length; c++) {
+            writeColumn(rows, c, types[c], out);
+        }
+        return true;
+    }
+
+    // every row needs the same columns in the same order, with values of the column type
+    private static boolean sameSchema(List<? extends AbstractTableDataEntry> rows, String[] names, int[] types) {
+        for (AbstractTableDataEntry row : rows) {
+            if (row.columnCount() != names.length) return false;
+            for (int c = 0; c < names.length; c++) {
+                if (row.columnType(c) != types[c] || !names[c].equals(row.columnName(c))) return false;
+                Object value = row.columnValue(c);
+                if (value == null) continue;
+                boolean valid = switch (types[c]) {
+                    case AbstractTableDataEntry.NamedBoolProperty -> value instanceof Boolean;
+                    case AbstractTableDataEntry.NamedIntegerProperty -> value instanceof Integer;
+                    case AbstractTableDataEntry.NamedStringProperty -> value instanceof String;
+                    case AbstractTableDataEntry.NamedDoubleProperty -> value instanceof Double;
+                    default -> value instanceof LocalDateTime;
+                };
+                if (!valid) return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeColumn(List<? extends AbstractTableDataEntry> rows, int column, int type, DataOutputStream out) throws IOException {
+        int rowCount = rows.size();
+        Object[] values = new Object[rowCount];
+        boolean hasNulls = false;
+        for (int r = 0; r < rowCount; r++) {
+            values[r] = rows.get(r).columnValue(column);
+            if (values[r] == null) hasNulls = true;
+        }
+
+        out.writeBoolean(hasNulls);
+        if (hasNulls) {
+            byte[] bitmap = new byte[(rowCount + 7) / 8];
+            for (int r = 0; r < rowCount; r++) {
+                if (values[r] == null) bitmap[r >> 3] |= (byte) (1 << (r & 7));
+            }
+            out.write(bitmap);
+        }
+
+        switch (type) {
+            case AbstractTableDataEntry.NamedBoolProperty -> {
+                byte[] bits = new byte[(rowCount + 7) / 8];
+                for (int r = 0; r < rowCount; r++) {
+                    if (Boolean.TRUE.equals(values[r])) bits[r >> 3] |= (byte) (1 << (r & 7));
+                }
+                out.write(bits);
+            }
+            case AbstractTableDataEntry.NamedIntegerProperty -> {
+                for (Object value : values) out.writeInt(value == null ? 0 : (Integer) value);
+            }
+            case AbstractTableDataEntry.NamedDoubleProperty -> {
+                for (Object value : values) out.writeLong(value == null ? 0 : Double.doubleToRawLongBits((Double) value));
+            }
+            case AbstractTableDataEntry.NamedLocalDateTimeProperty -> {
+                boolean hasNanos = false;
+                for (Object value : values) {
+                    LocalDateTime dateTime = (LocalDateTime) value;
+                    out.writeLong(dateTime == null ? 0 : dateTime.toEpochSecond(ZoneOffset.UTC));
+                    if (dateTime != null && dateTime.getNano() != 0) hasNanos = true;
+                }
+                out.writeBoolean(hasNanos);
+                if (hasNanos) {
+                    for (Object value : values) out.writeInt(value == null ? 0 : ((LocalDateTime) value).getNano());
+                }
+            }
+            default -> writeStrings(values, out);
+        }
+    }
+
+    // dictionary encoded if at most every second value is a new one
+    private static void writeStrings(Object[] values, DataOutputStream out) throws IOException {
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        ArrayList<String> words = new ArrayList<>();
+        int limit = values.length / 2;
+        for (Object value : values) {
+            if (value == null || dictionary.containsKey(value)) continue;
+            if (words.size() >= limit) {
+                words = null;
+                break;
+            }
+            dictionary.put((String) value, words.size());
+            words.add((String) value);
+        }
+
+        if (words == null) {
+            out.writeByte(PLAIN);
+            for (Object value : values) {
+                if (value == null) {
+                    out.writeInt(0);
+                } else {
+                    writeString((String) value, out);
+                }
+            }
+            return;
+        }
+
+        out.writeByte(DICTIONARY);
+        out.writeInt(words.size());
+        for (String word : words) writeString(word, out);
+        int width = indexWidth(words.size());
+        for (Object value : values) {
+            int index = value == null ? 0 : dictionary.get(value);
+            if (width == 1) {
+                out.writeByte(index);
+            } else if (width == 2) {
+                out.writeShort(index);
+            } else {
+                out.writeInt(index);
+            }
+        }
+    }
+
+    private static int indexWidth(int dictionarySize) {
+        if (dictionarySize <= 1 << 8) return 1;
+        if (dictionarySize <= 1 << 16) return 2;
+        return 4;
+    }
+
+    private static void writeString(String value, DataOutputStream out) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the rows of a columnar file and adds them to the table.
+     * <p>
+     * Rows are created by {@link AbstractTable#createRow()} without values, the typed column values
+     * are set afterwards.
+     */
+    static <T extends AbstractTableDataEntry> void read(AbstractTable<T> table, ByteBuffer buffer) throws IOException, NotImplementedException, SQLException {
+        if (buffer.getInt() != MAGIC) throw new IOException("No columnar table file");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported columnar table version " + version);
+        int rowCount = buffer.getInt();
+        int columnCount = buffer.getInt();
+        String[] names = new String[columnCount];
+        int[] types = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            names[c] = readString(buffer);
+            types[c] = buffer.get();
+        }
+
+        List<T> rows = table.createEmpty(rowCount);
+
+        // decoded column by column, only one column of values is held besides the rows
+        for (int c = 0; c < columnCount; c++) {
+            Object[] values = readColumn(buffer, types[c], rowCount);
+            if (rowCount > 0 && rows.get(0).isCompact()) {
+                RowLayout layout = rows.get(0).compactRow().LAYOUT;
+                int col = layout.ordinal(names[c]);
+                if (col < 0)
+                    throw new IOException("Property " + names[c] + " not found for table " + table.getTableName());
+                for (int r = 0; r < rowCount; r++) rows.get(r).compactRow().set(col, values[r]);
+                continue;
+            }
+            for (int r = 0; r < rowCount; r++) {
+                T entry = rows.get(r);
+                NamedObjectProperty prop = entry.createProperty(names[c]);
+                if (prop == null)
+                    throw new IOException("Property " + names[c] + " not found for table " + table.getTableName());
+                prop.set(values[r]);
+                entry.properties.add(prop);
+            }
+        }
+        table.addAll(rows);
+    }
+
+    private static Object[] readColumn(ByteBuffer buffer, int type, int rowCount) throws IOException {
+        byte[] nulls = null;
+        if (buffer.get() != 0) {
+            nulls = new byte[(rowCount + 7) / 8];
+            buffer.get(nulls);
+        }
+
+        Object[] values = new Object[rowCount];
+        switch (type) {
+            case AbstractTableDataEntry.NamedBoolProperty -> {
+                byte[] bits = new byte[(rowCount + 7) / 8];
+                buffer.get(bits);
+                for (int r = 0; r < rowCount; r++) values[r] = isSet(bits, r);
+            }
+            case AbstractTableDataEntry.NamedIntegerProperty -> {
+                for (int r = 0; r < rowCount; r++) values[r] = buffer.getInt();
+            }
+            case AbstractTableDataEntry.NamedDoubleProperty -> {
+                for (int r = 0; r < rowCount; r++) values[r] = Double.longBitsToDouble(buffer.getLong());
+            }
+            case AbstractTableDataEntry.NamedLocalDateTimeProperty -> {
+                long[] seconds = new long[rowCount];
+                for (int r = 0; r < rowCount; r++) seconds[r] = buffer.getLong();
+                boolean hasNanos = buffer.get() != 0;
+                for (int r = 0; r < rowCount; r++) {
+                    int nanos = hasNanos ? buffer.getInt() : 0;
+                    values[r] = LocalDateTime.ofEpochSecond(seconds[r], nanos, ZoneOffset.UTC);
+                }
+            }
+            case AbstractTableDataEntry.NamedStringProperty -> readStrings(buffer, values);
+            default -> throw new IOException("Unknown column type " + type);
+        }
+
+        if (nulls != null) {
+            for (int r = 0; r < rowCount; r++) {
+                if (isSet(nulls, r)) values[r] = null;
+            }
+        }
+        return values;
+    }
+
+    private static void readStrings(ByteBuffer buffer, Object[] values) throws IOException {
+        byte encoding = buffer.get();
+        if (encoding == PLAIN) {
+            for (int r = 0; r < values.length; r++) values[r] = readString(buffer);
+            return;
+        }
+        if (encoding != DICTIONARY) throw new IOException("Unknown string encoding " + encoding);
+
+        String[] words = new String[buffer.getInt()];
+        for (int i = 0; i < words.length; i++) words[i] = readString(buffer);
+        int width = indexWidth(words.length);
+        for (int r = 0; r < values.length; r++) {
+            int index;
+            if (width == 1) {
+                index = buffer.get() & 0xFF;
+            } else if (width == 2) {
+                index = buffer.getShort() & 0xFFFF;
+            } else {
+                index = buffer.getInt();
+            }
+            // index 0 of an empty dictionary is a null row
+            values[r] = words.length == 0 ? null : words[index];
+        }
+    }
+
+    private static boolean isSet(byte[] bitmap, int row) {
+        return (bitmap[row >> 3] & (1 << (row & 7))) != 0;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Values of one row without property objects. Bool, int and double values are stored unboxed in
+ * one long array, followed by a bitmap of the null values. Strings and dates are in an object array.
+ * A column that was never set is null.
+ */
+final class CompactRow {
+
+    final RowLayout LAYOUT;
+    private final long[] primitives;
+    private final Object[] objects;
+
+    CompactRow(RowLayout layout) {
+        LAYOUT = layout;
+        int nullWords = (layout.PRIMITIVE_COUNT + 63) >>> 6;
+        primitives = new long[layout.PRIMITIVE_COUNT + nullWords];
+        for (int i = layout.PRIMITIVE_COUNT; i < primitives.length; i++) primitives[i] = -1L;
+        objects = layout.OBJECT_COUNT == 0 ? null : new Object[layout.OBJECT_COUNT];
+    }
+
+    boolean isNull(int col) {
+        int slot = LAYOUT.SLOTS[col];
+        if (!RowLayout.isPrimitive(LAYOUT.TYPES[col])) return objects[slot] == null;
+        return (primitives[LAYOUT.PRIMITIVE_COUNT + (slot >>> 6)] & (1L << slot)) != 0;
+    }
+
+    private void setNull(int slot, boolean isNull) {
+        int word = LAYOUT.PRIMITIVE_COUNT + (slot >>> 6);
+        if (isNull) {
+            primitives[word] |= 1L << slot;
+        } else {
+            primitives[word] &= ~(1L << slot);
+        }
+    }
+
+    Object get(int col) {
+        if (isNull(col)) return null;
+        int slot = LAYOUT.SLOTS[col];
+        return switch (LAYOUT.TYPES[col]) {
+            case AbstractTableDataEntry.NamedBoolProperty -> primitives[slot] != 0;
+            case AbstractTableDataEntry.NamedIntegerProperty -> (int) primitives[slot];
+            case AbstractTableDataEntry.NamedDoubleProperty -> Double.longBitsToDouble(primitives[slot]);
+            default -> objects[slot];
+        };
+    }
+
+    void set(int col, Object value) {
+        int slot = LAYOUT.SLOTS[col];
+        int type = LAYOUT.TYPES[col];
+        if (!RowLayout.isPrimitive(type)) {
+            objects[slot] = value;
+            return;
+        }
+        setNull(slot, value == null);
+        if (value == null) {
+            primitives[slot] = 0;
+        } else if (type == AbstractTableDataEntry.NamedBoolProperty) {
+            primitives[slot] = (Boolean) value ? 1 : 0;
+        } else if (type == AbstractTableDataEntry.NamedIntegerProperty) {
+            primitives[slot] = ((Number) value).intValue();
+        } else {
+            primitives[slot] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+        }
+    }
+
+    void setBool(int col, boolean value) {
+        checkType(col, AbstractTableDataEntry.NamedBoolProperty);
+        primitives[LAYOUT.SLOTS[col]] = value ? 1 : 0;
+        setNull(LAYOUT.SLOTS[col], false);
+    }
+
+    void setInt(int col, int value) {
+        checkType(col, AbstractTableDataEntry.NamedIntegerProperty);
+        primitives[LAYOUT.SLOTS[col]] = value;
+        setNull(LAYOUT.SLOTS[col], false);
+    }
+
+    void setDouble(int col, double value) {
+        checkType(col, AbstractTableDataEntry.NamedDoubleProperty);
+        primitives[LAYOUT.SLOTS[col]] = Double.doubleToRawLongBits(value);
+        setNull(LAYOUT.SLOTS[col], false);
+    }
+
+    // null values read as false and 0, as in a JDBC ResultSet
+    boolean getBool(int col) {
+        checkType(col, AbstractTableDataEntry.NamedBoolProperty);
+        return primitives[LAYOUT.SLOTS[col]] != 0;
+    }
+
+    int getInt(int col) {
+        checkType(col, AbstractTableDataEntry.NamedIntegerProperty);
+        return (int) primitives[LAYOUT.SLOTS[col]];
+    }
+
+    double getDouble(int col) {
+        checkType(col, AbstractTableDataEntry.NamedDoubleProperty);
+        return Double.longBitsToDouble(primitives[LAYOUT.SLOTS[col]]);
+    }
+
+    String getString(int col) {
+        checkType(col, AbstractTableDataEntry.NamedStringProperty);
+        return (String) objects[LAYOUT.SLOTS[col]];
+    }
+
+    LocalDateTime getDateTime(int col) {
+        checkType(col, AbstractTableDataEntry.NamedLocalDateTimeProperty);
+        return (LocalDateTime) objects[LAYOUT.SLOTS[col]];
+    }
+
+    // approximate heap size in bytes, the values included
+    long estimateSize() {
+        long size = 16 + 16 + 8L * primitives.length;
+        if (objects != null) {
+            size += 16 + 4L * objects.length;
+            for (Object value : objects) size += AbstractTableDataEntry.estimateSize(value);
+        }
+        return size;
+    }
+
+    private void checkType(int col, int type) {
+        if (LAYOUT.TYPES[col] != type)
+            throw new IllegalArgumentException("Column " + LAYOUT.NAMES[col] + " has type " + LAYOUT.TYPES[col] + ", not " + type);
+    }
+}
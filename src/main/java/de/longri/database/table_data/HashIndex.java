@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// index for equality lookups, e.g. foreign keys and flags
+final class HashIndex<T extends AbstractTableDataEntry> extends SecondaryIndex<T> {
+
+    private final HashMap<Object, ArrayList<T>> BUCKETS;
+
+    HashIndex(String column) {
+        this(column, new HashMap<>());
+    }
+
+    private HashIndex(String column, HashMap<Object, ArrayList<T>> buckets) {
+        super(column);
+        BUCKETS = buckets;
+    }
+
+    @Override
+    Map<Object, ArrayList<T>> buckets() {
+        return BUCKETS;
+    }
+
+    @Override
+    HashIndex<T> copy() {
+        return shareBuckets(new HashIndex<>(COLUMN, new HashMap<>(BUCKETS)));
+    }
+}
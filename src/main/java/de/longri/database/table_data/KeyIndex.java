@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+
+/**
+ * Unique index of the rows of a table by the value of one column. Integer keys are stored in an
+ * {@link IntObjectMap} without boxing, the first key of another type moves the index to a HashMap.
+ * There integral numbers of every type are stored as Long, a BIGINT key is found by an Integer and
+ * by its string form. Rows with a null key are not indexed. Not thread safe, changed only before its snapshot is
+ * published.
+ */
+final class KeyIndex<T extends AbstractTableDataEntry> {
+
+    final String COLUMN;
+
+    private IntObjectMap<T> intKeys = new IntObjectMap<>();
+    private HashMap<Object, T> objectKeys;
+
+    KeyIndex(String column) {
+        COLUMN = column;
+    }
+
+    private Object keyOf(T row) {
+        return row.getValue(COLUMN);
+    }
+
+    /**
+     * @return the row that had the same key, null if there was none
+     */
+    T put(T row) {
+        Object key = keyOf(row);
+        if (key == null) return null;
+        if (objectKeys == null) {
+            if (key instanceof Integer intKey) return intKeys.put(intKey, row);
+            toObjectKeys();
+        }
+        return objectKeys.put(normalize(key), row);
+    }
+
+    // removes the row, another row with the same key stays in the index
+    void remove(T row) {
+        Object key = keyOf(row);
+        if (key == null || get(key) != row) return;
+        if (objectKeys == null) {
+            intKeys.remove((Integer) key);
+        } else {
+            objectKeys.remove(normalize(key));
+        }
+    }
+
+    T get(int key) {
+        return objectKeys == null ? intKeys.get(key) : objectKeys.get((long) key);
+    }
+
+    T get(Object key) {
+        if (key == null) return null;
+        if (objectKeys == null) {
+            if (key instanceof Integer intKey) return intKeys.get(intKey);
+            // an integral number of another type, the same way a scan compares them
+            if (normalize(key) instanceof Long longKey && longKey == longKey.intValue())
+                return intKeys.get(longKey.intValue());
+            return null;
+        }
+        return objectKeys.get(normalize(key));
+    }
+
+    // row with the key in its string form, as it is stored in a change log
+    T find(String key) {
+        if (objectKeys != null) {
+            T row = objectKeys.get(key);
+            if (row != null) return row;
+        }
+        try {
+            return get((Object) Long.parseLong(key));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An integral number of any type that fits into a long as Long, a fraction as Double if the
+     * double has exactly its value. Numbers of different types with the same value are equal then,
+     * the way a scan compares them.
+     */
+    static Object normalize(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        }
+        if (key instanceof Double || key instanceof Float) {
+            double value = ((Number) key).doubleValue();
+            // whole doubles below 2^63 are exact longs
+            if (value == Math.rint(value) && Math.abs(value) < 0x1p63) return (long) value;
+            return value;
+        }
+        if (key instanceof BigInteger big) return big.bitLength() < 64 ? big.longValue() : key;
+        if (key instanceof BigDecimal decimal) {
+            if (decimal.signum() == 0 || decimal.stripTrailingZeros().scale() <= 0) return normalize(decimal.toBigIntegerExact());
+            double value = decimal.doubleValue();
+            return new BigDecimal(value).compareTo(decimal) == 0 ? (Object) value : decimal.stripTrailingZeros();
+        }
+        return key;
+    }
+
+    int size() {
+        return objectKeys == null ? intKeys.size() : objectKeys.size();
+    }
+
+    void clear() {
+        intKeys = new IntObjectMap<>();
+        objectKeys = null;
+    }
+
+    // index with the same keys for the next snapshot of the table
+    KeyIndex<T> copy() {
+        KeyIndex<T> copy = new KeyIndex<>(COLUMN);
+        copy.intKeys = intKeys == null ? null : intKeys.copy();
+        copy.objectKeys = objectKeys == null ? null : new HashMap<>(objectKeys);
+        return copy;
+    }
+
+    void ensureCapacity(int expectedSize) {
+        if (objectKeys == null && intKeys.size() == 0) intKeys = new IntObjectMap<>(expectedSize);
+    }
+
+    private void toObjectKeys() {
+        // a column has keys of one type, the switch happens before the first key is indexed
+        if (intKeys.size() > 0) {
+            throw new IllegalStateException("Column " + COLUMN + " has keys of different types");
+        }
+        objectKeys = new HashMap<>();
+        intKeys = null;
+    }
+}
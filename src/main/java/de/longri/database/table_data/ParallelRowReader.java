@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.serializable.NotImplementedException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads a result set with two threads. A fetch thread calls next() and reads the cells, which is
+ * where a streaming driver waits for the network, and hands them over in chunks. The loading thread
+ * creates the rows from the chunks and adds them to the table.
+ * <p>
+ * At most {@link #QUEUE_CHUNKS} chunks wait for the loading thread, then the fetch thread stops
+ * reading. With a streaming fetch size the driver holds only the rows it fetched ahead.
+ */
+final class ParallelRowReader {
+
+    static int QUEUE_CHUNKS = 4;
+    static int CHUNK_ROWS = 1024;
+
+    private static final List<Object[]> END = new ArrayList<>();
+
+    private ParallelRowReader() {
+    }
+
+    static <T extends AbstractTableDataEntry> void read(AbstractTable<T> table, ResultSet rs, int chunkRows) throws SQLException {
+        ArrayBlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        RowMapper mapper;
+        try {
+            mapper = table.getRowMapper(rs, table.createEmpty(1).get(0));
+        } catch (NotImplementedException e) {
+            throw new RuntimeException(e);
+        }
+
+        Thread fetchThread = new Thread(() -> {
+            try {
+                ArrayList<Object[]> chunk = new ArrayList<>(chunkRows);
+                while (!cancelled.get() && rs.next()) {
+                    chunk.add(mapper.readValues());
+                    if (chunk.size() == chunkRows) {
+                        if (!put(queue, chunk, cancelled)) return;
+                        chunk = new ArrayList<>(chunkRows);
+                    }
+                }
+                if (!chunk.isEmpty()) put(queue, chunk, cancelled);
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                put(queue, END, cancelled);
+            }
+        }, table.getTableName() + "-fetch");
+        fetchThread.setDaemon(true);
+        fetchThread.start();
+
+        try {
+            List<Object[]> chunk;
+            while ((chunk = queue.take()) != END) {
+                List<T> rows = table.createEmpty(chunk.size());
+                for (int i = 0; i < chunk.size(); i++) {
+                    mapper.fill(rows.get(i), chunk.get(i));
+                }
+                table.addAll(rows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading table " + table.getTableName(), e);
+        } catch (NotImplementedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // the result set is closed by the caller, the fetch thread must be done with it
+            cancelled.set(true);
+            queue.clear();
+            joinUninterruptibly(fetchThread);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof SQLException sqlException) throw sqlException;
+        if (error instanceof RuntimeException runtimeException) throw runtimeException;
+        if (error != null) throw new RuntimeException(error);
+    }
+
+    // false if the loading thread gave up
+    private static boolean put(ArrayBlockingQueue<List<Object[]>> queue, List<Object[]> chunk, AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.utils.NamedObjectProperty;
+
+import java.util.HashMap;
+
+/**
+ * Column layout of the compact rows of a table: the column ordinals in the order of
+ * {@link AbstractTable#getColumnNames()}, the type of every column and its slot. Bool, int and
+ * double columns have a slot in the primitive array of a row, string and date columns in the
+ * object array.
+ */
+final class RowLayout {
+
+    final String[] NAMES;
+    final int[] TYPES;
+    final int[] SLOTS;
+    final int PRIMITIVE_COUNT;
+    final int OBJECT_COUNT;
+
+    private final HashMap<String, Integer> ORDINALS = new HashMap<>();
+
+    /**
+     * @param probe row of the table, its createProperty() gives the type of every column
+     */
+    RowLayout(String[] names, AbstractTableDataEntry probe) {
+        NAMES = names.clone();
+        TYPES = new int[NAMES.length];
+        SLOTS = new int[NAMES.length];
+        int primitives = 0;
+        int objects = 0;
+        for (int col = 0; col < NAMES.length; col++) {
+            NamedObjectProperty prop = probe.createProperty(NAMES[col]);
+            TYPES[col] = typeOf(prop);
+            if (TYPES[col] < 0)
+                throw new IllegalStateException("Column " + NAMES[col] + " of table " + probe.TABLE.getTableName() + " can't be stored compact");
+            SLOTS[col] = isPrimitive(TYPES[col]) ? primitives++ : objects++;
+            ORDINALS.put(NAMES[col], col);
+        }
+        PRIMITIVE_COUNT = primitives;
+        OBJECT_COUNT = objects;
+    }
+
+    // -1 if there is no such column
+    int ordinal(String name) {
+        Integer ordinal = ORDINALS.get(name);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    static boolean isPrimitive(int type) {
+        return type == AbstractTableDataEntry.NamedBoolProperty
+                || type == AbstractTableDataEntry.NamedIntegerProperty
+                || type == AbstractTableDataEntry.NamedDoubleProperty;
+    }
+
+    // type constant of AbstractTableDataEntry, -1 for an unknown property class
+    static int typeOf(NamedObjectProperty prop) {
+        if (prop instanceof NamedObjectProperty.NamedBoolProperty) return AbstractTableDataEntry.NamedBoolProperty;
+        if (prop instanceof NamedObjectProperty.NamedIntegerProperty) return AbstractTableDataEntry.NamedIntegerProperty;
+        if (prop instanceof NamedObjectProperty.NamedStringProperty) return AbstractTableDataEntry.NamedStringProperty;
+        if (prop instanceof NamedObjectProperty.NamedDoubleProperty) return AbstractTableDataEntry.NamedDoubleProperty;
+        if (prop instanceof NamedObjectProperty.NamedLocalDateTimeProperty) return AbstractTableDataEntry.NamedLocalDateTimeProperty;
+        return -1;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import de.longri.database.Abstract_Database;
+import de.longri.utils.NamedObjectProperty;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the rows of one result set into table entries. The result set index and the property
+ * type of every column are resolved once from the {@link ResultSetMetaData}, the cells are read
+ * by index instead of by name.
+ */
+final class RowMapper {
+
+    final ResultSet RESULT_SET;
+    private final String[] NAMES;
+    private final int[] TYPES;
+    private final int[] INDEXES;
+
+    // columns whose driver can't return a LocalDateTime, the dates are parsed from strings
+    private final boolean[] dateAsString;
+
+    /**
+     * @param probe row of the table, its createProperty() gives the type of every column
+     */
+    RowMapper(ResultSet resultSet, String[] names, AbstractTableDataEntry probe) throws SQLException {
+        RESULT_SET = resultSet;
+        NAMES = names;
+        TYPES = new int[names.length];
+        INDEXES = new int[names.length];
+        dateAsString = new boolean[names.length];
+
+        // column labels are case insensitive, the first column of a label wins like in findColumn()
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = metaData.getColumnCount(); i >= 1; i--) {
+            labels.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+
+        for (int col = 0; col < names.length; col++) {
+            Integer index = labels.get(names[col].toLowerCase(Locale.ROOT));
+            if (index == null)
+                throw new SQLException("Column " + names[col] + " of table " + probe.TABLE.getTableName() + " not in result set");
+            INDEXES[col] = index;
+            NamedObjectProperty prop = probe.createProperty(names[col]);
+            if (prop == null) {
+                throw new RuntimeException("Cant't create property for column: " + names[col]);
+            }
+            TYPES[col] = RowLayout.typeOf(prop);
+        }
+    }
+
+    // reads the current row into property objects, one per column
+    void read(AbstractTableDataEntry entry, List<NamedObjectProperty> properties) throws SQLException {
+        for (int col = 0; col < NAMES.length; col++) {
+            NamedObjectProperty prop = entry.createProperty(NAMES[col]);
+            int index = INDEXES[col];
+            switch (TYPES[col]) {
+                case AbstractTableDataEntry.NamedBoolProperty -> prop.set(RESULT_SET.getBoolean(index));
+                case AbstractTableDataEntry.NamedIntegerProperty -> prop.set(RESULT_SET.getInt(index));
+                case AbstractTableDataEntry.NamedStringProperty -> prop.set(RESULT_SET.getString(index));
+                case AbstractTableDataEntry.NamedDoubleProperty -> prop.set(RESULT_SET.getDouble(index));
+                case AbstractTableDataEntry.NamedLocalDateTimeProperty -> prop.set(getDateTime(col));
+                default -> {
+                    // a property of an unknown type stays unset
+                }
+            }
+            properties.add(prop);
+        }
+    }
+
+    // reads the current row into a compact row, primitive columns without boxing
+    void read(CompactRow row) throws SQLException {
+        for (int col = 0; col < NAMES.length; col++) {
+            int index = INDEXES[col];
+            switch (TYPES[col]) {
+                case AbstractTableDataEntry.NamedBoolProperty -> row.setBool(col, RESULT_SET.getBoolean(index));
+                case AbstractTableDataEntry.NamedIntegerProperty -> row.setInt(col, RESULT_SET.getInt(index));
+                case AbstractTableDataEntry.NamedDoubleProperty -> row.setDouble(col, RESULT_SET.getDouble(index));
+                case AbstractTableDataEntry.NamedStringProperty -> row.set(col, RESULT_SET.getString(index));
+                default -> row.set(col, getDateTime(col));
+            }
+        }
+    }
+
+    // values of the current row in column order, for rows that are created on another thread
+    Object[] readValues() throws SQLException {
+        Object[] values = new Object[NAMES.length];
+        for (int col = 0; col < NAMES.length; col++) {
+            int index = INDEXES[col];
+            values[col] = switch (TYPES[col]) {
+                case AbstractTableDataEntry.NamedBoolProperty -> RESULT_SET.getBoolean(index);
+                case AbstractTableDataEntry.NamedIntegerProperty -> RESULT_SET.getInt(index);
+                case AbstractTableDataEntry.NamedStringProperty -> RESULT_SET.getString(index);
+                case AbstractTableDataEntry.NamedDoubleProperty -> RESULT_SET.getDouble(index);
+                case AbstractTableDataEntry.NamedLocalDateTimeProperty -> getDateTime(col);
+                default -> null;
+            };
+        }
+        return values;
+    }
+
+    // fills a row of AbstractTable.createRow() with the values of readValues()
+    void fill(AbstractTableDataEntry entry, Object[] values) {
+        CompactRow row = entry.compactRow();
+        for (int col = 0; col < NAMES.length; col++) {
+            if (row != null) {
+                row.set(col, values[col]);
+                continue;
+            }
+            NamedObjectProperty prop = entry.createProperty(NAMES[col]);
+            if (TYPES[col] >= 0) prop.set(values[col]);
+            entry.properties.add(prop);
+        }
+    }
+
+    private LocalDateTime getDateTime(int col) throws SQLException {
+        if (!dateAsString[col]) {
+            try {
+                return RESULT_SET.getObject(INDEXES[col], LocalDateTime.class);
+            } catch (SQLException | ClassCastException e) {
+                // e.g. dates stored as text in SQLite
+                dateAsString[col] = true;
+            }
+        }
+        return Abstract_Database.getDateTime(RESULT_SET.getString(INDEXES[col]));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Non unique index of the rows of a table by the value of one column, rows with a null value are
+ * not indexed. Not thread safe, changed only before its snapshot is published.
+ * <p>
+ * A copy shares the buckets with the index it was copied from, which belongs to a published
+ * snapshot and is not changed anymore. A bucket is copied when the copy changes it first.
+ */
+abstract class SecondaryIndex<T extends AbstractTableDataEntry> {
+
+    final String COLUMN;
+
+    // buckets this index created or copied, null if it has no shared buckets
+    private Set<ArrayList<T>> owned;
+
+    SecondaryIndex(String column) {
+        COLUMN = column;
+    }
+
+    abstract Map<Object, ArrayList<T>> buckets();
+
+    // index with the same rows for the next snapshot of the table
+    abstract SecondaryIndex<T> copy();
+
+    // the copy holds the buckets of this index until it changes them
+    <I extends SecondaryIndex<T>> I shareBuckets(I copy) {
+        SecondaryIndex<T> index = copy;
+        index.owned = Collections.newSetFromMap(new IdentityHashMap<>());
+        return copy;
+    }
+
+    // the bucket of the key that this index may change
+    private ArrayList<T> own(Object key, ArrayList<T> bucket) {
+        if (owned == null || owned.contains(bucket)) return bucket;
+        ArrayList<T> copy = new ArrayList<>(bucket.size() + 1);
+        copy.addAll(bucket);
+        buckets().put(key, copy);
+        owned.add(copy);
+        return copy;
+    }
+
+    Object keyOf(T row) {
+        return normalize(row.getValue(COLUMN));
+    }
+
+    // numbers of different types with the same value are one key, the same way a scan compares them
+    static Object normalize(Object key) {
+        return KeyIndex.normalize(key);
+    }
+
+    /**
+     * Compares values of a column, numbers of different types by their exact value. Used by the
+     * sorted index and by scans, so both find the same rows.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object value, Object other) {
+        if (value instanceof Number number && other instanceof Number otherNumber && value.getClass() != other.getClass()) {
+            return compareNumbers(number, otherNumber);
+        }
+        return ((Comparable) value).compareTo(other);
+    }
+
+    private static int compareNumbers(Number number, Number other) {
+        Object value = normalize(number);
+        Object otherValue = normalize(other);
+        if (value instanceof Long l && otherValue instanceof Long o) return Long.compare(l, o);
+        if (value instanceof Double d && otherValue instanceof Double o) return Double.compare(d, o);
+        // NaN and infinity have no exact decimal value
+        if (!isFinite(value) || !isFinite(otherValue)) return Double.compare(number.doubleValue(), other.doubleValue());
+        return toBigDecimal(value).compareTo(toBigDecimal(otherValue));
+    }
+
+    private static boolean isFinite(Object value) {
+        return !(value instanceof Double d) || Double.isFinite(d);
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal decimal) return decimal;
+        if (value instanceof BigInteger big) return new BigDecimal(big);
+        if (value instanceof Long l) return BigDecimal.valueOf(l);
+        return new BigDecimal(((Number) value).doubleValue());
+    }
+
+    void add(T row) {
+        Object key = keyOf(row);
+        if (key == null) return;
+        ArrayList<T> bucket = buckets().get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            buckets().put(key, bucket);
+            if (owned != null) owned.add(bucket);
+        } else {
+            bucket = own(key, bucket);
+        }
+        bucket.add(row);
+    }
+
+    void remove(T row) {
+        Object key = keyOf(row);
+        if (key == null) return;
+        ArrayList<T> bucket = buckets().get(key);
+        if (bucket == null) return;
+        // rows are equal by value, only this row is removed
+        for (int i = 0; i < bucket.size(); i++) {
+            if (bucket.get(i) == row) {
+                if (bucket.size() == 1) {
+                    buckets().remove(key);
+                } else {
+                    own(key, bucket).remove(i);
+                }
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        buckets().clear();
+        owned = null;
+    }
+
+    List<T> get(Object key) {
+        ArrayList<T> bucket = buckets().get(normalize(key));
+        return bucket == null ? List.of() : List.copyOf(bucket);
+    }
+
+    static <T> List<T> flatten(Collection<ArrayList<T>> buckets) {
+        ArrayList<T> rows = new ArrayList<>();
+        for (ArrayList<T> bucket : buckets) rows.addAll(bucket);
+        return rows;
+    }
+}
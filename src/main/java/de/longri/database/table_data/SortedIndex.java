@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// index for equality and range lookups, the values of the column must be comparable with each other
+final class SortedIndex<T extends AbstractTableDataEntry> extends SecondaryIndex<T> {
+
+    // keys are normalized, a Long and a Double key are compared by value
+    private final TreeMap<Object, ArrayList<T>> BUCKETS;
+
+    SortedIndex(String column) {
+        this(column, new TreeMap<>(SecondaryIndex::compare));
+    }
+
+    private SortedIndex(String column, TreeMap<Object, ArrayList<T>> buckets) {
+        super(column);
+        BUCKETS = buckets;
+    }
+
+    @Override
+    Map<Object, ArrayList<T>> buckets() {
+        return BUCKETS;
+    }
+
+    @Override
+    SortedIndex<T> copy() {
+        // built from the sorted entries in linear time, with the same comparator
+        return shareBuckets(new SortedIndex<>(COLUMN, new TreeMap<>(BUCKETS)));
+    }
+
+    /**
+     * @param from lower bound, null for none
+     * @param to   upper bound, null for none
+     * @return the rows in the range ordered by the column
+     */
+    List<T> range(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        NavigableMap<Object, ArrayList<T>> range = BUCKETS;
+        if (from != null) range = range.tailMap(normalize(from), fromInclusive);
+        if (to != null) range = range.headMap(normalize(to), toInclusive);
+        return flatten(range.values());
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database.table_data;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * One version of the rows of a table together with their indexes. A published snapshot is never
+ * changed, a change of the table builds the next version on a copy and publishes it with one
+ * reference swap, see {@link AbstractTable#snapshot()}. A reader that holds a snapshot sees the
+ * same rows for as long as it keeps it, whatever reloads run meanwhile.
+ * <p>
+ * A copy costs time and memory in the size of the table: the row list and the key indexes are
+ * copied, the secondary indexes copy their maps but share the row lists of their keys until a
+ * change touches them. Changes are best applied in batches, e.g. one
+ * {@link AbstractTable#applyDelta(Collection, Collection)} per table for many changed rows.
+ */
+public final class TableSnapshot<T extends AbstractTableDataEntry> implements Iterable<T> {
+
+    private final static Logger log = LoggerFactory.getLogger(TableSnapshot.class);
+
+    // increases with every snapshot the table publishes
+    public final long VERSION;
+
+    private final AbstractTable<T> TABLE;
+    private final ArrayList<T> ROWS;
+    private final List<T> VIEW;
+    private final List<KeyIndex<T>> KEY_INDEXES;
+    private final List<SecondaryIndex<T>> SECONDARY_INDEXES;
+
+    // empty snapshot with the indexes of the table
+    TableSnapshot(AbstractTable<T> table, long version) {
+        VERSION = version;
+        TABLE = table;
+        ROWS = new ArrayList<>();
+        VIEW = Collections.unmodifiableList(ROWS);
+
+        ArrayList<KeyIndex<T>> keyIndexes = new ArrayList<>();
+        if (table.getPrimaryKeyColumn() != null) keyIndexes.add(new KeyIndex<>(table.getPrimaryKeyColumn()));
+        for (String column : table.getUniqueKeyColumns()) keyIndexes.add(new KeyIndex<>(column));
+        KEY_INDEXES = keyIndexes;
+
+        ArrayList<SecondaryIndex<T>> secondaryIndexes = new ArrayList<>();
+        for (String column : table.getSortedIndexColumns()) secondaryIndexes.add(new SortedIndex<>(column));
+        for (String column : table.getHashIndexColumns()) secondaryIndexes.add(new HashIndex<>(column));
+        SECONDARY_INDEXES = secondaryIndexes;
+    }
+
+    private TableSnapshot(TableSnapshot<T> previous) {
+        VERSION = previous.VERSION + 1;
+        TABLE = previous.TABLE;
+        ROWS = new ArrayList<>(previous.ROWS);
+        VIEW = Collections.unmodifiableList(ROWS);
+
+        ArrayList<KeyIndex<T>> keyIndexes = new ArrayList<>();
+        for (KeyIndex<T> index : previous.KEY_INDEXES) keyIndexes.add(index.copy());
+        KEY_INDEXES = keyIndexes;
+
+        ArrayList<SecondaryIndex<T>> secondaryIndexes = new ArrayList<>();
+        for (SecondaryIndex<T> index : previous.SECONDARY_INDEXES) secondaryIndexes.add(index.copy());
+        SECONDARY_INDEXES = secondaryIndexes;
+    }
+
+    // the next version with the same rows, changed before it is published
+    TableSnapshot<T> copy() {
+        return new TableSnapshot<>(this);
+    }
+
+    // the next version without rows
+    TableSnapshot<T> next() {
+        return new TableSnapshot<>(TABLE, VERSION + 1);
+    }
+
+    public AbstractTable<T> getTable() {
+        return TABLE;
+    }
+
+    int indexCount() {
+        return KEY_INDEXES.size() + SECONDARY_INDEXES.size();
+    }
+
+    /**
+     * @return the rows in the order of the table, not modifiable
+     */
+    public List<T> getRows() {
+        return VIEW;
+    }
+
+    public int size() {
+        return ROWS.size();
+    }
+
+    public boolean isEmpty() {
+        return ROWS.isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<T> iterator() {
+        return VIEW.iterator();
+    }
+
+    /**
+     * @return the row with the primary key, null if there is none
+     */
+    public T get(int id) {
+        return getPrimaryKeyIndex().get(id);
+    }
+
+    /**
+     * @return the row with the primary key, null if there is none
+     */
+    public T get(Object key) {
+        return getPrimaryKeyIndex().get(key);
+    }
+
+    /**
+     * @return the row with the key in a unique key column or the primary key column
+     * @see AbstractTable#getUniqueKeyColumns()
+     */
+    public T getByUniqueKey(String column, Object key) {
+        for (KeyIndex<T> index : KEY_INDEXES) {
+            if (index.COLUMN.equals(column)) return index.get(key);
+        }
+        throw new IllegalArgumentException("Column " + column + " of table " + TABLE.tableName + " is not a unique key");
+    }
+
+    /**
+     * @see AbstractTable#where(String, AbstractTable.Op, Object)
+     */
+    public List<T> where(String column, AbstractTable.Op op, Object value) {
+        if (value == null) return List.of();
+        switch (op) {
+            case EQ:
+                for (KeyIndex<T> index : KEY_INDEXES) {
+                    if (index.COLUMN.equals(column)) {
+                        T row = index.get(value);
+                        return row == null ? List.of() : List.of(row);
+                    }
+                }
+                SecondaryIndex<T> index = getSecondaryIndex(column, false);
+                if (index != null) return index.get(value);
+                break;
+            case LT:
+            case LE:
+                if (getSecondaryIndex(column, true) != null) return range(column, null, false, value, op == AbstractTable.Op.LE);
+                break;
+            case GT:
+            case GE:
+                if (getSecondaryIndex(column, true) != null) return range(column, value, op == AbstractTable.Op.GE, null, false);
+                break;
+        }
+        return scan(column, v -> matches(compare(v, value), op));
+    }
+
+    /**
+     * @see AbstractTable#range(String, Object, boolean, Object, boolean)
+     */
+    public List<T> range(String column, Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        if (getSecondaryIndex(column, true) instanceof SortedIndex<T> index) {
+            return index.range(from, fromInclusive, to, toInclusive);
+        }
+        return scan(column, v -> (from == null || matches(compare(v, from), fromInclusive ? AbstractTable.Op.GE : AbstractTable.Op.GT))
+                && (to == null || matches(compare(v, to), toInclusive ? AbstractTable.Op.LE : AbstractTable.Op.LT)));
+    }
+
+    /**
+     * @return the largest value of the column, null if there are no rows or the column has no
+     * comparable values
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Object getMaxValue(String column) {
+        Comparable max = null;
+        for (T row : ROWS) {
+            if (row.getValue(column) instanceof Comparable value && (max == null || value.compareTo(max) > 0)) {
+                max = value;
+            }
+        }
+        return max;
+    }
+
+    private List<T> scan(String column, Predicate<Object> predicate) {
+        Predicate<T> filter = row -> {
+            Object v = row.getValue(column);
+            return v != null && predicate.test(v);
+        };
+        if (ROWS.size() >= AbstractTable.PARALLEL_SCAN_THRESHOLD) {
+            return ROWS.parallelStream().filter(filter).toList();
+        }
+        ArrayList<T> rows = new ArrayList<>();
+        for (T row : ROWS) {
+            if (filter.test(row)) rows.add(row);
+        }
+        return rows;
+    }
+
+    private static boolean matches(int comparison, AbstractTable.Op op) {
+        return switch (op) {
+            case EQ -> comparison == 0;
+            case NE -> comparison != 0;
+            case LT -> comparison < 0;
+            case LE -> comparison <= 0;
+            case GT -> comparison > 0;
+            case GE -> comparison >= 0;
+        };
+    }
+
+    // an Integer column compared with a Double value and the other way round, like the indexes compare
+    private static int compare(Object value, Object other) {
+        return SecondaryIndex.compare(value, other);
+    }
+
+    // prefers a hash index for equality, a sorted index serves both
+    private SecondaryIndex<T> getSecondaryIndex(String column, boolean sorted) {
+        SecondaryIndex<T> found = null;
+        for (SecondaryIndex<T> index : SECONDARY_INDEXES) {
+            if (!index.COLUMN.equals(column)) continue;
+            if (index instanceof SortedIndex) {
+                found = index;
+            } else if (!sorted) {
+                return index;
+            }
+        }
+        return found;
+    }
+
+    KeyIndex<T> getPrimaryKeyIndex() {
+        if (TABLE.getPrimaryKeyColumn() == null)
+            throw new IllegalStateException("Table " + TABLE.tableName + " has no primary key column");
+        return KEY_INDEXES.get(0);
+    }
+
+    // changes of a snapshot that is not published yet
+
+    void add(T row) {
+        ROWS.add(row);
+        indexRow(row);
+    }
+
+    void addAll(Collection<? extends T> rows) {
+        for (KeyIndex<T> index : KEY_INDEXES) index.ensureCapacity(ROWS.size() + rows.size());
+        ROWS.addAll(rows);
+        for (T row : rows) indexRow(row);
+    }
+
+    void clear() {
+        ROWS.clear();
+        for (KeyIndex<T> index : KEY_INDEXES) index.clear();
+        for (SecondaryIndex<T> index : SECONDARY_INDEXES) index.clear();
+    }
+
+    void rebuildIndexes() {
+        for (KeyIndex<T> index : KEY_INDEXES) {
+            index.clear();
+            index.ensureCapacity(ROWS.size());
+        }
+        for (SecondaryIndex<T> index : SECONDARY_INDEXES) index.clear();
+        for (T row : ROWS) indexRow(row);
+    }
+
+    // see AbstractTable.applyDelta()
+    void applyDelta(Collection<? extends T> changedRows, Collection<String> deletedKeys) {
+        KeyIndex<T> primaryKey = getPrimaryKeyIndex();
+
+        // the last change of a key wins
+        LinkedHashMap<Object, T> changed = new LinkedHashMap<>();
+        for (T row : changedRows) changed.put(row.getValue(primaryKey.COLUMN), row);
+
+        IdentityHashMap<T, T> replaced = new IdentityHashMap<>();
+        for (T row : changed.values()) {
+            T cached = primaryKey.get(row.getValue(primaryKey.COLUMN));
+            if (cached != null) {
+                replaced.put(cached, row);
+                unindexRow(cached);
+            } else {
+                ROWS.add(row);
+            }
+            indexRow(row);
+        }
+        if (!replaced.isEmpty()) ROWS.replaceAll(row -> replaced.getOrDefault(row, row));
+
+        Set<T> deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String key : deletedKeys) {
+            T row = primaryKey.find(key);
+            if (row != null) deleted.add(row);
+        }
+        if (!deleted.isEmpty()) {
+            ROWS.removeIf(deleted::contains);
+            for (T row : deleted) unindexRow(row);
+        }
+    }
+
+    private void indexRow(T row) {
+        for (KeyIndex<T> index : KEY_INDEXES) {
+            T previous = index.put(row);
+            if (previous != null && previous != row) {
+                log.warn("Duplicate key {} in column {} of table {}", row.getValue(index.COLUMN), index.COLUMN, TABLE.tableName);
+            }
+        }
+        for (SecondaryIndex<T> index : SECONDARY_INDEXES) index.add(row);
+    }
+
+    private void unindexRow(T row) {
+        for (KeyIndex<T> index : KEY_INDEXES) index.remove(row);
+        for (SecondaryIndex<T> index : SECONDARY_INDEXES) index.remove(row);
+    }
+}
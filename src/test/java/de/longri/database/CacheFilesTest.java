@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheFilesTest {
+
+    static final LocalDateTime LAST_MODIFIED = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    static class TwoTableCache extends AbstractCache {
+        final ColumnarTableFormatTest.TypesTable first = new ColumnarTableFormatTest.TypesTable();
+        final ColumnarTableFormatTest.TypesTable second = new ColumnarTableFormatTest.TypesTable() {
+            @Override
+            public String getTableName() {
+                return "SecondTable";
+            }
+        };
+
+        TwoTableCache(String cacheFolder) {
+            super(cacheFolder);
+        }
+
+        void init() {
+            chkTables();
+        }
+
+        @Override
+        protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+            return new AbstractTable[]{first, second};
+        }
+
+        @Override
+        protected LocalDateTime getLastModifiedOnDb(String tableName) {
+            return LAST_MODIFIED;
+        }
+    }
+
+    // connection to a database with empty tables
+    static class EmptyDatabaseConnection extends DatabaseConnection {
+        @Override
+        public String getDatabaseName() {
+            return "empty";
+        }
+
+        @Override
+        public SQL_TYPE getType() {
+            return SQL_TYPE.none;
+        }
+
+        @Override
+        public String getAutoIncrementString() {
+            return "";
+        }
+
+        @Override
+        public void importDumbString(String dump) {
+        }
+
+        @Override
+        public DatabaseUser getDatabaseUser() {
+            return null;
+        }
+
+        @Override
+        public void setDatabaseUser(DatabaseUser user) {
+        }
+
+        @Override
+        public boolean databaseExist() {
+            return true;
+        }
+
+        @Override
+        public void createDatabase() {
+        }
+
+        @Override
+        protected Connection getConnection() {
+            return proxy(Connection.class);
+        }
+
+        @Override
+        public boolean tableExist(String uniqueID, String tblName) {
+            return true;
+        }
+
+        static <T> T proxy(Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (p, method, args) -> switch (method.getName()) {
+                case "createStatement" -> proxy(Statement.class);
+                case "executeQuery" -> proxy(ResultSet.class);
+                case "getConnection" -> proxy(Connection.class);
+                case "getMetaData" -> proxy(DatabaseMetaData.class);
+                case "getURL" -> "jdbc:empty://localhost/empty";
+                case "hashCode" -> System.identityHashCode(p);
+                case "equals" -> p == args[0];
+                default -> method.getReturnType() == boolean.class ? false : null;
+            }));
+        }
+    }
+
+    @Test
+    void tornTableFileTest(@TempDir File folder) throws Exception {
+        TwoTableCache cache = new TwoTableCache(folder.getPath());
+        cache.init();
+        ColumnarTableFormatTest.writeRowFormat(folder, 50);
+        cache.first.loadFromDisk(folder);
+        cache.second.addAll(cache.first.tableData);
+        cache.first.setDbLastModify(LAST_MODIFIED);
+        cache.second.setDbLastModify(LAST_MODIFIED);
+
+        cache.saveAllToDisk();
+        assertEquals(1, cache.getCacheGeneration());
+        assertFalse(new File(folder, "SecondTable_cache.bin.tmp").exists());
+
+        // flip one byte in the middle of the second table file
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder, "SecondTable_cache.bin"), "rw")) {
+            file.seek(file.length() / 2);
+            int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xFF);
+        }
+
+        TwoTableCache reloaded = new TwoTableCache(folder.getPath());
+        reloaded.loadCache(new EmptyDatabaseConnection());
+
+        // only the damaged table comes from the database, the other one from disk
+        assertEquals(AbstractTable.Source.Disk, reloaded.first.SOURCE);
+        assertEquals(50, reloaded.first.size());
+        assertEquals(AbstractTable.Source.DB, reloaded.second.SOURCE);
+        assertEquals(0, reloaded.second.size());
+        assertEquals(2, reloaded.getCacheGeneration());
+    }
+}
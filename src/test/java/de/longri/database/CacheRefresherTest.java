@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.database.table_data.CacheRefresher;
+import de.longri.database.table_data.CacheRefresherConfig;
+import de.longri.database.table_data.CacheRefresherMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheRefresherTest {
+
+    // a table the last_modified table of the fake database doesn't know, it is refreshed every time
+    static class OtherTable extends IncrementalRefreshTest.KeyedTable {
+        OtherTable() {
+            super(null);
+        }
+
+        @Override
+        public String getTableName() {
+            return "OtherTable";
+        }
+    }
+
+    static class TwoTableCache extends AbstractCache {
+        final IncrementalRefreshTest.KeyedTable first = new IncrementalRefreshTest.KeyedTable(null);
+        final OtherTable second = new OtherTable();
+
+        TwoTableCache(String cacheFolder) {
+            super(cacheFolder);
+        }
+
+        @Override
+        protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+            return new AbstractTable[]{first, second};
+        }
+    }
+
+    @Test
+    void parallelRefreshTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        TwoTableCache cache = new TwoTableCache(folder.getPath());
+        assertEquals(List.of("TypesTable", "OtherTable"), cache.getOutdatedTables(db));
+        assertTrue(cache.refreshFromDB(db, 4));
+        assertEquals(100, cache.first.size());
+        assertEquals(100, cache.second.size());
+        assertNotEquals(Thread.currentThread().getName(), cache.first.SourceThread);
+        assertNotEquals(cache.first.SourceThread, cache.second.SourceThread);
+
+        // only the table with an unknown time is refreshed again
+        assertEquals(List.of("OtherTable"), cache.getOutdatedTables(db));
+    }
+
+    @Test
+    void refreshNowTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(folder.getPath(), new IncrementalRefreshTest.KeyedTable("created"), null);
+        assertEquals(List.of("TypesTable"), cache.getOutdatedTables(db));
+        try (CacheRefresher refresher = new CacheRefresher(cache, db, new CacheRefresherConfig(60_000, 0))) {
+            assertEquals(-1, refresher.getMetrics().lagMillis());
+
+            // the first poll loads the table
+            assertTrue(refresher.refreshNow());
+            assertEquals(AbstractTable.Source.DB, cache.table.SOURCE);
+            assertTrue(refresher.awaitSave(10, TimeUnit.SECONDS));
+            assertTrue(new File(folder, "TypesTable_cache.bin").exists());
+
+            // nothing changed, nothing is fetched
+            db.fetchedRows = 0;
+            assertFalse(refresher.refreshNow());
+            assertEquals(0, db.fetchedRows);
+            assertTrue(cache.getOutdatedTables(db).isEmpty());
+
+            // only the changed rows are fetched
+            db.put(3, "changed", IncrementalRefreshTest.CHANGED);
+            db.lastModified = IncrementalRefreshTest.CHANGED;
+            assertEquals(List.of("TypesTable"), cache.getOutdatedTables(db));
+            assertTrue(refresher.refreshNow());
+            assertEquals(AbstractTable.Source.Delta, cache.table.SOURCE);
+            assertEquals("changed", cache.table.get(3).getValue("name"));
+            assertTrue(refresher.awaitSave(10, TimeUnit.SECONDS));
+
+            CacheRefresherMetrics metrics = refresher.getMetrics();
+            assertEquals(3, metrics.pollCount());
+            assertEquals(2, metrics.refreshCount());
+            assertEquals(2, metrics.tableCount());
+            assertEquals(0, metrics.failureCount());
+            assertTrue(metrics.saveCount() >= 1);
+            assertEquals(2, metrics.refreshTime().getCount());
+            assertTrue(metrics.lagMillis() >= 0);
+        }
+
+        // the saved cache is up to date
+        IncrementalRefreshTest.KeyedCache reloaded = new IncrementalRefreshTest.KeyedCache(folder.getPath(), new IncrementalRefreshTest.KeyedTable("created"), null);
+        db.fetchedRows = 0;
+        reloaded.loadCache(db);
+        assertEquals(AbstractTable.Source.Disk, reloaded.table.SOURCE);
+        assertEquals(0, db.fetchedRows);
+        assertEquals("changed", reloaded.table.get(3).getValue("name"));
+    }
+
+    @Test
+    void failedRefreshTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(folder.getPath(), new IncrementalRefreshTest.KeyedTable(null), null);
+        CacheRefresherConfig config = new CacheRefresherConfig(60_000, 0);
+        config.persistToDisk = false;
+        try (CacheRefresher refresher = new CacheRefresher(cache, db, config)) {
+            db.failAfterRows = 50;
+            assertThrows(SQLException.class, refresher::refreshNow);
+            assertEquals(1, refresher.getMetrics().failureCount());
+            assertEquals(-1, refresher.getMetrics().lagMillis());
+
+            db.failAfterRows = -1;
+            assertTrue(refresher.refreshNow());
+            assertEquals(100, cache.table.size());
+            assertEquals(0, refresher.getMetrics().saveCount());
+            assertFalse(new File(folder, "TypesTable_cache.bin").exists());
+        }
+    }
+
+    @Test
+    void scheduledRefreshTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(folder.getPath(), new IncrementalRefreshTest.KeyedTable("created"), null);
+        cache.refreshFromDB(db);
+
+        CacheRefresher refresher = new CacheRefresher(cache, db, new CacheRefresherConfig(10, 10));
+        refresher.start();
+        try {
+            db.put(3, "changed", IncrementalRefreshTest.CHANGED);
+            db.lastModified = IncrementalRefreshTest.CHANGED;
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (refresher.getMetrics().refreshCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, refresher.getMetrics().refreshCount());
+            assertEquals("changed", cache.table.get(3).getValue("name"));
+        } finally {
+            refresher.close();
+        }
+        assertTrue(refresher.isClosed());
+        assertThrows(IllegalStateException.class, refresher::start);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.CacheInvalidator;
+import de.longri.database.table_data.ChangeEvent;
+import de.longri.database.table_data.ChangeLogTailer;
+import de.longri.database.table_data.ChangeStream;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeStreamTest {
+
+    static final LocalDateTime NOW = IncrementalRefreshTest.CHANGED;
+
+    // delivers the events of emit() in the calling thread
+    static class LocalChangeStream implements ChangeStream {
+        Listener listener;
+        boolean closed;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        void emit(ChangeEvent... events) {
+            listener.onChanges(List.of(events));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static IncrementalRefreshTest.KeyedCache loadedCache(IncrementalRefreshTest.FakeDatabaseConnection db) throws Exception {
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", new IncrementalRefreshTest.KeyedTable(null), "change_log");
+        cache.refreshFromDB(db);
+        db.fetchedRows = 0;
+        db.queries.clear();
+        return cache;
+    }
+
+    @Test
+    void rowChangesTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = loadedCache(db);
+        long version = cache.snapshot().VERSION;
+
+        LocalChangeStream stream = new LocalChangeStream();
+        CacheInvalidator invalidator = new CacheInvalidator(cache, db, stream);
+        invalidator.start();
+
+        db.put(3, "changed", NOW);
+        db.delete(5);
+        db.put(100, "new", NOW);
+        stream.emit(new ChangeEvent("TypesTable", "3", NOW), new ChangeEvent("TypesTable", "5", NOW),
+                new ChangeEvent("TypesTable", "100", NOW), new ChangeEvent("Unknown", "1", NOW));
+
+        // only the changed rows are fetched, no poll of last_modified
+        assertEquals(2, db.fetchedRows);
+        assertTrue(db.queries.stream().noneMatch(sql -> sql.contains("last_modified")));
+        assertEquals(AbstractTable.Source.Delta, cache.table.SOURCE);
+        IncrementalRefreshTest.assertSameRows(db, cache.table);
+        assertEquals(version + 1, cache.snapshot().VERSION);
+        assertEquals(4, invalidator.getEventCount());
+        assertEquals(0, invalidator.getFailureCount());
+
+        // a change of the whole table reloads it
+        db.put(7, "reloaded", NOW);
+        db.fetchedRows = 0;
+        assertEquals(Set.of("TypesTable"), cache.applyChanges(db, List.of(new ChangeEvent("TypesTable", "3", NOW), ChangeEvent.ofTable("TypesTable", NOW))));
+        assertEquals(AbstractTable.Source.DB, cache.table.SOURCE);
+        assertEquals(100, db.fetchedRows);
+        IncrementalRefreshTest.assertSameRows(db, cache.table);
+
+        invalidator.close();
+        assertTrue(stream.closed);
+    }
+
+    @Test
+    void failedChangesTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10);
+        IncrementalRefreshTest.KeyedCache cache = loadedCache(db);
+        LocalChangeStream stream = new LocalChangeStream();
+        CacheInvalidator invalidator = new CacheInvalidator(cache, db, stream);
+        invalidator.start();
+
+        db.put(3, "changed", NOW);
+        db.failAfterRows = 0;
+        stream.emit(new ChangeEvent("TypesTable", "3", NOW));
+        assertEquals(1, invalidator.getFailureCount());
+        assertNull(cache.table.getDbLastModify());
+
+        // the next refresh reloads the invalidated table
+        db.failAfterRows = -1;
+        assertEquals(List.of("TypesTable"), cache.getOutdatedTables(db));
+        assertTrue(cache.refreshFromDB(db));
+        assertEquals(AbstractTable.Source.DB, cache.table.SOURCE);
+        IncrementalRefreshTest.assertSameRows(db, cache.table);
+    }
+
+    @Test
+    void changeLogTailerTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10);
+        db.changeLog.clear();
+        ChangeLogTailer tailer = new ChangeLogTailer(db, "change_log", NOW, 1000);
+        assertTrue(tailer.readChanges().isEmpty());
+
+        db.put(3, "changed", NOW);
+        db.delete(4);
+        List<ChangeEvent> events = tailer.readChanges();
+        assertEquals(List.of(new ChangeEvent("TypesTable", "3", NOW), new ChangeEvent("TypesTable", "4", NOW)), events);
+
+        // entries of the last read are not delivered twice
+        db.put(5, "changed", NOW);
+        assertEquals(List.of(new ChangeEvent("TypesTable", "5", NOW)), tailer.readChanges());
+        assertTrue(tailer.readChanges().isEmpty());
+
+        // a key changed again within the same second is delivered again
+        db.put(5, "changed again", NOW);
+        assertEquals(List.of(new ChangeEvent("TypesTable", "5", NOW)), tailer.readChanges());
+        assertTrue(tailer.readChanges().isEmpty());
+        tailer.close();
+    }
+
+    @Test
+    void changeLogTailerInvalidTimeTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10);
+        db.changeLog.clear();
+        assertThrows(IllegalArgumentException.class, () -> new ChangeLogTailer(db, "change_log", null, 1000));
+
+        ChangeLogTailer tailer = new ChangeLogTailer(db, "change_log", NOW, 1000);
+        HashMap<String, Object> noTime = new HashMap<>();
+        noTime.put("pk", 6);
+        noTime.put("changed", null);
+        db.changeLog.add(noTime);
+        db.changeLog.add(Map.of("pk", 7, "changed", "no time"));
+        db.put(3, "changed", NOW);
+
+        // entries without a valid time are skipped
+        assertEquals(List.of(new ChangeEvent("TypesTable", "3", NOW)), tailer.readChanges());
+        assertTrue(tailer.readChanges().isEmpty());
+        tailer.close();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.serializable.BitStore;
+import de.longri.serializable.NotImplementedException;
+import de.longri.serializable.StoreBase;
+import de.longri.utils.NamedObjectProperty;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarTableFormatTest {
+
+    static class TypesTable extends AbstractTable<TypesTable_data> {
+
+        @Override
+        public String[] getColumnNames() {
+            return new String[]{"id", "name", "value", "created", "active"};
+        }
+
+        @Override
+        protected TypesTable_data create(ResultSet rs) throws SQLException {
+            return new TypesTable_data(rs, this);
+        }
+
+        @Override
+        protected TypesTable_data create(StoreBase storeBase) throws SQLException, NotImplementedException {
+            return new TypesTable_data(storeBase, this);
+        }
+
+        @Override
+        protected TypesTable_data createRow() {
+            return new TypesTable_data(this);
+        }
+
+        @Override
+        public String getTableName() {
+            return "TypesTable";
+        }
+    }
+
+    static class TypesTable_data extends AbstractTableDataEntry {
+
+        public TypesTable_data(ResultSet resultSet, TypesTable table) throws SQLException {
+            super(resultSet, table);
+        }
+
+        public TypesTable_data(StoreBase storeBase, TypesTable table) throws SQLException, NotImplementedException {
+            super(storeBase, table);
+        }
+
+        public TypesTable_data(TypesTable table) {
+            super(table);
+        }
+
+        @Override
+        protected NamedObjectProperty createProperty(String name) {
+            switch (name) {
+                case "id":
+                    return new NamedObjectProperty.NamedIntegerProperty(name);
+                case "name":
+                    return new NamedObjectProperty.NamedStringProperty(name);
+                case "value":
+                    return new NamedObjectProperty.NamedDoubleProperty(name);
+                case "created":
+                    return new NamedObjectProperty.NamedLocalDateTimeProperty(name);
+                case "active":
+                    return new NamedObjectProperty.NamedBoolProperty(name);
+            }
+            throw new RuntimeException("Property with name " + name + " not found");
+        }
+    }
+
+    // a cache file in the row format written before the columnar format
+    static void writeRowFormat(File folder, int rows) throws NotImplementedException, IOException {
+        StoreBase store = new BitStore();
+        store.write(rows);
+        for (int i = 0; i < rows; i++) {
+            store.write(5);
+            store.write(AbstractTableDataEntry.NamedIntegerProperty);
+            store.write("id");
+            store.write(i);
+            store.write(AbstractTableDataEntry.NamedStringProperty);
+            store.write("name");
+            store.write("name-" + (i % 7));
+            store.write(AbstractTableDataEntry.NamedDoubleProperty);
+            store.write("value");
+            store.write(Double.toString(i * 0.5));
+            store.write(AbstractTableDataEntry.NamedLocalDateTimeProperty);
+            store.write("created");
+            store.write(Abstract_Database.getDateString(LocalDateTime.of(2024, 1, 1, 12, 0).plusMinutes(i)));
+            store.write(AbstractTableDataEntry.NamedBoolProperty);
+            store.write("active");
+            store.write(i % 2 == 0);
+        }
+        try (OutputStream os = new FileOutputStream(new File(folder, "TypesTable_cache.bin"))) {
+            os.write(store.getArray());
+        }
+    }
+
+    static byte[] readCacheFile(File folder) throws IOException {
+        try (InputStream is = new FileInputStream(new File(folder, "TypesTable_cache.bin"))) {
+            return is.readAllBytes();
+        }
+    }
+
+    @Test
+    void rowFormatToColumnarTest(@TempDir File folder) throws Exception {
+        writeRowFormat(folder, 100);
+        byte[] rowFormat = readCacheFile(folder);
+
+        // the old format is still readable
+        TypesTable table = new TypesTable();
+        table.loadFromDisk(folder);
+        assertEquals(100, table.size());
+        assertEquals("name-3", table.tableData.get(3).getProperty("name").get());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 12, 5), table.tableData.get(5).getProperty("created").get());
+
+        // nulls survive the columnar format
+        table.tableData.get(1).getProperty("name").set(null);
+        table.tableData.get(2).getProperty("created").set(null);
+        table.tableData.get(3).getProperty("value").set(null);
+
+        table.saveToDisk(folder);
+        byte[] columnar = readCacheFile(folder);
+        assertEquals(0x4C434F4C, ByteBuffer.wrap(columnar).getInt());
+        assertTrue(columnar.length < rowFormat.length, columnar.length + " >= " + rowFormat.length);
+
+        TypesTable loaded = new TypesTable();
+        loaded.loadFromDisk(folder);
+        assertEquals(table, loaded);
+        assertNull(loaded.tableData.get(1).getProperty("name").get());
+        assertNull(loaded.tableData.get(2).getProperty("created").get());
+        assertNull(loaded.tableData.get(3).getProperty("value").get());
+        assertEquals(49.5, loaded.tableData.get(99).getProperty("value").get());
+        assertEquals(true, loaded.tableData.get(98).getProperty("active").get());
+    }
+
+    // table with rows loaded from a row format file
+    static TypesTable typesTable(File folder, int rows) throws Exception {
+        writeRowFormat(folder, rows);
+        TypesTable table = new TypesTable();
+        table.loadFromDisk(folder);
+        return table;
+    }
+
+    @Test
+    void mappedLoadingTest(@TempDir File folder) throws Exception {
+        assertLoading(true, folder);
+    }
+
+    @Test
+    void heapLoadingTest(@TempDir File folder) throws Exception {
+        assertLoading(false, folder);
+    }
+
+    static void assertLoading(boolean memoryMapped, File folder) throws Exception {
+        boolean before = AbstractTable.isMemoryMappedLoading();
+        AbstractTable.setMemoryMappedLoading(memoryMapped);
+        try {
+            // the row format is copied into the heap for the BitStore
+            TypesTable table = typesTable(folder, 100);
+            assertEquals(100, table.size());
+            assertEquals("name-3", table.tableData.get(3).getProperty("name").get());
+
+            // the columnar format is decoded from the mapping or the heap buffer
+            table.saveToDisk(folder);
+            TypesTable loaded = new TypesTable();
+            loaded.loadFromDisk(folder);
+            assertEquals(table, loaded);
+            assertEquals(LocalDateTime.of(2024, 1, 1, 12, 5), loaded.tableData.get(5).getProperty("created").get());
+        } finally {
+            AbstractTable.setMemoryMappedLoading(before);
+        }
+    }
+
+    @Test
+    void fileReplacedWhileMappedTest(@TempDir File folder, @TempDir File other) throws Exception {
+        boolean before = AbstractTable.isMemoryMappedLoading();
+        AbstractTable.setMemoryMappedLoading(true);
+        try {
+            TypesTable table = typesTable(folder, 100);
+            table.saveToDisk(folder);
+            TypesTable replacement = typesTable(other, 50);
+
+            // a save renames the new file over the mapped one after the rows were created, before the values are read
+            var loaded = new TypesTable() {
+                boolean replaced = false;
+
+                @Override
+                protected TypesTable_data createRow() {
+                    if (!replaced) {
+                        replaced = true;
+                        try {
+                            replacement.saveToDisk(folder);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return super.createRow();
+                }
+            };
+            loaded.loadFromDisk(folder);
+            assertTrue(loaded.replaced);
+            assertEquals(table, loaded);
+
+            TypesTable next = new TypesTable();
+            next.loadFromDisk(folder);
+            assertEquals(replacement, next);
+        } finally {
+            AbstractTable.setMemoryMappedLoading(before);
+        }
+    }
+
+    @Test
+    void emptyTableTest(@TempDir File folder) throws Exception {
+        TypesTable table = new TypesTable();
+        table.saveToDisk(folder);
+        TypesTable loaded = new TypesTable();
+        loaded.loadFromDisk(folder);
+        assertTrue(loaded.isEmpty());
+        assertTrue(new File(folder, "TypesTable_cache.bin").exists());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactStorageTest {
+
+    static class CompactTable extends IncrementalRefreshTest.KeyedTable {
+        CompactTable() {
+            super("created");
+        }
+
+        @Override
+        public boolean isCompactStorage() {
+            return true;
+        }
+
+        @Override
+        public String[] getHashIndexColumns() {
+            return new String[]{"name"};
+        }
+    }
+
+    static void assertAllCompact(AbstractTable<?> table) {
+        for (AbstractTableDataEntry row : table) assertTrue(row.isCompact());
+    }
+
+    @Test
+    void compactRowsTest(@TempDir File folder) throws Exception {
+        ColumnarTableFormatTest.writeRowFormat(folder, 100);
+        ColumnarTableFormatTest.TypesTable classic = new ColumnarTableFormatTest.TypesTable();
+        classic.loadFromDisk(folder);
+
+        // row format
+        CompactTable table = new CompactTable();
+        table.loadFromDisk(folder);
+        assertAllCompact(table);
+        assertEquals(classic, table);
+
+        int id = table.getColumnIndex("id");
+        int name = table.getColumnIndex("name");
+        int value = table.getColumnIndex("value");
+        int created = table.getColumnIndex("created");
+        int active = table.getColumnIndex("active");
+        assertEquals(-1, table.getColumnIndex("unknown"));
+
+        AbstractTableDataEntry row = table.get(5);
+        assertEquals(5, row.getInt(id));
+        assertEquals("name-5", row.getString(name));
+        assertEquals(2.5, row.getDouble(value));
+        assertEquals(LocalDateTime.of(2024, 1, 1, 12, 5), row.getDateTime(created));
+        assertFalse(row.getBool(active));
+        assertEquals("name-5", row.getValue("name"));
+        assertThrows(IllegalArgumentException.class, () -> row.getInt(name));
+
+        // the same accessors work on rows with property objects
+        AbstractTableDataEntry classicRow = classic.tableData.get(5);
+        assertEquals(5, classicRow.getInt(id));
+        assertEquals("name-5", classicRow.getString(name));
+        assertEquals(2.5, classicRow.getDouble(value));
+
+        // queries and indexes don't need property objects
+        assertEquals(14, table.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(50, table.where("active", AbstractTable.Op.EQ, true).size());
+        assertEquals(99, table.getMaxValue("id"));
+        assertAllCompact(table);
+
+        // nulls survive the columnar format
+        table.get(1).setValue(name, null);
+        table.get(2).setValue(value, null);
+        table.get(3).setValue(created, null);
+        assertTrue(table.get(2).isNull(value));
+        assertEquals(0.0, table.get(2).getDouble(value));
+
+        table.saveToDisk(folder);
+        CompactTable loaded = new CompactTable();
+        loaded.loadFromDisk(folder);
+        assertAllCompact(loaded);
+        assertEquals(table, loaded);
+        assertNull(loaded.get(1).getString(name));
+        assertNull(loaded.get(2).getValue(value));
+        assertNull(loaded.get(3).getDateTime(created));
+
+        // a property turns the row into a row with property objects, changes are kept
+        AbstractTableDataEntry inflated = loaded.get(7);
+        inflated.getProperty("name").set("bound");
+        assertFalse(inflated.isCompact());
+        assertEquals("bound", inflated.getString(name));
+        assertEquals(7, inflated.getInt(id));
+        assertTrue(loaded.get(8).isCompact());
+    }
+
+    @Test
+    void compactFromDatabaseTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", new CompactTable(), null);
+        assertTrue(cache.refreshFromDB(db));
+        assertAllCompact(cache.table);
+
+        db.put(3, "changed", IncrementalRefreshTest.CHANGED);
+        db.delete(5);
+        db.lastModified = IncrementalRefreshTest.CHANGED;
+        assertTrue(cache.refreshFromDB(db));
+
+        assertAllCompact(cache.table);
+        assertEquals(99, cache.table.size());
+        assertEquals("changed", cache.table.get(3).getString(cache.table.getColumnIndex("name")));
+        assertNull(cache.table.get(5));
+        assertEquals(1, cache.table.where("name", AbstractTable.Op.EQ, "changed").size());
+    }
+}
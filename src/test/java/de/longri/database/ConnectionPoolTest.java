@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    // creates pooled connections around a stand-in connection, no database needed
+    static class TestCreater implements PoolConnectionCreater {
+        final AtomicInteger created = new AtomicInteger();
+        ConnectionPool pool;
+
+        @Override
+        public PooledConnection createNewPooledConnection() {
+            created.incrementAndGet();
+            return new PooledConnection("jdbc:test://" + created.get(), standInConnection(), pool);
+        }
+    }
+
+    static Connection standInConnection() {
+        return standIn(Connection.class);
+    }
+
+    // proxy that only knows open/closed, prepareStatement returns stand-in statements
+    static <T> T standIn(Class<T> type) {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    closed.set(true);
+                    return null;
+                case "isClosed":
+                    return closed.get();
+                case "isValid":
+                    return !closed.get();
+                case "prepareStatement":
+                    return standIn(PreparedStatement.class);
+                case "executeQuery":
+                    // an empty result set
+                    return standIn(ResultSet.class);
+                case "toString":
+                    return "StandIn" + type.getSimpleName();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) return false;
+            if (returnType == int.class) return 0;
+            if (returnType == long.class) return 0L;
+            return null;
+        }));
+    }
+
+    static ConnectionPool createPool(TestCreater creater, int minIdle, int maxTotal, long timeout) throws SQLException {
+        ConnectionPoolConfig config = new ConnectionPoolConfig(minIdle, maxTotal, timeout);
+        config.housekeepingIntervalMillis = 0;
+        return createPool(creater, config);
+    }
+
+    static ConnectionPool createPool(TestCreater creater, ConnectionPoolConfig config) throws SQLException {
+        ConnectionPool pool = new ConnectionPool(creater, config);
+        creater.pool = pool;
+        return pool;
+    }
+
+    @Test
+    void reuseReturnedConnectionTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 5, 1000);
+
+        PooledConnection first = pool.getConnection();
+        first.close();
+        PooledConnection second = pool.getConnection();
+        assertSame(first, second);
+        assertEquals(1, creater.created.get());
+        assertEquals(1, pool.getActiveCount());
+        second.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void doubleCloseTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 100);
+
+        PooledConnection connection = pool.getConnection();
+        connection.close();
+        connection.close();
+        assertEquals(1, pool.getIdleCount());
+
+        // a second close must not free an additional permit
+        PooledConnection again = pool.getConnection();
+        assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+        again.close();
+    }
+
+    @Test
+    void acquireTimeoutTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 2, 50);
+
+        PooledConnection c1 = pool.getConnection();
+        PooledConnection c2 = pool.getConnection();
+        assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+        assertEquals(2, creater.created.get());
+        c1.close();
+        c2.close();
+    }
+
+    @Test
+    void clusterAcquireTimeoutTest() throws Exception {
+        ConnectionPoolConfig config = new ConnectionPoolConfig(0, 1, 300);
+        config.housekeepingIntervalMillis = 0;
+        Host first = new Host("first", "3306");
+        Host second = new Host("second", "3306");
+        Host unreachable = new Host("unreachable", "3306");
+        MariaDB_Cluster_Connection cluster = new MariaDB_Cluster_Connection("test", new SimpleDatabaseUser("user", "pw"),
+                new ArrayList<>(List.of(first, second, unreachable)), config);
+        for (Host host : List.of(first, second)) {
+            cluster.POOLS.get(host).shutdown();
+            cluster.POOLS.put(host, createPool(new TestCreater(), config));
+        }
+        cluster.POOLS.get(unreachable).shutdown();
+        cluster.POOLS.put(unreachable, new ConnectionPool(() -> {
+            throw new SQLException("Connection refused");
+        }, config));
+
+        // an unreachable host fails over to the next one
+        PooledConnection a = cluster.borrowConnection(List.of(unreachable, first));
+        PooledConnection b = cluster.borrowConnection(List.of(first, second));
+        assertNotSame(a.getPool(), b.getPool());
+
+        // both pools are exhausted, the borrow waits for one acquire timeout, not one per host
+        long start = System.currentTimeMillis();
+        assertThrows(ConnectionPool.AcquireTimeoutException.class, () -> cluster.borrowConnection(List.of(first, second)));
+        assertTrue(System.currentTimeMillis() - start < 550);
+
+        // after a timeout a free connection of another host is taken without waiting
+        b.close();
+        PooledConnection c = cluster.borrowConnection(List.of(first, second));
+        assertNotNull(c);
+        a.close();
+        c.close();
+    }
+
+    @Test
+    void ensureMinIdleTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 3, 5, 1000);
+
+        pool.ensureMinIdle();
+        assertEquals(3, pool.getIdleCount());
+        assertEquals(3, pool.getTotalCount());
+
+        pool.shutdown();
+        assertEquals(0, pool.getTotalCount());
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+
+    @Test
+    void boundedUnderContentionTest() throws Exception {
+        TestCreater creater = new TestCreater();
+        int max = 4;
+        ConnectionPool pool = createPool(creater, 0, max, 5000);
+
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        AtomicInteger maxActive = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        PooledConnection connection = pool.getConnection();
+                        maxActive.accumulateAndGet(pool.getActiveCount(), Math::max);
+                        connection.close();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, errors.get());
+        assertTrue(creater.created.get() <= max, "created " + creater.created.get() + " connections");
+        assertTrue(maxActive.get() <= max);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void waitForReservedSlotTest() throws Exception {
+        // the only slot is taken by a connection that is still being opened for minIdle
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch open = new CountDownLatch(1);
+        TestCreater slowCreater = new TestCreater() {
+            @Override
+            public PooledConnection createNewPooledConnection() {
+                opening.countDown();
+                try {
+                    open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createNewPooledConnection();
+            }
+        };
+        ConnectionPoolConfig config = new ConnectionPoolConfig(1, 1, 300);
+        config.housekeepingIntervalMillis = 0;
+        ConnectionPool pool = createPool(slowCreater, config);
+        Thread minIdle = new Thread(() -> {
+            try {
+                pool.ensureMinIdle();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        minIdle.start();
+        assertTrue(opening.await(5, TimeUnit.SECONDS));
+
+        // the borrower waits until the acquire deadline
+        long start = System.currentTimeMillis();
+        assertThrows(ConnectionPool.AcquireTimeoutException.class, pool::getConnection);
+        assertTrue(System.currentTimeMillis() - start >= 250);
+        assertEquals(1, pool.getMetrics().timeoutCount());
+
+        // and is woken up as soon as the connection is idle
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<PooledConnection> borrowed = executor.submit(() -> pool.getConnection());
+        Thread.sleep(50);
+        assertFalse(borrowed.isDone());
+        open.countDown();
+        PooledConnection connection = borrowed.get(5, TimeUnit.SECONDS);
+        assertEquals(1, slowCreater.created.get());
+        connection.close();
+        minIdle.join();
+        executor.shutdown();
+    }
+
+    @Test
+    void discardInvalidConnectionTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(0, 2, 1000);
+        config.housekeepingIntervalMillis = 0;
+        config.validationIntervalMillis = 0;
+        ConnectionPool pool = createPool(creater, config);
+
+        PooledConnection connection = pool.getConnection();
+        connection.close();
+
+        // simulate a server side disconnect (wait_timeout, node restart)
+        connection.getActualConnection().close();
+
+        PooledConnection next = pool.getConnection();
+        assertNotSame(connection, next);
+        assertEquals(2, creater.created.get());
+        assertEquals(1, pool.getTotalCount());
+        next.close();
+    }
+
+    @Test
+    void maxLifetimeTest() throws Exception {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(0, 2, 1000);
+        config.housekeepingIntervalMillis = 0;
+        config.maxLifetimeMillis = 20;
+        ConnectionPool pool = createPool(creater, config);
+
+        PooledConnection connection = pool.getConnection();
+        Thread.sleep(40);
+        connection.close();
+
+        // expired on return, must be closed and not reused
+        assertTrue(connection.getActualConnection().isClosed());
+        assertEquals(0, pool.getTotalCount());
+        assertNotSame(connection, pool.getConnection());
+    }
+
+    @Test
+    void housekeepingTest() throws Exception {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(1, 5, 1000);
+        config.housekeepingIntervalMillis = 0;
+        config.idleTimeoutMillis = 20;
+        ConnectionPool pool = createPool(creater, config);
+
+        PooledConnection c1 = pool.getConnection();
+        PooledConnection c2 = pool.getConnection();
+        PooledConnection c3 = pool.getConnection();
+        c1.close();
+        c2.close();
+        c3.close();
+        assertEquals(3, pool.getIdleCount());
+
+        Thread.sleep(40);
+        pool.housekeeping();
+
+        // idle connections above minIdle are closed
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getTotalCount());
+    }
+
+    @Test
+    void healthCheckTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 1000);
+        ArrayList<Connection> checked = new ArrayList<>();
+        pool.setHealthCheck(checked::add);
+
+        // the check borrows a connection and gives it back
+        pool.housekeeping();
+        assertEquals(1, checked.size());
+        assertEquals(0, pool.getActiveCount());
+
+        // an exhausted pool is not checked
+        PooledConnection borrowed = pool.getConnection();
+        pool.housekeeping();
+        assertEquals(1, checked.size());
+        borrowed.close();
+
+        // a failed check doesn't stop the housekeeper
+        pool.setHealthCheck(connection -> {
+            throw new SQLException("not synced");
+        });
+        pool.housekeeping();
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void statementCacheTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 1000);
+
+        PooledConnection connection = pool.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT * FROM Table1 WHERE id = ?");
+        PreparedStatement driverStatement = ((CachedPreparedStatement) first).getDelegate();
+        first.close();
+        assertTrue(first.isClosed());
+        assertFalse(driverStatement.isClosed());
+
+        PreparedStatement second = connection.prepareStatement("SELECT * FROM Table1 WHERE id = ?");
+        assertSame(driverStatement, ((CachedPreparedStatement) second).getDelegate());
+        assertSame(connection, second.getConnection());
+
+        // the same SQL in use twice needs a second driver statement
+        PreparedStatement third = connection.prepareStatement("SELECT * FROM Table1 WHERE id = ?");
+        assertNotSame(driverStatement, ((CachedPreparedStatement) third).getDelegate());
+        second.close();
+        third.close();
+
+        assertEquals(1, connection.getStatementCacheHitCount());
+        assertEquals(2, connection.getStatementCacheMissCount());
+        assertEquals(1, connection.getStatementCacheSize());
+        assertEquals(1, pool.getStatementCacheHitCount());
+        connection.close();
+    }
+
+    @Test
+    void statementCacheResetsSettingsTest() throws SQLException {
+        // driver statements that keep their settings, with non-zero driver defaults
+        Connection standInConnection = standInConnection();
+        Connection driverConnection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (p, method, args) -> {
+            if (!method.getName().equals("prepareStatement")) return method.invoke(standInConnection, args);
+            HashMap<String, Object> settings = new HashMap<>(Map.of("MaxRows", 0, "FetchSize", 10, "QueryTimeout", 30, "MaxFieldSize", 0));
+            PreparedStatement standIn = standIn(PreparedStatement.class);
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (sp, sm, sargs) -> {
+                String name = sm.getName();
+                if (name.startsWith("get") && settings.containsKey(name.substring(3))) return settings.get(name.substring(3));
+                if (name.startsWith("set") && settings.containsKey(name.substring(3))) return settings.put(name.substring(3), sargs[0]);
+                if (name.equals("hashCode")) return System.identityHashCode(sp);
+                if (name.equals("equals")) return sp == sargs[0];
+                return sm.invoke(standIn, sargs);
+            });
+        });
+        ConnectionPool pool = createPool(new TestCreater(), 0, 1, 1000);
+        PooledConnection connection = new PooledConnection("jdbc:test://settings", driverConnection, pool);
+
+        PreparedStatement first = connection.prepareStatement("SELECT * FROM Table1");
+        first.setMaxRows(5);
+        first.setFetchSize(Integer.MIN_VALUE);
+        first.setQueryTimeout(1);
+        first.setMaxFieldSize(64);
+        first.close();
+
+        PreparedStatement second = connection.prepareStatement("SELECT * FROM Table1");
+        assertSame(((CachedPreparedStatement) first).getDelegate(), ((CachedPreparedStatement) second).getDelegate());
+        assertEquals(0, second.getMaxRows());
+        assertEquals(10, second.getFetchSize());
+        assertEquals(30, second.getQueryTimeout());
+        assertEquals(0, second.getMaxFieldSize());
+        second.close();
+    }
+
+    @Test
+    void warmUpTest() throws Exception {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(2, 5, 1000);
+        config.housekeepingIntervalMillis = 0;
+        config.warmUpSize = 4;
+        ConnectionPool pool = createPool(creater, config);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        assertEquals(4, pool.warmUp(executor).get(5, TimeUnit.SECONDS));
+        assertEquals(4, pool.getIdleCount());
+        assertEquals(4, pool.getTotalCount());
+
+        // already warm, nothing to open
+        assertEquals(0, pool.warmUp(executor).get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(4, creater.created.get());
+    }
+
+    @Test
+    void leakDetectionTest() throws Exception {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(0, 2, 1000);
+        config.housekeepingIntervalMillis = 0;
+        config.leakDetectionThresholdMillis = 20;
+        ConnectionPool pool = createPool(creater, config);
+
+        PooledConnection leaked = pool.getConnection();
+        PooledConnection returned = pool.getConnection();
+        assertNotNull(leaked.getBorrowTrace());
+        returned.close();
+
+        Thread.sleep(40);
+        pool.detectLeaks();
+        pool.detectLeaks();
+
+        // reported once, only the connection that is still borrowed
+        assertEquals(1, pool.getLeakCount());
+        assertTrue(leaked.isLeakReported());
+        assertFalse(returned.isLeakReported());
+        leaked.close();
+        assertFalse(leaked.isBorrowed());
+    }
+
+    @Test
+    void returnOnStatementCloseTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 100);
+
+        PooledConnection connection = pool.getConnection();
+        PooledStatement statement = new PooledStatement(standIn(Statement.class), connection);
+        assertNotSame(connection, statement.getConnection());
+        assertFalse(statement.getConnection().isClosed());
+        statement.close();
+        statement.close();
+        assertTrue(statement.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void statementConnectionTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 100);
+
+        // closing the connection of the statement gives it back once
+        PooledConnection connection = pool.getConnection();
+        Statement statement = new PooledStatement(standIn(Statement.class), connection);
+        Connection handle = statement.getConnection();
+        assertNotNull(handle.prepareStatement("SELECT * FROM Table1"));
+        handle.close();
+        assertTrue(statement.isClosed());
+        assertEquals(0, pool.getActiveCount());
+
+        // after the result set is read, the connection may belong to another borrower
+        PooledConnection next = pool.getConnection();
+        assertSame(connection, next);
+        Statement consumed = new PooledStatement(standIn(Statement.class), next);
+        Connection consumedHandle = consumed.getConnection();
+        assertFalse(consumed.executeQuery("SELECT * FROM Table1").next());
+        PooledConnection other = pool.getConnection();
+        assertSame(next, other);
+        assertTrue(consumedHandle.isClosed());
+        consumedHandle.close();
+        handle.close();
+        assertTrue(other.isBorrowed());
+        assertEquals(1, pool.getActiveCount());
+        assertThrows(SQLException.class, () -> consumedHandle.prepareStatement("SELECT * FROM Table1"));
+        other.close();
+    }
+
+    @Test
+    void returnOnResultSetConsumedTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPool pool = createPool(creater, 0, 1, 100);
+
+        PooledConnection connection = pool.getConnection();
+        Statement statement = new PooledStatement(standIn(Statement.class), connection);
+        ResultSet resultSet = statement.executeQuery("SELECT * FROM Table1");
+        assertSame(statement, resultSet.getStatement());
+        assertFalse(resultSet.next());
+
+        // read to the end without closing anything
+        assertTrue(statement.isClosed());
+        assertEquals(0, pool.getActiveCount());
+
+        PooledConnection next = pool.getConnection();
+        PreparedStatement prepared = new PooledPreparedStatement(next.prepareStatement("SELECT * FROM Table1 WHERE id = ?"), next);
+        assertFalse(prepared.executeQuery().next());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, next.getStatementCacheSize());
+    }
+
+    @Test
+    void metricsTest() throws SQLException {
+        TestCreater creater = new TestCreater();
+        ConnectionPoolConfig config = new ConnectionPoolConfig(0, 1, 20);
+        config.housekeepingIntervalMillis = 0;
+        ConnectionPool pool = createPool(creater, config);
+        AtomicInteger exported = new AtomicInteger();
+        pool.addMetricsExporter(metrics -> exported.incrementAndGet());
+
+        PooledConnection connection = pool.getConnection();
+        assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+        connection.close();
+        pool.getConnection().close();
+        pool.housekeeping();
+
+        ConnectionPoolMetrics metrics = pool.getMetrics();
+        assertEquals(2, metrics.borrowCount());
+        assertEquals(1, metrics.timeoutCount());
+        assertEquals(1, metrics.createCount());
+        assertEquals(1, metrics.idle());
+        assertEquals(2, metrics.borrowWait().getCount());
+        assertEquals(1, metrics.createTime().getCount());
+        assertEquals(1, exported.get());
+    }
+
+    @Test
+    void latencyHistogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMax());
+        assertEquals(500_500, snapshot.getMean(), 0.001);
+
+        // log-linear buckets, at most 1/16 off
+        long p50 = snapshot.getValueAtPercentile(50);
+        long p99 = snapshot.getValueAtPercentile(99);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 17 / 16, "p50 " + p50);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostSelectorTest {
+
+    Host HOST1 = new Host("localhost", "13306");
+    Host HOST2 = new Host("localhost", "23306");
+    Host HOST3 = new Host("localhost", "33306");
+    List<Host> HOSTS = List.of(HOST1, HOST2, HOST3);
+
+    @Test
+    void roundRobinTest() {
+        HostSelector selector = new RoundRobinHostSelector();
+        assertSame(HOST1, selector.select(HOSTS));
+        assertSame(HOST2, selector.select(HOSTS));
+        assertSame(HOST3, selector.select(HOSTS));
+        assertSame(HOST1, selector.select(HOSTS));
+    }
+
+    @Test
+    void leastConnectionsTest() {
+        HostSelector selector = new LeastConnectionsHostSelector();
+        HOST1.connectionBorrowed();
+        HOST2.connectionBorrowed();
+        assertSame(HOST3, selector.select(HOSTS));
+        HOST3.connectionBorrowed();
+        HOST3.connectionBorrowed();
+        HOST1.connectionReturned();
+        assertSame(HOST1, selector.select(HOSTS));
+    }
+
+    @Test
+    void latencyTest() {
+        HostSelector selector = new LatencyHostSelector();
+        HOST1.recordSuccess(5_000_000);
+        HOST2.recordSuccess(1_000_000);
+        // not measured hosts are preferred
+        assertSame(HOST3, selector.select(HOSTS));
+
+        HOST3.recordSuccess(3_000_000);
+        assertSame(HOST2, selector.select(HOSTS));
+
+        // load on the fastest host moves new connections to the next one
+        HOST2.connectionBorrowed();
+        HOST2.connectionBorrowed();
+        HOST2.connectionBorrowed();
+        assertSame(HOST3, selector.select(HOSTS));
+    }
+
+    @Test
+    void circuitBreakerTest() throws InterruptedException {
+        HostSelector selector = new LeastConnectionsHostSelector();
+        HOST1.setCircuitBreaker(2, 50);
+
+        HOST1.recordFailure();
+        assertTrue(HOST1.isAvailable());
+        HOST1.recordFailure();
+        assertFalse(HOST1.isAvailable());
+
+        HOST2.connectionBorrowed();
+        HOST3.connectionBorrowed();
+        // HOST1 has the fewest connections but is in its cool-down
+        assertNotSame(HOST1, selector.select(HOSTS));
+
+        Thread.sleep(60);
+        assertTrue(HOST1.isAvailable());
+        assertSame(HOST1, selector.select(HOSTS));
+
+        // half open, a single failure opens the breaker again
+        HOST1.recordFailure();
+        assertFalse(HOST1.isAvailable());
+
+        HOST1.recordSuccess(1_000_000);
+        assertTrue(HOST1.isAvailable());
+    }
+
+    @Test
+    void unsyncedHostTest() throws SQLException {
+        HostSelector selector = new RoundRobinHostSelector();
+        HOST2.setSynced(false);
+        assertFalse(HOST2.isAvailable());
+        for (int i = 0; i < 6; i++) assertNotSame(HOST2, selector.select(HOSTS));
+
+        // a node that is not synced is still used if no other node is left
+        assertSame(HOST2, selector.select(List.of(HOST2)));
+        HOST2.setSynced(true);
+        assertTrue(HOST2.isAvailable());
+
+        assertTrue(MariaDB_Cluster_Connection.isSynced(statusConnection(Map.of("wsrep_ready", "ON", "wsrep_local_state", "4"))));
+        // donor and not ready
+        assertFalse(MariaDB_Cluster_Connection.isSynced(statusConnection(Map.of("wsrep_ready", "ON", "wsrep_local_state", "2"))));
+        assertFalse(MariaDB_Cluster_Connection.isSynced(statusConnection(Map.of("wsrep_ready", "OFF", "wsrep_local_state", "4"))));
+        // not a Galera node
+        assertTrue(MariaDB_Cluster_Connection.isSynced(statusConnection(Map.of())));
+    }
+
+    // connection that answers every query with the status variables
+    static Connection statusConnection(Map<String, String> status) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, (c, method, args) -> {
+            if (!method.getName().equals("createStatement")) return null;
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class[]{Statement.class}, (s, statementMethod, statementArgs) -> {
+                if (!statementMethod.getName().equals("executeQuery")) return null;
+                Iterator<Map.Entry<String, String>> rows = status.entrySet().iterator();
+                Map.Entry<String, String>[] row = new Map.Entry[1];
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[]{ResultSet.class}, (r, resultMethod, resultArgs) -> switch (resultMethod.getName()) {
+                    case "next" -> {
+                        row[0] = rows.hasNext() ? rows.next() : null;
+                        yield row[0] != null;
+                    }
+                    case "getString" -> (Integer) resultArgs[0] == 1 ? row[0].getKey() : row[0].getValue();
+                    default -> null;
+                });
+            });
+        });
+    }
+
+    @Test
+    void allHostsDownTest() {
+        for (Host host : HOSTS) {
+            host.setCircuitBreaker(1, 10_000);
+            host.recordFailure();
+        }
+        // never block the whole cluster, the host with the shortest cool-down is used
+        assertEquals(1, HostSelector.availableHosts(HOSTS).size());
+        assertNotNull(new RoundRobinHostSelector().select(HOSTS));
+    }
+}
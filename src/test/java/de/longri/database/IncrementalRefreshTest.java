@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalRefreshTest {
+
+    static final LocalDateTime CACHED = LocalDateTime.of(2024, 1, 1, 12, 0);
+    static final LocalDateTime CHANGED = CACHED.plusDays(1);
+
+    static class KeyedTable extends ColumnarTableFormatTest.TypesTable {
+        final String changeColumn;
+
+        KeyedTable(String changeColumn) {
+            this.changeColumn = changeColumn;
+        }
+
+        @Override
+        public String getPrimaryKeyColumn() {
+            return "id";
+        }
+
+        @Override
+        public String getChangeColumn() {
+            return changeColumn;
+        }
+    }
+
+    static class KeyedCache extends AbstractCache {
+        final KeyedTable table;
+        final String changeLog;
+
+        KeyedCache(String cacheFolder, KeyedTable table, String changeLog) {
+            super(cacheFolder);
+            this.table = table;
+            this.changeLog = changeLog;
+        }
+
+        @Override
+        protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+            return new AbstractTable[]{table};
+        }
+
+        @Override
+        protected String getChangeLogTable() {
+            return changeLog;
+        }
+    }
+
+    // database with the TypesTable, a last_modified and a change_log table, answers only the queries of the cache
+    static class FakeDatabaseConnection extends CacheFilesTest.EmptyDatabaseConnection {
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        final List<Map<String, Object>> changeLog = new ArrayList<>();
+        LocalDateTime lastModified = CACHED;
+        // tables of the last_modified table, all with the same time
+        final List<String> tableNames = new ArrayList<>(List.of("TypesTable"));
+        int fetchedRows;
+        // like a driver that stores dates as text
+        boolean noLocalDateTime;
+        int fetchSize;
+        final List<String> queries = new ArrayList<>();
+        // the result set fails after that many rows, like a dropped connection
+        int failAfterRows = -1;
+        // called with the number of rows read before each next() of a result set
+        IntConsumer onRow = row -> {
+        };
+        // like a pool with that many free connections
+        int availableConnections = 8;
+
+        FakeDatabaseConnection(int rowCount) {
+            for (int i = 0; i < rowCount; i++) put(i, "name-" + (i % 7), CACHED.plusMinutes(i));
+        }
+
+        void put(int id, String name, LocalDateTime created) {
+            rows.removeIf(row -> row.get("id").equals(id));
+            rows.add(Map.of("id", id, "name", name, "value", id * 0.5, "created", created, "active", id % 2 == 0));
+            changeLog.add(Map.of("pk", id, "changed", CHANGED));
+        }
+
+        void delete(int id) {
+            rows.removeIf(row -> row.get("id").equals(id));
+            changeLog.add(Map.of("pk", id, "changed", CHANGED));
+        }
+
+        @Override
+        public int getAvailableConnectionCount() {
+            return availableConnections;
+        }
+
+        @Override
+        protected Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (p, method, args) -> switch (method.getName()) {
+                case "createStatement" -> statement(null);
+                case "prepareStatement" -> statement((String) args[0]);
+                case "getMetaData" -> proxy(DatabaseMetaData.class);
+                case "hashCode" -> System.identityHashCode(p);
+                case "equals" -> p == args[0];
+                default -> method.getReturnType() == boolean.class ? false : null;
+            });
+        }
+
+        PreparedStatement statement(String preparedSql) {
+            HashMap<Integer, Object> parameters = new HashMap<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (p, method, args) -> switch (method.getName()) {
+                case "setString", "setObject", "setLong" -> parameters.put((Integer) args[0], args[1]);
+                case "setFetchSize" -> fetchSize = (Integer) args[0];
+                case "executeQuery" -> query(args == null ? preparedSql : (String) args[0], parameters);
+                case "getConnection" -> getConnection();
+                case "hashCode" -> System.identityHashCode(p);
+                case "equals" -> p == args[0];
+                default -> method.getReturnType() == boolean.class ? false : null;
+            });
+        }
+
+        // LocalDateTime.MAX for entries with a time that is not a LocalDateTime
+        static LocalDateTime changed(Map<String, Object> log) {
+            return log.get("changed") instanceof LocalDateTime changed ? changed : LocalDateTime.MAX;
+        }
+
+        // chunks of a table are queried concurrently
+        synchronized ResultSet query(String sql, Map<Integer, Object> parameters) {
+            queries.add(sql);
+            if (sql.contains("last_modified")) {
+                return resultSet(tableNames.stream().map(name -> Map.<String, Object>of("tableName", name, "localDateTime", lastModified)).toList());
+            }
+            if (sql.startsWith("SELECT tableName, pk, changed")) {
+                LocalDateTime since = Abstract_Database.getDateTime((String) parameters.get(1));
+                // entries without a valid time are returned last, the reader must skip them
+                return resultSet(changeLog.stream().filter(log -> !changed(log).isBefore(since))
+                        .sorted(Comparator.comparing(FakeDatabaseConnection::changed))
+                        .map(log -> {
+                            LinkedHashMap<String, Object> entry = new LinkedHashMap<>();
+                            entry.put("tableName", "TypesTable");
+                            entry.put("pk", log.get("pk"));
+                            entry.put("changed", log.get("changed"));
+                            return (Map<String, Object>) entry;
+                        }).toList());
+            }
+            if (sql.contains("change_log")) {
+                LocalDateTime since = Abstract_Database.getDateTime((String) parameters.get(2));
+                return resultSet(changeLog.stream().filter(log -> !changed(log).isBefore(since))
+                        .map(log -> Map.of("pk", log.get("pk"))).toList());
+            }
+            List<Map<String, Object>> result;
+            if (sql.startsWith("SELECT COUNT(*)")) {
+                LinkedHashMap<String, Object> keys = new LinkedHashMap<>();
+                keys.put("count", (long) rows.size());
+                keys.put("min", rows.stream().mapToInt(row -> (Integer) row.get("id")).min().orElse(0));
+                keys.put("max", rows.stream().mapToInt(row -> (Integer) row.get("id")).max().orElse(0));
+                return resultSet(List.of(keys));
+            }
+            if (sql.contains(" IN (")) {
+                result = rows.stream().filter(row -> parameters.containsValue(row.get("id").toString())).toList();
+            } else if (sql.contains("id >= ? AND id <= ?")) {
+                long from = (Long) parameters.get(1);
+                long to = (Long) parameters.get(2);
+                result = rows.stream().filter(row -> (Integer) row.get("id") >= from && (Integer) row.get("id") <= to)
+                        .sorted(Comparator.comparing(row -> (Integer) row.get("id"))).toList();
+            } else if (sql.contains("created >= ?")) {
+                LocalDateTime since = Abstract_Database.getDateTime((String) parameters.get(1));
+                result = rows.stream().filter(row -> !((LocalDateTime) row.get("created")).isBefore(since)).toList();
+            } else if (sql.startsWith("SELECT id FROM")) {
+                return resultSet(rows.stream().map(row -> Map.of("id", row.get("id"))).toList());
+            } else {
+                result = rows;
+            }
+            fetchedRows += result.size();
+            return resultSet(result);
+        }
+
+        ResultSet resultSet(List<Map<String, Object>> rows) {
+            Iterator<Map<String, Object>> iterator = rows.iterator();
+            List<String> columns = rows.isEmpty() ? List.of() : List.copyOf(rows.get(0).keySet());
+            Map<String, Object>[] current = new Map[1];
+            int[] read = new int[1];
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[]{ResultSet.class}, (p, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        onRow.accept(read[0]);
+                        if (read[0]++ == failAfterRows) throw new SQLException("connection lost");
+                        current[0] = iterator.hasNext() ? iterator.next() : null;
+                        return current[0] != null;
+                    case "getMetaData":
+                        return Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class[]{ResultSetMetaData.class}, (m, metaMethod, metaArgs) ->
+                                metaMethod.getName().equals("getColumnCount") ? columns.size() : columns.get((Integer) metaArgs[0] - 1));
+                    case "hashCode":
+                        return System.identityHashCode(p);
+                    case "equals":
+                        return p == args[0];
+                }
+                if (method.getName().equals("getObject") && noLocalDateTime) {
+                    throw new SQLFeatureNotSupportedException("getObject");
+                }
+                if (method.getName().startsWith("get") && args != null) {
+                    Object value = args[0] instanceof Integer index ? current[0].get(columns.get(index - 1)) : current[0].get(args[0]);
+                    return switch (method.getName()) {
+                        case "getString" -> value instanceof LocalDateTime dateTime ? Abstract_Database.getDateString(dateTime) : String.valueOf(value);
+                        default -> value;
+                    };
+                }
+                return method.getReturnType() == boolean.class ? false : null;
+            });
+        }
+    }
+
+    static void assertSameRows(FakeDatabaseConnection db, KeyedTable table) {
+        assertEquals(db.rows.size(), table.size());
+        HashMap<Object, String> names = new HashMap<>();
+        for (AbstractTableDataEntry row : table) names.put(row.getProperty("id").get(), (String) row.getProperty("name").get());
+        for (Map<String, Object> row : db.rows) assertEquals(row.get("name"), names.get(row.get("id")));
+    }
+
+    @Test
+    void changeColumnRefreshTest() throws Exception {
+        FakeDatabaseConnection db = new FakeDatabaseConnection(100);
+        KeyedCache cache = new KeyedCache(".", new KeyedTable("created"), null);
+        assertTrue(cache.refreshFromDB(db));
+        assertEquals(AbstractTable.Source.DB, cache.table.SOURCE);
+        assertEquals(100, db.fetchedRows);
+
+        // nothing changed, nothing is fetched
+        db.fetchedRows = 0;
+        assertFalse(cache.refreshFromDB(db));
+        assertEquals(0, db.fetchedRows);
+
+        db.put(3, "changed", CHANGED);
+        db.put(100, "new", CHANGED);
+        db.delete(5);
+        db.lastModified = CHANGED;
+
+        assertTrue(cache.refreshFromDB(db));
+        assertEquals(AbstractTable.Source.Delta, cache.table.SOURCE);
+        assertEquals(CHANGED, cache.table.getDbLastModify());
+        // the two changed rows and the newest cached row, which has the old watermark
+        assertEquals(3, db.fetchedRows);
+        assertSameRows(db, cache.table);
+    }
+
+    @Test
+    void changeLogLoadFromDiskTest(@TempDir File folder) throws Exception {
+        FakeDatabaseConnection db = new FakeDatabaseConnection(100);
+        KeyedCache cache = new KeyedCache(folder.getPath(), new KeyedTable(null), "change_log");
+        cache.loadCache(db);
+        assertEquals(AbstractTable.Source.DB, cache.table.SOURCE);
+        assertEquals(100, cache.table.size());
+
+        db.changeLog.clear();
+        db.put(7, "changed", CACHED);
+        db.put(200, "new", CACHED);
+        db.delete(9);
+        db.delete(300);
+        db.lastModified = CHANGED;
+        db.fetchedRows = 0;
+
+        // the outdated table comes from disk, only the logged rows from the database
+        KeyedCache reloaded = new KeyedCache(folder.getPath(), new KeyedTable(null), "change_log");
+        reloaded.loadCache(db);
+        assertEquals(AbstractTable.Source.Delta, reloaded.table.SOURCE);
+        assertEquals(2, db.fetchedRows);
+        assertEquals(CHANGED, reloaded.table.getDbLastModify());
+        assertSameRows(db, reloaded.table);
+        assertEquals(2, reloaded.getCacheGeneration());
+    }
+
+    @Test
+    void dateColumnTest() throws Exception {
+        for (boolean noLocalDateTime : new boolean[]{false, true}) {
+            FakeDatabaseConnection db = new FakeDatabaseConnection(10);
+            db.noLocalDateTime = noLocalDateTime;
+            KeyedCache cache = new KeyedCache(".", new KeyedTable("created"), null);
+            cache.refreshFromDB(db);
+            assertEquals(CACHED.plusMinutes(7), cache.table.get(7).getProperty("created").get());
+            assertEquals(3.5, cache.table.get(7).getProperty("value").get());
+        }
+    }
+}
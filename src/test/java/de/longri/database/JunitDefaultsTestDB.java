@@ -66,12 +66,14 @@ public abstract class JunitDefaultsTestDB {
             deleteTestDB(dataBaseName);
         }
         String connectionString = "jdbc:mysql://" + HOST1.toString() + "/?";
-        Connection sqlConnection = DriverManager.getConnection(connectionString, getProperties());
-        sqlConnection.createStatement().execute("CREATE DATABASE IF NOT EXISTS " + dataBaseName + ";");
+        try (Connection sqlConnection = DriverManager.getConnection(connectionString, getProperties());
+             Statement statement = sqlConnection.createStatement()) {
+            statement.execute("CREATE DATABASE IF NOT EXISTS " + dataBaseName + ";");
+        }
 
         // change connection to created DB
         connectionString = "jdbc:mysql://" + HOST1.toString() + "/" + dataBaseName;
-        sqlConnection = DriverManager.getConnection(connectionString, getProperties());
+        Connection sqlConnection = DriverManager.getConnection(connectionString, getProperties());
 
         String[] commands = getMySqlDump(dataBaseName).split(";\n");
 
@@ -160,7 +162,9 @@ public abstract class JunitDefaultsTestDB {
 
         String sql = "DROP SCHEMA `" + dataBaseName + "`;";
         db.connect("UNIQUE_ID_DELETE_DB");
-        db.createStatement().execute(sql);
+        try (Statement statement = db.createStatement()) {
+            statement.execute(sql);
+        }
         db.disconnect("UNIQUE_ID_DELETE_DB");
     }
 
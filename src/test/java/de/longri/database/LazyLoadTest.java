@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyLoadTest {
+
+    static class LazyTable extends IncrementalRefreshTest.KeyedTable {
+        LazyTable() {
+            super(null);
+        }
+
+        @Override
+        public boolean isLazyLoad() {
+            return true;
+        }
+    }
+
+    // the eager table is loaded with the cache, the lazy one on first access
+    static class LazyCache extends AbstractCache {
+        final CacheRefresherTest.OtherTable eager = new CacheRefresherTest.OtherTable();
+        final LazyTable lazy = new LazyTable();
+
+        LazyCache(String cacheFolder) {
+            super(cacheFolder);
+        }
+
+        @Override
+        protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+            return new AbstractTable[]{eager, lazy};
+        }
+
+        // held by loads and refreshes of the whole cache
+        Object cacheLock() {
+            return CACHE_FOLDER;
+        }
+    }
+
+    static long loads(IncrementalRefreshTest.FakeDatabaseConnection db) {
+        return db.queries.stream().filter(sql -> sql.startsWith("SELECT * FROM TypesTable")).count();
+    }
+
+    @Test
+    void singleFlightTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        LazyCache cache = new LazyCache(folder.getPath());
+        cache.loadCache(db);
+        assertTrue(cache.isCold("TypesTable"));
+        assertFalse(cache.isCold("OtherTable"));
+        assertEquals(100, cache.eager.size());
+        assertEquals(0, cache.snapshot().get("TypesTable").size());
+        assertEquals(0, loads(db));
+        // a cold table is neither refreshed nor written
+        assertEquals(List.of("OtherTable"), cache.getOutdatedTables(db));
+        assertFalse(new File(folder, "TypesTable_cache.bin").exists());
+
+        // concurrent first callers share one load
+        db.onRow = row -> {
+            if (row == 0) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        ArrayList<Future<AbstractTable<AbstractTableDataEntry>>> calls = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            calls.add(executor.submit(() -> {
+                start.await();
+                return cache.getTable("TypesTable");
+            }));
+        }
+        start.countDown();
+        for (Future<AbstractTable<AbstractTableDataEntry>> call : calls) assertSame(cache.lazy, call.get());
+        executor.shutdown();
+
+        assertEquals(1, loads(db));
+        assertFalse(cache.isCold("TypesTable"));
+        assertEquals(AbstractTable.Source.DB, cache.lazy.SOURCE);
+        IncrementalRefreshTest.assertSameRows(db, cache.lazy);
+        assertEquals(List.of("OtherTable"), cache.getOutdatedTables(db));
+
+        // a loaded lazy table is written and comes from disk on first access of the next start
+        cache.saveAllToDisk();
+        LazyCache restarted = new LazyCache(folder.getPath());
+        restarted.loadCache(db);
+        assertTrue(restarted.isCold("TypesTable"));
+        restarted.saveAllToDisk();
+        assertSame(restarted.lazy, restarted.getTable("TypesTable"));
+        assertEquals(AbstractTable.Source.Disk, restarted.lazy.SOURCE);
+        assertEquals(1, loads(db));
+        IncrementalRefreshTest.assertSameRows(db, restarted.lazy);
+    }
+
+    @Test
+    void loadDuringRefreshTest(@TempDir File folder) throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        LazyCache cache = new LazyCache(folder.getPath());
+        cache.loadCache(db);
+
+        // a running refresh holds the cache, the first access doesn't wait for it
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        synchronized (cache.cacheLock()) {
+            Future<AbstractTable<AbstractTableDataEntry>> call = executor.submit(() -> cache.getTable("TypesTable"));
+            assertSame(cache.lazy, call.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertFalse(cache.isCold("TypesTable"));
+        IncrementalRefreshTest.assertSameRows(db, cache.lazy);
+    }
+
+    @Test
+    void notLoadedTest() {
+        LazyCache cache = new LazyCache(".");
+        assertTrue(cache.isCold("TypesTable"));
+        assertThrows(IllegalStateException.class, () -> cache.getTable("TypesTable"));
+        assertTrue(cache.isCold("TypesTable"));
+        assertSame(cache.eager, cache.getTable("OtherTable"));
+    }
+}
@@ -66,26 +66,76 @@ class MariaDB_Cluster_ConnectionTest extends JunitDefaultsTestDB {
     @Test
     void getConnectionTest() throws SQLException, ClassNotFoundException {
 
-        // connections must rotate
-
-        String connectionString1 = "jdbc:mysql://localhost:13306,localhost:23306,localhost:33306/ClusterTestDB";
-        String connectionString2 = "jdbc:mysql://localhost:23306,localhost:33306,localhost:13306/ClusterTestDB";
-        String connectionString3 = "jdbc:mysql://localhost:33306,localhost:13306,localhost:23306/ClusterTestDB";
-
-        Connection connection = INSTANCE.getConnection().getConnection();
-        assertInstanceOf(PooledConnection.class, connection);
-
-        assertEquals(connectionString2, connection.getMetaData().getURL());
-
-        connection = INSTANCE.getConnection().getConnection();
-        assertInstanceOf(PooledConnection.class, connection);
-        assertEquals(connectionString3, connection.getMetaData().getURL());
-
-        connection = INSTANCE.getConnection().getConnection();
-        assertInstanceOf(PooledConnection.class, connection);
-        assertEquals(connectionString1, connection.getMetaData().getURL());
+        // every host has its own pool, connections must rotate over the hosts
+
+        String connectionString1 = "jdbc:mysql://localhost:13306/ClusterTestDB";
+        String connectionString2 = "jdbc:mysql://localhost:23306/ClusterTestDB";
+        String connectionString3 = "jdbc:mysql://localhost:33306/ClusterTestDB";
+
+        MariaDB_Cluster_Connection cluster = (MariaDB_Cluster_Connection) INSTANCE.getConnection();
+        HostSelector selector = cluster.getHostSelector();
+        cluster.setHostSelector(new RoundRobinHostSelector());
+
+        try {
+            try (Connection connection = cluster.getConnection()) {
+                assertInstanceOf(PooledConnection.class, connection);
+                assertEquals(connectionString1, connection.getMetaData().getURL());
+            }
+
+            try (Connection connection = cluster.getConnection()) {
+                assertInstanceOf(PooledConnection.class, connection);
+                assertEquals(connectionString2, connection.getMetaData().getURL());
+            }
+
+            try (Connection connection = cluster.getConnection()) {
+                assertInstanceOf(PooledConnection.class, connection);
+                assertEquals(connectionString3, connection.getMetaData().getURL());
+            }
+        } finally {
+            cluster.setHostSelector(selector);
+        }
+    }
 
+    @Test
+    void leastConnectionsTest() throws SQLException, ClassNotFoundException {
+        MariaDB_Cluster_Connection cluster = (MariaDB_Cluster_Connection) INSTANCE.getConnection();
+        HostSelector selector = cluster.getHostSelector();
+        cluster.setHostSelector(new LeastConnectionsHostSelector());
+
+        // three borrowed connections must be spread over the three hosts
+        try (Connection connection1 = cluster.getConnection();
+             Connection connection2 = cluster.getConnection();
+             Connection connection3 = cluster.getConnection()) {
+
+            assertEquals(1, INSTANCE.HOST1.getActiveConnections());
+            assertEquals(1, INSTANCE.HOST2.getActiveConnections());
+            assertEquals(1, INSTANCE.HOST3.getActiveConnections());
+        } finally {
+            cluster.setHostSelector(selector);
+        }
+    }
 
+    @Test
+    void readWriteSplittingTest() throws SQLException {
+        MariaDB_Cluster_Connection cluster = (MariaDB_Cluster_Connection) INSTANCE.getConnection();
+        cluster.setReadWriteSplitting(true);
+        cluster.setPrimaryHost(INSTANCE.HOST2);
+
+        String primaryUrl = "jdbc:mysql://localhost:23306/ClusterTestDB";
+        try {
+            for (int i = 0; i < 3; i++) {
+                Connection writeConnection = cluster.getWriteConnection();
+                assertEquals(primaryUrl, writeConnection.getMetaData().getURL());
+                writeConnection.close();
+
+                Connection readConnection = cluster.getReadConnection();
+                assertNotEquals(primaryUrl, readConnection.getMetaData().getURL());
+                readConnection.close();
+            }
+        } finally {
+            cluster.setReadWriteSplitting(false);
+            cluster.setPrimaryHost(INSTANCE.HOST1);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractCache;
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.database.table_data.ChangeEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+
+    static class NamedLazyTable extends LazyLoadTest.LazyTable {
+        final String name;
+
+        NamedLazyTable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getTableName() {
+            return name;
+        }
+    }
+
+    static class BudgetCache extends AbstractCache {
+        final NamedLazyTable a = new NamedLazyTable("LazyA");
+        final NamedLazyTable b = new NamedLazyTable("LazyB");
+        final NamedLazyTable c = new NamedLazyTable("LazyC");
+        final long budget;
+        final EvictionPolicy policy;
+
+        BudgetCache(String cacheFolder, long budget, EvictionPolicy policy) {
+            super(cacheFolder);
+            this.budget = budget;
+            this.policy = policy;
+        }
+
+        @Override
+        protected AbstractTable<AbstractTableDataEntry>[] getTables() {
+            return new AbstractTable[]{a, b, c};
+        }
+
+        @Override
+        protected long getMemoryBudget() {
+            return budget;
+        }
+
+        @Override
+        protected EvictionPolicy getEvictionPolicy() {
+            return policy;
+        }
+    }
+
+    static IncrementalRefreshTest.FakeDatabaseConnection database() {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(200);
+        db.tableNames.addAll(List.of("LazyA", "LazyB", "LazyC"));
+        return db;
+    }
+
+    // estimate of one loaded table, all tables have the same rows
+    static long tableSize(File folder) throws Exception {
+        BudgetCache cache = new BudgetCache(folder.getPath(), 0, AbstractCache.EvictionPolicy.LRU);
+        cache.loadCache(database());
+        return cache.getTable("LazyA").estimateMemory();
+    }
+
+    @Test
+    void estimateTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(200);
+        IncrementalRefreshTest.KeyedCache classic = new IncrementalRefreshTest.KeyedCache(".", new IncrementalRefreshTest.KeyedTable("created"), null);
+        IncrementalRefreshTest.KeyedCache compact = new IncrementalRefreshTest.KeyedCache(".", new CompactStorageTest.CompactTable(), null);
+        assertEquals(0, classic.table.estimateMemory());
+        classic.refreshFromDB(db);
+        compact.refreshFromDB(db);
+
+        long classicSize = classic.table.estimateMemory();
+        assertTrue(classicSize > 200 * 100, "estimate " + classicSize);
+        assertTrue(compact.table.estimateMemory() < classicSize);
+        assertEquals(classicSize, classic.table.estimateMemory());
+        assertEquals(classicSize, classic.getMemoryUsage());
+
+        // a new snapshot is estimated again
+        classic.table.clear();
+        assertEquals(0, classic.table.estimateMemory());
+    }
+
+    @Test
+    void lruEvictionTest(@TempDir File folder) throws Exception {
+        long tableSize = tableSize(new File(folder, "size"));
+        IncrementalRefreshTest.FakeDatabaseConnection db = database();
+        BudgetCache cache = new BudgetCache(folder.getPath(), tableSize * 5 / 2, AbstractCache.EvictionPolicy.LRU);
+        cache.loadCache(db);
+        cache.getTable("LazyA");
+        cache.getTable("LazyB");
+        cache.getTable("LazyC");
+
+        // tables without a cache file are kept over the budget
+        assertEquals(3 * tableSize, cache.getMemoryUsage());
+        assertFalse(cache.isCold("LazyA"));
+
+        // once written, the least recently used table is evicted
+        cache.saveAllToDisk();
+        assertTrue(cache.isCold("LazyA"));
+        assertEquals(0, cache.snapshot().get("LazyA").size());
+        assertEquals(2 * tableSize, cache.getMemoryUsage());
+
+        // an evicted table comes back from disk and evicts the next one
+        int loads = db.queries.size();
+        cache.getTable("LazyB");
+        assertSame(cache.a, cache.getTable("LazyA"));
+        assertEquals(AbstractTable.Source.Disk, cache.a.SOURCE);
+        IncrementalRefreshTest.assertSameRows(db, cache.a);
+        assertTrue(db.queries.subList(loads, db.queries.size()).stream().noneMatch(sql -> sql.startsWith("SELECT * FROM LazyA")));
+        assertTrue(cache.isCold("LazyC"));
+        assertFalse(cache.isCold("LazyB"));
+        assertEquals(List.of(), cache.evict());
+    }
+
+    @Test
+    void heldReferenceTest(@TempDir File folder) throws Exception {
+        long tableSize = tableSize(new File(folder, "size"));
+        IncrementalRefreshTest.FakeDatabaseConnection db = database();
+        BudgetCache cache = new BudgetCache(folder.getPath(), tableSize * 3 / 2, AbstractCache.EvictionPolicy.LRU);
+        cache.loadCache(db);
+        AbstractTable<AbstractTableDataEntry> held = cache.getTable("LazyA");
+        assertEquals(200, held.size());
+        cache.getTable("LazyB");
+        cache.saveAllToDisk();
+        assertTrue(cache.isCold("LazyA"));
+
+        // the reference from before the eviction reads the rows from disk again
+        int loads = db.queries.size();
+        assertNotNull(held.get(5));
+        assertFalse(cache.isCold("LazyA"));
+        assertEquals(AbstractTable.Source.Disk, held.SOURCE);
+        assertTrue(db.queries.subList(loads, db.queries.size()).stream().noneMatch(sql -> sql.startsWith("SELECT * FROM LazyA")));
+        assertTrue(cache.isCold("LazyB"));
+
+        // iterations and queries load an evicted table as well
+        NamedLazyTable other = cache.b;
+        assertEquals(1, other.where("id", AbstractTable.Op.EQ, 7).size());
+        assertTrue(cache.isCold("LazyA"));
+        int count = 0;
+        for (AbstractTableDataEntry ignored : held) count++;
+        assertEquals(200, count);
+        IncrementalRefreshTest.assertSameRows(db, cache.a);
+    }
+
+    @Test
+    void changedTableTest(@TempDir File folder) throws Exception {
+        long tableSize = tableSize(new File(folder, "size"));
+        IncrementalRefreshTest.FakeDatabaseConnection db = database();
+        BudgetCache cache = new BudgetCache(folder.getPath(), tableSize * 3 / 2, AbstractCache.EvictionPolicy.LRU);
+        cache.loadCache(db);
+        cache.getTable("LazyA");
+        cache.saveAllToDisk();
+
+        // the changes are only in memory, the table is kept over the budget
+        db.put(3, "changed", IncrementalRefreshTest.CHANGED);
+        assertEquals(Set.of("LazyA"), cache.applyChanges(db, List.of(new ChangeEvent("LazyA", "3", IncrementalRefreshTest.CHANGED))));
+        cache.getTable("LazyB");
+        assertFalse(cache.isCold("LazyA"));
+        assertEquals(2 * tableSize, cache.getMemoryUsage(), tableSize / 10.0);
+
+        // once written, it is evicted and comes back from disk with the changes
+        cache.saveAllToDisk();
+        assertTrue(cache.isCold("LazyA"));
+        assertSame(cache.a, cache.getTable("LazyA"));
+        assertEquals(AbstractTable.Source.Disk, cache.a.SOURCE);
+        IncrementalRefreshTest.assertSameRows(db, cache.a);
+    }
+
+    @Test
+    void lfuEvictionTest(@TempDir File folder) throws Exception {
+        long tableSize = tableSize(new File(folder, "size"));
+        IncrementalRefreshTest.FakeDatabaseConnection db = database();
+        BudgetCache cache = new BudgetCache(folder.getPath(), tableSize * 5 / 2, AbstractCache.EvictionPolicy.LFU);
+        cache.loadCache(db);
+        cache.getTable("LazyC");
+        cache.getTable("LazyC");
+        cache.getTable("LazyA");
+        for (int i = 0; i < 3; i++) cache.getTable("LazyB");
+
+        // the least frequently used table is evicted, even if it was used last
+        cache.saveAllToDisk();
+        assertEquals(List.of(true, false, false), List.of(cache.isCold("LazyA"), cache.isCold("LazyB"), cache.isCold("LazyC")));
+
+        // LazyA and LazyC were used twice, LazyA is kept as the table just loaded
+        cache.getTable("LazyA");
+        assertFalse(cache.isCold("LazyA"));
+        assertTrue(cache.isCold("LazyC"));
+        assertFalse(cache.isCold("LazyB"));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingLoadTest {
+
+    static class StreamingTable extends IncrementalRefreshTest.KeyedTable {
+        final boolean compact;
+
+        StreamingTable(boolean compact) {
+            super(null);
+            this.compact = compact;
+        }
+
+        @Override
+        public int getFetchSize() {
+            return 100;
+        }
+
+        @Override
+        public boolean isParallelDecoding() {
+            return true;
+        }
+
+        @Override
+        public boolean isCompactStorage() {
+            return compact;
+        }
+    }
+
+    static class ChunkedTable extends IncrementalRefreshTest.KeyedTable {
+        ChunkedTable() {
+            super(null);
+        }
+
+        @Override
+        public int getParallelLoadThreshold() {
+            return 1_000;
+        }
+    }
+
+    static long rangeQueries(IncrementalRefreshTest.FakeDatabaseConnection db) {
+        return db.queries.stream().filter(sql -> sql.contains("id >= ? AND id <= ?")).count();
+    }
+
+    static boolean fetchThreadAlive() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().endsWith("-fetch"));
+    }
+
+    @Test
+    void parallelDecodingTest() throws Exception {
+        for (boolean compact : new boolean[]{false, true}) {
+            IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+            StreamingTable table = new StreamingTable(compact);
+            IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", table, null);
+            assertTrue(cache.refreshFromDB(db));
+
+            assertEquals(100, db.fetchSize);
+            assertEquals(AbstractTable.Source.DB, table.SOURCE);
+            assertEquals(compact, table.get(0).isCompact());
+            assertEquals(4711, table.get(4711).getInt(table.getColumnIndex("id")));
+            IncrementalRefreshTest.assertSameRows(db, table);
+
+            // the same rows as the sequential load
+            IncrementalRefreshTest.KeyedTable sequential = new IncrementalRefreshTest.KeyedTable(null);
+            assertTrue(new IncrementalRefreshTest.KeyedCache(".", sequential, null).refreshFromDB(db));
+            assertEquals(sequential, table);
+            assertFalse(fetchThreadAlive());
+        }
+    }
+
+    @Test
+    void failureWhileStreamingTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+        db.failAfterRows = 5_000;
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", new StreamingTable(false), null);
+        SQLException e = assertThrows(SQLException.class, () -> cache.refreshFromDB(db));
+        assertEquals("connection lost", e.getMessage());
+        assertFalse(fetchThreadAlive());
+    }
+
+    @Test
+    void chunkedLoadTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+        for (int id = 2_000; id < 4_000; id++) db.delete(id);
+        // the database returns the changed row last
+        db.put(3, "changed", IncrementalRefreshTest.CHANGED);
+
+        ChunkedTable table = new ChunkedTable();
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", table, null).refreshFromDB(db));
+        assertEquals(4, rangeQueries(db));
+        IncrementalRefreshTest.assertSameRows(db, table);
+        int id = table.getColumnIndex("id");
+        for (int i = 1; i < table.size(); i++) {
+            assertTrue(table.tableData.get(i - 1).getInt(id) < table.tableData.get(i).getInt(id));
+        }
+        assertEquals("changed", table.get(3).getString(table.getColumnIndex("name")));
+
+        // below the threshold the table is loaded with one query
+        IncrementalRefreshTest.FakeDatabaseConnection small = new IncrementalRefreshTest.FakeDatabaseConnection(500);
+        small.put(3, "changed", IncrementalRefreshTest.CHANGED);
+        ChunkedTable smallTable = new ChunkedTable();
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", smallTable, null).refreshFromDB(small));
+        assertEquals(0, rangeQueries(small));
+        assertEquals(3, smallTable.tableData.get(499).getInt(id));
+
+        // no more ranges than free connections, a single connection loads with one query
+        IncrementalRefreshTest.FakeDatabaseConnection pooled = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+        pooled.availableConnections = 2;
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", new ChunkedTable(), null).refreshFromDB(pooled));
+        assertEquals(2, rangeQueries(pooled));
+        IncrementalRefreshTest.FakeDatabaseConnection single = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+        single.availableConnections = 1;
+        ChunkedTable singleTable = new ChunkedTable();
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", singleTable, null).refreshFromDB(single));
+        assertEquals(0, rangeQueries(single));
+        assertEquals(10_000, singleTable.size());
+    }
+
+    @Test
+    void failedChunkTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(10_000);
+        db.failAfterRows = 2_000;
+        ChunkedTable table = new ChunkedTable();
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", table, null);
+        assertThrows(SQLException.class, () -> cache.refreshFromDB(db));
+        assertEquals(0, table.size());
+    }
+}
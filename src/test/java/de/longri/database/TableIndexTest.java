@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableIndexTest {
+
+    static class NamedTable extends IncrementalRefreshTest.KeyedTable {
+        NamedTable() {
+            super(null);
+        }
+
+        @Override
+        public String[] getUniqueKeyColumns() {
+            return new String[]{"name"};
+        }
+    }
+
+    static class IndexedTable extends IncrementalRefreshTest.KeyedTable {
+        IndexedTable() {
+            super(null);
+        }
+
+        @Override
+        public String[] getHashIndexColumns() {
+            return new String[]{"name", "active"};
+        }
+
+        @Override
+        public String[] getSortedIndexColumns() {
+            return new String[]{"created", "value"};
+        }
+    }
+
+    static Set<Object> ids(List<? extends AbstractTableDataEntry> rows) {
+        HashSet<Object> ids = new HashSet<>();
+        for (AbstractTableDataEntry row : rows) assertTrue(ids.add(row.getProperty("id").get()));
+        return ids;
+    }
+
+    @Test
+    void primaryKeyTest(@TempDir File folder) throws Exception {
+        ColumnarTableFormatTest.writeRowFormat(folder, 1000);
+
+        // row format from disk
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        table.loadFromDisk(folder);
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id, table.get(id).getProperty("id").get());
+        }
+        assertNull(table.get(1000));
+        assertSame(table.get(17), table.get((Object) 17));
+
+        // columnar format from disk
+        table.saveToDisk(folder);
+        IncrementalRefreshTest.KeyedTable loaded = new IncrementalRefreshTest.KeyedTable(null);
+        loaded.loadFromDisk(folder);
+        assertEquals(999, loaded.get(999).getProperty("id").get());
+
+        // random deletes and updates, the index follows every change
+        Random random = new Random(42);
+        HashSet<Integer> expected = new HashSet<>();
+        for (int id = 0; id < 1000; id++) expected.add(id);
+        for (int round = 0; round < 20; round++) {
+            ArrayList<String> deleted = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                int id = random.nextInt(1000);
+                deleted.add(Integer.toString(id));
+                expected.remove(id);
+            }
+            int updated = random.nextInt(1000);
+            AbstractTableDataEntry changed = table.get(updated);
+            if (changed != null) {
+                table.applyDelta(List.of(loaded.get(updated)), deleted);
+                if (expected.contains(updated)) assertSame(loaded.get(updated), table.get(updated));
+            } else {
+                table.applyDelta(List.of(), deleted);
+            }
+            assertEquals(expected.size(), table.size());
+            for (int id = 0; id < 1000; id++) {
+                assertEquals(expected.contains(id), table.get(id) != null, "id " + id);
+            }
+        }
+
+        table.clear();
+        assertNull(table.get(0));
+        table.add(loaded.get(5));
+        assertSame(loaded.get(5), table.get(5));
+    }
+
+    @Test
+    void uniqueKeyTest(@TempDir File folder) throws Exception {
+        ColumnarTableFormatTest.writeRowFormat(folder, 5);
+        NamedTable table = new NamedTable();
+        table.loadFromDisk(folder);
+        assertEquals(3, table.getByUniqueKey("name", "name-3").getProperty("id").get());
+        assertSame(table.get(4), table.getByUniqueKey("id", 4));
+        assertNull(table.getByUniqueKey("name", "name-6"));
+        assertThrows(IllegalArgumentException.class, () -> table.getByUniqueKey("value", 1.0));
+
+        // changing an indexed value directly needs a rebuild
+        table.get(3).getProperty("name").set("renamed");
+        assertSame(table.get(3), table.getByUniqueKey("name", "name-3"));
+        table.rebuildIndexes();
+        assertNull(table.getByUniqueKey("name", "name-3"));
+        assertSame(table.get(3), table.getByUniqueKey("name", "renamed"));
+        assertThrows(UnsupportedOperationException.class, () -> table.tableData.remove(3));
+
+        assertThrows(IllegalStateException.class, () -> new ColumnarTableFormatTest.TypesTable().get(1));
+    }
+
+    @Test
+    void secondaryIndexTest(@TempDir File folder) throws Exception {
+        // large enough for the parallel scan of the table without indexes
+        ColumnarTableFormatTest.writeRowFormat(folder, 20_000);
+        IndexedTable indexed = new IndexedTable();
+        indexed.loadFromDisk(folder);
+        ColumnarTableFormatTest.TypesTable scanned = new ColumnarTableFormatTest.TypesTable();
+        scanned.loadFromDisk(folder);
+
+        LocalDateTime created = LocalDateTime.of(2024, 1, 1, 12, 0).plusMinutes(12_345);
+        Object[][] queries = {
+                {"name", "name-3"}, {"active", true}, {"created", created}, {"value", 100.0}, {"value", 100}, {"id", 77}, {"id", 77.0}
+        };
+        for (Object[] query : queries) {
+            for (AbstractTable.Op op : AbstractTable.Op.values()) {
+                List<ColumnarTableFormatTest.TypesTable_data> expected = scanned.where((String) query[0], op, query[1]);
+                assertEquals(ids(expected), ids(indexed.where((String) query[0], op, query[1])), query[0] + " " + op + " " + query[1]);
+            }
+        }
+        assertEquals(2857, indexed.where("name", AbstractTable.Op.EQ, "name-3").size());
+
+        // ranges from a sorted index are ordered by the column
+        List<ColumnarTableFormatTest.TypesTable_data> values = indexed.range("value", 10.0, true, 20.0, false);
+        assertEquals(ids(scanned.range("value", 10.0, true, 20.0, false)), ids(values));
+        assertEquals(20, values.size());
+        for (int i = 1; i < values.size(); i++) {
+            assertTrue((Double) values.get(i - 1).getProperty("value").get() < (Double) values.get(i).getProperty("value").get());
+        }
+
+        // the indexes follow changes of the table
+        indexed.applyDelta(List.of(), List.of("3", "10"));
+        assertEquals(2855, indexed.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(19, indexed.range("value", 5.0, true, 15.0, false).size());
+        indexed.clear();
+        assertTrue(indexed.where("active", AbstractTable.Op.EQ, true).isEmpty());
+    }
+
+    @Test
+    void bigintKeyTest(@TempDir File folder) throws Exception {
+        ColumnarTableFormatTest.writeRowFormat(folder, 100);
+        IncrementalRefreshTest.KeyedTable loaded = new IncrementalRefreshTest.KeyedTable(null);
+        loaded.loadFromDisk(folder);
+
+        // rows with Long keys, as a BIGINT column is read
+        ArrayList<ColumnarTableFormatTest.TypesTable_data> rows = new ArrayList<>(loaded.snapshot().getRows());
+        int id = loaded.getColumnIndex("id");
+        for (AbstractTableDataEntry row : rows) row.setValue(id, ((Integer) row.getValue(id)).longValue());
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        table.addAll(rows);
+
+        assertEquals(5L, table.get(5).getValue(id));
+        assertSame(table.get(5), table.get((Object) 5L));
+        assertSame(table.get(5), table.get((Object) 5));
+        assertEquals(1, table.where("id", AbstractTable.Op.EQ, 5).size());
+        assertEquals(1, table.where("id", AbstractTable.Op.EQ, 5L).size());
+
+        // deleted keys come as strings from the change log
+        table.applyDelta(List.of(), List.of("5", "7", "1000"));
+        assertEquals(98, table.size());
+        assertNull(table.get(5));
+        assertNull(table.get((Object) 7L));
+        assertNotNull(table.get(6));
+    }
+
+    // BIGINT column with a hash or a sorted index, no primary key
+    static class BigintTable extends ColumnarTableFormatTest.TypesTable {
+        final boolean sorted;
+
+        BigintTable(boolean sorted) {
+            this.sorted = sorted;
+        }
+
+        @Override
+        public String[] getHashIndexColumns() {
+            return sorted ? new String[0] : new String[]{"id"};
+        }
+
+        @Override
+        public String[] getSortedIndexColumns() {
+            return sorted ? new String[]{"id"} : new String[0];
+        }
+    }
+
+    @Test
+    void bigintSecondaryIndexTest(@TempDir File folder) throws Exception {
+        ColumnarTableFormatTest.writeRowFormat(folder, 100);
+        ColumnarTableFormatTest.TypesTable loaded = new ColumnarTableFormatTest.TypesTable();
+        loaded.loadFromDisk(folder);
+        ArrayList<ColumnarTableFormatTest.TypesTable_data> rows = new ArrayList<>(loaded.snapshot().getRows());
+        int id = loaded.getColumnIndex("id");
+        for (AbstractTableDataEntry row : rows) row.setValue(id, ((Integer) row.getValue(id)).longValue());
+        // the same double, only the low bits differ
+        long first = (1L << 53) + 1;
+        long second = (1L << 53) + 2;
+        rows.get(10).setValue(id, first);
+        rows.get(11).setValue(id, second);
+
+        ColumnarTableFormatTest.TypesTable scanned = new ColumnarTableFormatTest.TypesTable();
+        BigintTable hashed = new BigintTable(false);
+        BigintTable sorted = new BigintTable(true);
+        for (AbstractTable<ColumnarTableFormatTest.TypesTable_data> table : List.of(scanned, hashed, sorted)) {
+            table.addAll(rows);
+            assertEquals(List.of(rows.get(10)), table.where("id", AbstractTable.Op.EQ, first));
+            assertEquals(List.of(rows.get(11)), table.where("id", AbstractTable.Op.EQ, second));
+            assertEquals(List.of(rows.get(10)), table.where("id", AbstractTable.Op.EQ, new BigDecimal(first)));
+            assertEquals(List.of(rows.get(12)), table.where("id", AbstractTable.Op.EQ, 12.0));
+            assertTrue(table.where("id", AbstractTable.Op.EQ, 12.5).isEmpty());
+        }
+        assertEquals(List.of(rows.get(10)), sorted.range("id", first, true, second, false));
+        assertEquals(scanned.where("id", AbstractTable.Op.GE, first).size(), sorted.where("id", AbstractTable.Op.GE, first).size());
+        assertEquals(2, sorted.where("id", AbstractTable.Op.GT, 99.5).size());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2024 Longri
+ *
+ * This file is part of database.
+ *
+ * database is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * database is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with fxutils. If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.longri.database;
+
+import de.longri.database.table_data.AbstractTable;
+import de.longri.database.table_data.AbstractTableDataEntry;
+import de.longri.database.table_data.CacheSnapshot;
+import de.longri.database.table_data.TableSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableSnapshotTest {
+
+    static void assertNames(TableSnapshot<? extends AbstractTableDataEntry> snapshot, int count, String prefix) {
+        assertEquals(count, snapshot.size());
+        for (AbstractTableDataEntry row : snapshot) {
+            assertTrue(((String) row.getValue("name")).startsWith(prefix), (String) row.getValue("name"));
+        }
+    }
+
+    @Test
+    void readersKeepOldRowsWhileReloadingTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(1_000);
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", table, null);
+        assertTrue(cache.refreshFromDB(db));
+        TableSnapshot<?> first = table.snapshot();
+        CacheSnapshot firstCache = cache.snapshot();
+        assertSame(first, firstCache.get(table));
+
+        // the table has no change column and is reloaded completely, the reload stops half way
+        for (int id = 0; id < 1_000; id++) db.put(id, "new-" + id, IncrementalRefreshTest.CHANGED);
+        db.lastModified = IncrementalRefreshTest.CHANGED;
+        CountDownLatch halfWay = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        db.onRow = row -> {
+            if (row != 500) return;
+            halfWay.countDown();
+            try {
+                assertTrue(resume.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        CompletableFuture<Boolean> refresh = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.refreshFromDB(db);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(halfWay.await(10, TimeUnit.SECONDS));
+
+        // readers see the complete old version and don't wait for the reload
+        assertSame(first, table.snapshot());
+        assertEquals(1_000, table.size());
+        assertEquals("name-3", table.get(3).getValue("name"));
+        assertEquals(143, table.where("name", AbstractTable.Op.EQ, "name-0").size());
+        assertNames(table.snapshot(), 1_000, "name-");
+        assertSame(firstCache, cache.snapshot());
+
+        resume.countDown();
+        assertTrue(refresh.get(10, TimeUnit.SECONDS));
+        assertTrue(table.snapshot().VERSION > first.VERSION);
+        assertNames(table.snapshot(), 1_000, "new-");
+        assertEquals("new-3", table.get(3).getValue("name"));
+        assertTrue(cache.snapshot().VERSION > firstCache.VERSION);
+        assertSame(table.snapshot(), cache.snapshot().get("TypesTable"));
+
+        // pinned snapshots don't change
+        assertNames(first, 1_000, "name-");
+        assertNames(firstCache.get(table), 1_000, "name-");
+        assertEquals("name-3", first.get(3).getValue("name"));
+        assertThrows(UnsupportedOperationException.class, () -> table.tableData.clear());
+    }
+
+    @Test
+    void failedReloadKeepsRowsTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(1_000);
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", table, null);
+        assertTrue(cache.refreshFromDB(db));
+        TableSnapshot<?> loaded = table.snapshot();
+
+        db.lastModified = IncrementalRefreshTest.CHANGED;
+        db.failAfterRows = 500;
+        assertThrows(SQLException.class, () -> cache.refreshFromDB(db));
+        assertSame(loaded, table.snapshot());
+        assertEquals(1_000, table.size());
+    }
+
+    @Test
+    void addsAreCollectedUntilReadTest() throws Exception {
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", table, null).refreshFromDB(new IncrementalRefreshTest.FakeDatabaseConnection(100)));
+        IncrementalRefreshTest.KeyedTable other = new IncrementalRefreshTest.KeyedTable(null);
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", other, null).refreshFromDB(new IncrementalRefreshTest.FakeDatabaseConnection(201)));
+        TableSnapshot<?> before = table.snapshot();
+
+        // the rows are added to one copy, not to a copy per row
+        for (int id = 100; id < 200; id++) table.add(other.get(id));
+        assertEquals(100, before.size());
+        assertEquals(200, CompletableFuture.supplyAsync(table::size).get(10, TimeUnit.SECONDS));
+        TableSnapshot<?> added = table.snapshot();
+        assertEquals(before.VERSION + 1, added.VERSION);
+        assertNotNull(table.get(150));
+
+        // a published snapshot isn't changed by the next add
+        table.add(other.get(200));
+        assertEquals(200, added.size());
+        assertEquals(201, table.size());
+        assertEquals(added.VERSION + 1, table.snapshot().VERSION);
+    }
+
+    @Test
+    void readDuringReloadTest() throws Exception {
+        IncrementalRefreshTest.KeyedTable table = new IncrementalRefreshTest.KeyedTable(null);
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", table, null).refreshFromDB(new IncrementalRefreshTest.FakeDatabaseConnection(100)));
+        IncrementalRefreshTest.KeyedTable other = new IncrementalRefreshTest.KeyedTable(null);
+        assertTrue(new IncrementalRefreshTest.KeyedCache(".", other, null).refreshFromDB(new IncrementalRefreshTest.FakeDatabaseConnection(101)));
+
+        // rows added and not read yet, then another thread starts a reload and holds it
+        table.add(other.get(100));
+        CountDownLatch reloading = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Void> reload = CompletableFuture.runAsync(() -> {
+            table.beginReload();
+            try {
+                reloading.countDown();
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                table.endReload(false);
+            }
+        });
+        try {
+            assertTrue(reloading.await(10, TimeUnit.SECONDS));
+            // readers of other threads don't wait for the reload and see the added row
+            assertEquals(101, CompletableFuture.supplyAsync(table::size).get(10, TimeUnit.SECONDS));
+            assertNotNull(CompletableFuture.supplyAsync(() -> table.get(100)).get(10, TimeUnit.SECONDS));
+            assertEquals(101, table.snapshot().size());
+        } finally {
+            finish.countDown();
+        }
+        reload.get(10, TimeUnit.SECONDS);
+        assertEquals(101, table.size());
+    }
+
+    @Test
+    void changesPublishNewVersionsTest() throws Exception {
+        IncrementalRefreshTest.FakeDatabaseConnection db = new IncrementalRefreshTest.FakeDatabaseConnection(100);
+        IncrementalRefreshTest.KeyedCache cache = new IncrementalRefreshTest.KeyedCache(".", new TableIndexTest.IndexedTable(), null);
+        assertTrue(cache.refreshFromDB(db));
+        IncrementalRefreshTest.KeyedTable table = cache.table;
+        TableSnapshot<ColumnarTableFormatTest.TypesTable_data> before = table.snapshot();
+
+        // a delta changes a copy, the indexes of the old version stay as they were
+        table.applyDelta(List.of(), List.of("3"));
+        assertEquals(before.VERSION + 1, table.snapshot().VERSION);
+        assertNull(table.get(3));
+        assertNotNull(before.get(3));
+        assertEquals(14, before.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(13, table.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(16, before.range("value", 0.0, true, 8.0, false).size());
+        assertEquals(15, table.range("value", 0.0, true, 8.0, false).size());
+
+        // the next copy shares the buckets as well, adding to one leaves the older versions as they were
+        TableSnapshot<ColumnarTableFormatTest.TypesTable_data> deleted = table.snapshot();
+        table.applyDelta(List.of(before.get(3)), List.of());
+        assertEquals(14, table.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(13, deleted.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(14, before.where("name", AbstractTable.Op.EQ, "name-3").size());
+        assertEquals(16, table.range("value", 0.0, true, 8.0, false).size());
+        assertEquals(15, deleted.range("value", 0.0, true, 8.0, false).size());
+        table.applyDelta(List.of(), List.of("3"));
+
+        // a reload started by this thread is seen by this thread only
+        table.beginReload();
+        try {
+            table.add(before.get(3));
+            assertEquals(1, table.size());
+            assertEquals(100 - 1, CompletableFuture.supplyAsync(table::size).get(10, TimeUnit.SECONDS));
+        } finally {
+            table.endReload(false);
+        }
+        assertEquals(99, table.size());
+    }
+}